@@ -0,0 +1,64 @@
+package it.univr.cevprices;
+
+/**
+ * This class represents the payoff of a knock-out call option with maturity T equal to the final time of the simulation: it is
+ * max(X_T - K, 0) if the underlying has never crossed the barrier before T, and zero otherwise. The barrier can be above or below the
+ * initial value.
+ *
+ * The underlying is only simulated at the times of the discretization, but it can cross the barrier between two of them. Given the
+ * values x_i and x_(i+1) at two consecutive times, both on the same side of the barrier B, the probability that the path has crossed it
+ * in between is approximated by the one of a Brownian bridge with the local variance v_i of the step, i.e., by
+ * exp(-2 (x_i - B)(x_(i+1) - B) / v_i). Instead of killing the path with this probability, the payoff is multiplied by the probabilities
+ * that the path has not crossed the barrier in any step: this gives the same expectation with a smaller variance.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BarrierCallPayoff implements PathPayoff {
+
+	private final double strike;
+	private final double barrier;
+	private final boolean isBarrierAbove;
+
+	/**
+	 * It constructs the payoff of a knock-out call option
+	 *
+	 * @param strike
+	 * @param barrier, the option pays nothing if the underlying crosses it
+	 * @param isBarrierAbove, true if the option is knocked out when the underlying goes above the barrier, false if it is knocked out when
+	 * 		  it goes below
+	 */
+	public BarrierCallPayoff(double strike, double barrier, boolean isBarrierAbove) {
+		this.strike = strike;
+		this.barrier = barrier;
+		this.isBarrierAbove = isBarrierAbove;
+	}
+
+	@Override
+	public double getPayoff(double[] path, int firstPosition, CevMonteCarloSimulator simulator) {
+
+		int numberOfTimeSteps = simulator.getNumberOfTimeSteps();
+
+		double finalPayoff = Math.max(path[firstPosition + numberOfTimeSteps] - strike, 0.0);
+		if (finalPayoff == 0) {
+			return 0.0;
+		}
+
+		double probabilityOfNotCrossing = 1.0;
+		//the difference between the value and the barrier, positive if the value is on the side of the initial value
+		double oldDistance = isBarrierAbove ? barrier - path[firstPosition] : path[firstPosition] - barrier;
+		for (int timeIndex = 0; timeIndex < numberOfTimeSteps; timeIndex++) {
+			double newValue = path[firstPosition + timeIndex + 1];
+			double newDistance = isBarrierAbove ? barrier - newValue : newValue - barrier;
+			if (oldDistance <= 0 || newDistance <= 0) {
+				return 0.0;
+			}
+			double localVariance = simulator.getLocalVariance(path[firstPosition + timeIndex]);
+			if (localVariance > 0) {
+				probabilityOfNotCrossing *= 1 - Math.exp(-2 * oldDistance * newDistance / localVariance);
+			}
+			oldDistance = newDistance;
+		}
+		return finalPayoff * probabilityOfNotCrossing;
+	}
+}
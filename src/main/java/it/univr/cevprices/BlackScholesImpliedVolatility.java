@@ -0,0 +1,137 @@
+package it.univr.cevprices;
+
+import net.finmath.functions.NormalDistribution;
+
+/**
+ * This class computes the implied volatilities of the Black-Scholes model, with zero interest rate, for the prices of call options,
+ * for example the ones given by CevPrices or CevSensitivities. It has a method for one price and a method for all the prices for given
+ * strikes and maturities, which are read from an array and written in another array in the same order, without creating any object.
+ *
+ * The equation S N(d1) - K N(d2) = C is solved for the total standard deviation s = sigma sqrt(T), where d1 = log(S/K)/s + s/2 and
+ * d2 = d1 - s. The first guess is the rational approximation of Corrado and Miller. Then Householder steps of third order are done: since
+ * the derivatives of the price with respect to s are vega, vega d1 d2 / s and vega ((d1 d2 / s)^2 - 3 log(S/K)^2 / s^4 - 1/4), they cost
+ * very little once vega is computed, and the number of correct digits is more or less multiplied by four at every step. Every step which
+ * would go out of the interval where the solution is known to be is replaced by a bisection step, so the method always converges.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BlackScholesImpliedVolatility {
+
+	private static final int MAXIMUM_NUMBER_OF_ITERATIONS = 50;
+
+	//the iterations stop when the relative change of the standard deviation is smaller than this
+	private static final double RELATIVE_TOLERANCE = 1E-14;
+
+	/**
+	 * It returns the Black-Scholes implied volatility of the price of a call option
+	 *
+	 * @param initialValue
+	 * @param maturity
+	 * @param strike
+	 * @param price, the price of the call
+	 * @return the volatility which gives the price in the Black-Scholes model. It is zero if the price is equal to max(initialValue - strike, 0),
+	 * 		   and Double.NaN if it is smaller or if it is not smaller than initialValue, since then no volatility gives the price
+	 */
+	public static double getImpliedVolatility(double initialValue, double maturity, double strike, double price) {
+		return getImpliedStandardDeviation(initialValue, strike, price) / Math.sqrt(maturity);
+	}
+
+	/**
+	 * It computes the Black-Scholes implied volatilities of the prices of call options for all the combinations of given maturities and
+	 * strikes, and writes them in a given array. The price and the volatility for the maturity of index i and the strike of index j are
+	 * at position firstPosition + i * strikes.length + j, as in the methods of CevPrices and CevSensitivities.
+	 *
+	 * @param initialValue
+	 * @param maturities
+	 * @param strikes
+	 * @param prices, the array of the prices of the calls
+	 * @param volatilities, the array where the implied volatilities are written. It can be the same array as prices
+	 * @param firstPosition, the position of the arrays where the values for the first maturity and the first strike are
+	 */
+	public static void computeImpliedVolatilities(double initialValue, double[] maturities, double[] strikes, double[] prices,
+			double[] volatilities, int firstPosition) {
+		int position = firstPosition;
+		for (double maturity : maturities) {
+			double squareRootOfMaturity = Math.sqrt(maturity);
+			for (double strike : strikes) {
+				volatilities[position] = getImpliedStandardDeviation(initialValue, strike, prices[position]) / squareRootOfMaturity;
+				position++;
+			}
+		}
+	}
+
+	//it returns the total standard deviation sigma sqrt(T) which gives the price
+	private static double getImpliedStandardDeviation(double initialValue, double strike, double price) {
+
+		double intrinsicValue = Math.max(initialValue - strike, 0);
+		if (price == intrinsicValue) {
+			return 0.0;
+		}
+		if (!(price > intrinsicValue && price < initialValue)) {
+			return Double.NaN;
+		}
+
+		double logMoneyness = Math.log(initialValue / strike);
+
+		//the solution is in (lowerBound, upperBound): the price is increasing in the standard deviation
+		double lowerBound = 0.0;
+		double upperBound = Double.POSITIVE_INFINITY;
+
+		double standardDeviation = getFirstGuess(initialValue, strike, price, logMoneyness);
+
+		for (int iteration = 0; iteration < MAXIMUM_NUMBER_OF_ITERATIONS; iteration++) {
+
+			double d1 = logMoneyness / standardDeviation + 0.5 * standardDeviation;
+			double d2 = d1 - standardDeviation;
+			double difference = initialValue * NormalDistribution.cumulativeDistribution(d1)
+					- strike * NormalDistribution.cumulativeDistribution(d2) - price;
+
+			if (difference > 0) {
+				upperBound = standardDeviation;
+			} else if (difference < 0) {
+				lowerBound = standardDeviation;
+			} else {
+				return standardDeviation;
+			}
+
+			double vega = initialValue * NormalDistribution.density(d1);
+
+			//the Householder step of third order, with the ratios of the second and third derivatives to the first one
+			double newtonStep = -difference / vega;
+			double secondOverFirstDerivative = d1 * d2 / standardDeviation;
+			double squaredStandardDeviation = standardDeviation * standardDeviation;
+			double thirdOverFirstDerivative = secondOverFirstDerivative * secondOverFirstDerivative
+					- 3 * logMoneyness * logMoneyness / (squaredStandardDeviation * squaredStandardDeviation) - 0.25;
+			double step = newtonStep * (1 + 0.5 * secondOverFirstDerivative * newtonStep)
+					/ (1 + secondOverFirstDerivative * newtonStep + thirdOverFirstDerivative * newtonStep * newtonStep / 6);
+
+			double newStandardDeviation = standardDeviation + step;
+
+			//a bisection step if the Householder step goes out of the interval, or if vega is zero
+			if (!(newStandardDeviation > lowerBound && newStandardDeviation < upperBound)) {
+				newStandardDeviation = upperBound == Double.POSITIVE_INFINITY ? 2 * standardDeviation : 0.5 * (lowerBound + upperBound);
+			}
+
+			if (Math.abs(newStandardDeviation - standardDeviation) <= RELATIVE_TOLERANCE * newStandardDeviation) {
+				return newStandardDeviation;
+			}
+			standardDeviation = newStandardDeviation;
+		}
+		return standardDeviation;
+	}
+
+	/*
+	 * The approximation of Corrado and Miller. When it is not defined or too small, which happens for options far from the money, we take
+	 * the standard deviation where vega is maximum, sqrt(2 |log(S/K)|)
+	 */
+	private static double getFirstGuess(double initialValue, double strike, double price, double logMoneyness) {
+		double halfDifference = 0.5 * (initialValue - strike);
+		double priceMinusHalfDifference = price - halfDifference;
+		double discriminant = priceMinusHalfDifference * priceMinusHalfDifference - halfDifference * halfDifference * 4 / Math.PI;
+		double guess = Math.sqrt(2 * Math.PI) / (initialValue + strike)
+				* (priceMinusHalfDifference + Math.sqrt(Math.max(discriminant, 0)));
+		double standardDeviationWithMaximumVega = Math.sqrt(2 * Math.abs(logMoneyness));
+		return guess > 0.1 * standardDeviationWithMaximumVega && guess > 1E-8 ? guess : Math.max(standardDeviationWithMaximumVega, 1E-2);
+	}
+}
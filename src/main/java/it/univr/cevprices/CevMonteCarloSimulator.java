@@ -0,0 +1,208 @@
+package it.univr.cevprices;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+
+/**
+ * This class simulates the paths of a displaced CEV process
+ *
+ * dX_t = sigma (X_t + d)^beta dW_t,
+ * X_0 = x_0,
+ *
+ * absorbed when X_t + d reaches zero, and computes the Monte Carlo approximations of the prices of options written on it. For d = 0 these
+ * are the prices given by CevPrices, so the class can be used to check them, and to compute the prices of options for which no formula
+ * is known, as barrier options.
+ *
+ * The process Y = X + d is simulated by the Euler scheme on an equally spaced time grid. When the simulated Y gets negative, the path is
+ * absorbed. Moreover, even if Y is positive at two consecutive times, the true process could have reached zero in between: this happens
+ * with probability approximately equal to exp(-2 Y_i Y_(i+1) / v_i), where v_i = sigma^2 Y_i^(2 beta) dt is the local variance, as for a
+ * Brownian bridge. The path is then absorbed with this probability too, so that the absorption is not missed between two times.
+ *
+ * The paths are simulated in blocks of BLOCK_SIZE paths, which are stored in one array, path after path, and are computed in parallel.
+ * The payoffs of every path are given to PayoffAccumulator objects as soon as the block is simulated, so the paths are never stored all
+ * together and their number is only limited by time. The random numbers of a block are generated by a SplittableRandom object whose seed
+ * only depends on the seed given by the user and on the index of the block, and the accumulators of the blocks are merged in the order of
+ * the blocks: so the results are the same for any number of threads.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CevMonteCarloSimulator {
+
+	//the number of paths simulated together by one thread
+	private static final int BLOCK_SIZE = 1024;
+
+	//the absorption between two times is neglected when its probability is smaller than exp(-40), i.e., about 4E-18
+	private static final double MAXIMUM_EXPONENT_OF_ABSORPTION_PROBABILITY = 40.0;
+
+	private final double initialValue;
+	private final double sigma;
+	private final double exponent;
+	private final double displacement;
+
+	private final int numberOfTimeSteps;
+	private final double timeStep;
+
+	private final long numberOfPaths;
+	private final long seed;
+
+	//every thread simulates its blocks in its own array, which is allocated only once
+	private final ThreadLocal<double[]> blockOfPaths;
+
+	/**
+	 * It constructs an object to simulate the displaced CEV process
+	 *
+	 * @param initialValue, the initial value x_0 of the process
+	 * @param sigma
+	 * @param exponent, the exponent beta
+	 * @param displacement, the displacement d. The process is absorbed when it reaches -d
+	 * @param finalTime, the final time of the simulation, which is the maturity of the options
+	 * @param numberOfTimeSteps, the number of steps of the time grid
+	 * @param numberOfPaths, the number of simulated paths
+	 * @param seed, the seed from which all the random numbers are generated
+	 */
+	public CevMonteCarloSimulator(double initialValue, double sigma, double exponent, double displacement, double finalTime,
+			int numberOfTimeSteps, long numberOfPaths, long seed) {
+		if (initialValue + displacement <= 0) {
+			throw new IllegalArgumentException("The initial value plus the displacement must be positive");
+		}
+		if (numberOfTimeSteps < 1 || numberOfPaths < 1) {
+			throw new IllegalArgumentException("At least one time step and one path are needed");
+		}
+		this.initialValue = initialValue;
+		this.sigma = sigma;
+		this.exponent = exponent;
+		this.displacement = displacement;
+		this.numberOfTimeSteps = numberOfTimeSteps;
+		this.timeStep = finalTime / numberOfTimeSteps;
+		this.numberOfPaths = numberOfPaths;
+		this.seed = seed;
+		this.blockOfPaths = ThreadLocal.withInitial(() -> new double[BLOCK_SIZE * (numberOfTimeSteps + 1)]);
+	}
+
+	/**
+	 * It simulates all the paths and returns, for every given payoff, the object where its values for all the paths have been
+	 * accumulated. All the payoffs are computed from the same paths.
+	 *
+	 * @param payoffs, the payoffs of the options
+	 * @return an array whose element of index i has accumulated the values of the payoff of index i
+	 */
+	public PayoffAccumulator[] getAccumulatedPayoffs(PathPayoff... payoffs) {
+
+		int numberOfBlocks = Math.toIntExact((numberOfPaths + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+		PayoffAccumulator[][] accumulatorsForBlocks = new PayoffAccumulator[numberOfBlocks][];
+
+		IntStream.range(0, numberOfBlocks).parallel().forEach(blockIndex -> {
+			int numberOfPathsInBlock = (int) Math.min(BLOCK_SIZE, numberOfPaths - (long) blockIndex * BLOCK_SIZE);
+			accumulatorsForBlocks[blockIndex] = simulateBlock(blockIndex, numberOfPathsInBlock, payoffs);
+		});
+
+		//the accumulators are merged always in the same order
+		PayoffAccumulator[] accumulators = new PayoffAccumulator[payoffs.length];
+		for (int payoffIndex = 0; payoffIndex < payoffs.length; payoffIndex++) {
+			accumulators[payoffIndex] = new PayoffAccumulator();
+			for (PayoffAccumulator[] accumulatorsForBlock : accumulatorsForBlocks) {
+				accumulators[payoffIndex].add(accumulatorsForBlock[payoffIndex]);
+			}
+		}
+		return accumulators;
+	}
+
+	/**
+	 * It returns the Monte Carlo approximation of the price of an option with given payoff
+	 *
+	 * @param payoff, the payoff of the option
+	 * @return the average of the payoffs over all the paths
+	 */
+	public double getPrice(PathPayoff payoff) {
+		return getAccumulatedPayoffs(payoff)[0].getAverage();
+	}
+
+	private PayoffAccumulator[] simulateBlock(int blockIndex, int numberOfPathsInBlock, PathPayoff[] payoffs) {
+
+		SplittableRandom randomGenerator = new SplittableRandom(UsefulMethodsForArrays.getSeedForIndex(seed, blockIndex));
+
+		double[] paths = blockOfPaths.get();
+		double squareRootOfTimeStep = Math.sqrt(timeStep);
+		double squaredSigmaTimesTimeStep = sigma * sigma * timeStep;
+		int numberOfTimes = numberOfTimeSteps + 1;
+
+		for (int pathIndex = 0; pathIndex < numberOfPathsInBlock; pathIndex++) {
+			int position = pathIndex * numberOfTimes;
+			//we simulate Y = X + d
+			double displacedValue = initialValue + displacement;
+			paths[position] = initialValue;
+			for (int timeIndex = 1; timeIndex < numberOfTimes; timeIndex++) {
+				if (displacedValue > 0) {
+					double power = Math.pow(displacedValue, exponent);
+					double newDisplacedValue = displacedValue + sigma * power * squareRootOfTimeStep * randomGenerator.nextGaussian();
+					if (newDisplacedValue <= 0) {
+						newDisplacedValue = 0.0;
+					} else {
+						//absorption with the probability that a Brownian bridge between the two values reaches zero
+						double exponentOfProbability = 2 * displacedValue * newDisplacedValue / (squaredSigmaTimesTimeStep * power * power);
+						//we don't draw the uniform random number when the probability is negligible, which is almost always the case
+						if (exponentOfProbability < MAXIMUM_EXPONENT_OF_ABSORPTION_PROBABILITY
+								&& randomGenerator.nextDouble() < Math.exp(-exponentOfProbability)) {
+							newDisplacedValue = 0.0;
+						}
+					}
+					displacedValue = newDisplacedValue;
+				}
+				paths[position + timeIndex] = displacedValue - displacement;
+			}
+		}
+
+		PayoffAccumulator[] accumulators = new PayoffAccumulator[payoffs.length];
+		for (int payoffIndex = 0; payoffIndex < payoffs.length; payoffIndex++) {
+			PayoffAccumulator accumulator = new PayoffAccumulator();
+			for (int pathIndex = 0; pathIndex < numberOfPathsInBlock; pathIndex++) {
+				accumulator.add(payoffs[payoffIndex].getPayoff(paths, pathIndex * numberOfTimes, this));
+			}
+			accumulators[payoffIndex] = accumulator;
+		}
+		return accumulators;
+	}
+
+	/**
+	 * It returns the variance of the increment of the process in one time step, given its value at the beginning of the step, i.e.,
+	 * sigma^2 (x + d)^(2 beta) dt. It is zero if the process is absorbed.
+	 *
+	 * @param value, the value x of the process at the beginning of the step
+	 * @return the variance of the increment of the process in one time step
+	 */
+	public double getLocalVariance(double value) {
+		double displacedValue = value + displacement;
+		return displacedValue <= 0 ? 0.0 : sigma * sigma * Math.pow(displacedValue, 2 * exponent) * timeStep;
+	}
+
+	/**
+	 * It returns the number of steps of the time grid
+	 *
+	 * @return the number of steps of the time grid
+	 */
+	public int getNumberOfTimeSteps() {
+		return numberOfTimeSteps;
+	}
+
+	/**
+	 * It returns the length of the steps of the time grid
+	 *
+	 * @return the length of the steps of the time grid
+	 */
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	/**
+	 * It returns the number of simulated paths
+	 *
+	 * @return the number of simulated paths
+	 */
+	public long getNumberOfPaths() {
+		return numberOfPaths;
+	}
+}
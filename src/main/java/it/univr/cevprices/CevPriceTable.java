@@ -0,0 +1,361 @@
+package it.univr.cevprices;
+
+import java.util.stream.IntStream;
+
+/**
+ * This class gives the prices of call options written on a displaced CEV process
+ *
+ * dX_t = sigma (X_t + d)^beta dW_t,
+ * X_0 = x_0,
+ *
+ * for fixed initial value, sigma, strikes and maturities, and for exponents beta and displacements d in given intervals, much faster than
+ * CevPrices. The prices are computed by CevPrices only once, in the constructor, for the exponents and displacements of a Chebyshev grid
+ * in the two intervals, and are replaced by their interpolating polynomials in (beta, d): when prices are asked for other exponents and
+ * displacements, the polynomials are evaluated. In this way a price costs a few tens of multiplications instead of the sums of two
+ * non-central chi-squared distribution functions.
+ *
+ * The strikes and the maturities are not interpolated: the prices are given exactly for the strikes and maturities of the grid, which
+ * is the one for which prices are needed, for example, by BubbleDetectionDataGenerator.
+ *
+ * Every interpolating polynomial is stored by its coefficients with respect to the Chebyshev polynomials T_i(beta) T_j(d), where beta and d
+ * are mapped to [-1,1]. These coefficients decay fast, since the prices are smooth functions of beta and d, and the ones of highest degree
+ * give an estimate of the interpolation error. The exponents of the interval cannot be both smaller and bigger than one, because the
+ * prices are given by different formulas for beta < 1 and beta > 1, and they are not smooth in beta = 1: for exponents around one, two
+ * tables must be constructed.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CevPriceTable {
+
+	private final double smallestExponent;
+	private final double biggestExponent;
+	private final double smallestDisplacement;
+	private final double biggestDisplacement;
+
+	private final int numberOfExponentNodes;
+	private final int numberOfDisplacementNodes;
+
+	private final int numberOfStrikes;
+	private final int numberOfPrices;
+
+	/*
+	 * The coefficient of T_i(beta) T_j(d) for the price of index p, i.e., for the maturity of index p / numberOfStrikes and the strike of
+	 * index p % numberOfStrikes, is at position (p * numberOfExponentNodes + i) * numberOfDisplacementNodes + j: the coefficients of one
+	 * price are close to each other
+	 */
+	private final double[] coefficients;
+
+	private final double errorEstimate;
+
+	/**
+	 * It constructs the table, computing the prices for all the exponents and displacements of the Chebyshev grid and their
+	 * interpolating polynomials.
+	 *
+	 * @param initialValue, the initial value x_0 of the process
+	 * @param sigma
+	 * @param strikes
+	 * @param maturities
+	 * @param smallestExponent, the left end of the interval of the exponents
+	 * @param biggestExponent, the right end of the interval of the exponents. The interval cannot contain one in its interior
+	 * @param smallestDisplacement, the left end of the interval of the displacements
+	 * @param biggestDisplacement, the right end of the interval of the displacements
+	 * @param numberOfExponentNodes, the number of exponents of the grid, i.e., the degree in beta of the polynomials plus one
+	 * @param numberOfDisplacementNodes, the number of displacements of the grid, i.e., the degree in d of the polynomials plus one
+	 */
+	public CevPriceTable(double initialValue, double sigma, double[] strikes, double[] maturities, double smallestExponent,
+			double biggestExponent, double smallestDisplacement, double biggestDisplacement, int numberOfExponentNodes,
+			int numberOfDisplacementNodes) {
+
+		if (smallestExponent >= biggestExponent || smallestDisplacement >= biggestDisplacement) {
+			throw new IllegalArgumentException("The left ends of the intervals must be smaller than the right ends");
+		}
+		if (smallestExponent < 1 && biggestExponent > 1) {
+			throw new IllegalArgumentException("The interval of the exponents cannot contain one in its interior: "
+					+ "construct a table for exponents smaller and one for exponents bigger than one");
+		}
+		if (numberOfExponentNodes < 2 || numberOfDisplacementNodes < 2) {
+			throw new IllegalArgumentException("At least two nodes are needed for every variable");
+		}
+		if (initialValue + smallestDisplacement <= 0) {
+			throw new IllegalArgumentException("The initial value plus the displacements must be positive");
+		}
+
+		this.smallestExponent = smallestExponent;
+		this.biggestExponent = biggestExponent;
+		this.smallestDisplacement = smallestDisplacement;
+		this.biggestDisplacement = biggestDisplacement;
+		this.numberOfExponentNodes = numberOfExponentNodes;
+		this.numberOfDisplacementNodes = numberOfDisplacementNodes;
+		this.numberOfStrikes = strikes.length;
+		this.numberOfPrices = strikes.length * maturities.length;
+
+		boolean isStrictLocalMartingale = smallestExponent >= 1;
+
+		int numberOfNodes = numberOfExponentNodes * numberOfDisplacementNodes;
+
+		//the price of index p for the nodes of index i and j is at position (i * numberOfDisplacementNodes + j) * numberOfPrices + p
+		double[] pricesAtNodes = new double[numberOfNodes * numberOfPrices];
+
+		//the nodes are in the interior of the intervals, so the price is never computed for exponent one
+		IntStream.range(0, numberOfNodes).parallel().forEach(nodeIndex -> {
+			double exponent = getPointOfInterval(getChebyshevNode(nodeIndex / numberOfDisplacementNodes, numberOfExponentNodes),
+					smallestExponent, biggestExponent);
+			double displacement = getPointOfInterval(getChebyshevNode(nodeIndex % numberOfDisplacementNodes, numberOfDisplacementNodes),
+					smallestDisplacement, biggestDisplacement);
+
+			double[] displacedStrikes = new double[strikes.length];
+			for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+				displacedStrikes[strikeIndex] = strikes[strikeIndex] + displacement;
+			}
+
+			if (isStrictLocalMartingale) {
+				CevPrices.CEVPricesCallForExponentBiggerThanOne(initialValue + displacement, sigma, exponent, maturities, displacedStrikes,
+						pricesAtNodes, nodeIndex * numberOfPrices);
+			} else {
+				CevPrices.CEVPricesCallForExponentSmallerEqualOne(initialValue + displacement, sigma, exponent, maturities, displacedStrikes,
+						pricesAtNodes, nodeIndex * numberOfPrices);
+			}
+		});
+
+		coefficients = getChebyshevCoefficients(pricesAtNodes);
+		errorEstimate = computeErrorEstimate();
+	}
+
+	/*
+	 * It returns the k-th of the n Chebyshev nodes cos(pi (k + 1/2) / n) in [-1,1], which are the zeros of T_n
+	 */
+	private static double getChebyshevNode(int nodeIndex, int numberOfNodes) {
+		return Math.cos(Math.PI * (nodeIndex + 0.5) / numberOfNodes);
+	}
+
+	/*
+	 * It maps a point of [-1,1] to the interval [leftEnd, rightEnd]
+	 */
+	private static double getPointOfInterval(double pointOfReferenceInterval, double leftEnd, double rightEnd) {
+		return 0.5 * (leftEnd + rightEnd) + 0.5 * (rightEnd - leftEnd) * pointOfReferenceInterval;
+	}
+
+	/*
+	 * It maps a point of the interval [leftEnd, rightEnd] to [-1,1]
+	 */
+	private static double getPointOfReferenceInterval(double point, double leftEnd, double rightEnd) {
+		return (2 * point - leftEnd - rightEnd) / (rightEnd - leftEnd);
+	}
+
+	/*
+	 * It computes the coefficients of the interpolating polynomials from the prices at the nodes. Because of the discrete orthogonality
+	 * of the Chebyshev polynomials at the Chebyshev nodes, the coefficient of T_i for n nodes x_k is (2 / n) sum_k f(x_k) T_i(x_k), halved
+	 * for i = 0. In two dimensions, the transform is done first along the exponents and then along the displacements.
+	 */
+	private double[] getChebyshevCoefficients(double[] pricesAtNodes) {
+
+		//T_i(x_k) = cos(i pi (k + 1/2) / n) for the exponents and the displacements
+		double[][] exponentPolynomials = getChebyshevPolynomialsAtNodes(numberOfExponentNodes);
+		double[][] displacementPolynomials = getChebyshevPolynomialsAtNodes(numberOfDisplacementNodes);
+
+		double[] coefficientsOfPolynomials = new double[numberOfPrices * numberOfExponentNodes * numberOfDisplacementNodes];
+
+		IntStream.range(0, numberOfPrices).parallel().forEach(priceIndex -> {
+
+			//the transform along the exponents, for every displacement node l
+			double[][] partialCoefficients = new double[numberOfExponentNodes][numberOfDisplacementNodes];
+			for (int i = 0; i < numberOfExponentNodes; i++) {
+				for (int k = 0; k < numberOfExponentNodes; k++) {
+					for (int l = 0; l < numberOfDisplacementNodes; l++) {
+						partialCoefficients[i][l] += exponentPolynomials[i][k]
+								* pricesAtNodes[(k * numberOfDisplacementNodes + l) * numberOfPrices + priceIndex];
+					}
+				}
+			}
+
+			//the transform along the displacements
+			int firstPosition = priceIndex * numberOfExponentNodes * numberOfDisplacementNodes;
+			for (int i = 0; i < numberOfExponentNodes; i++) {
+				double exponentFactor = (i == 0 ? 1.0 : 2.0) / numberOfExponentNodes;
+				for (int j = 0; j < numberOfDisplacementNodes; j++) {
+					double displacementFactor = (j == 0 ? 1.0 : 2.0) / numberOfDisplacementNodes;
+					double sum = 0;
+					for (int l = 0; l < numberOfDisplacementNodes; l++) {
+						sum += displacementPolynomials[j][l] * partialCoefficients[i][l];
+					}
+					coefficientsOfPolynomials[firstPosition + i * numberOfDisplacementNodes + j] = exponentFactor * displacementFactor * sum;
+				}
+			}
+		});
+		return coefficientsOfPolynomials;
+	}
+
+	/*
+	 * It returns the matrix whose element (i,k) is T_i(x_k), where x_k is the k-th Chebyshev node
+	 */
+	private static double[][] getChebyshevPolynomialsAtNodes(int numberOfNodes) {
+		double[][] polynomials = new double[numberOfNodes][numberOfNodes];
+		for (int i = 0; i < numberOfNodes; i++) {
+			for (int k = 0; k < numberOfNodes; k++) {
+				polynomials[i][k] = Math.cos(Math.PI * i * (k + 0.5) / numberOfNodes);
+			}
+		}
+		return polynomials;
+	}
+
+	/*
+	 * The interpolation error is estimated by the sum of the absolute values of the coefficients of highest degree in beta or in d: if
+	 * the coefficients decay geometrically, it is of the order of the ones which have been neglected. We take the maximum over all the
+	 * prices.
+	 */
+	private double computeErrorEstimate() {
+		double maximumError = 0;
+		int numberOfCoefficientsOfOnePrice = numberOfExponentNodes * numberOfDisplacementNodes;
+		for (int priceIndex = 0; priceIndex < numberOfPrices; priceIndex++) {
+			int firstPosition = priceIndex * numberOfCoefficientsOfOnePrice;
+			double error = 0;
+			//the last row, i = numberOfExponentNodes - 1
+			for (int j = 0; j < numberOfDisplacementNodes; j++) {
+				error += Math.abs(coefficients[firstPosition + (numberOfExponentNodes - 1) * numberOfDisplacementNodes + j]);
+			}
+			//the last column, j = numberOfDisplacementNodes - 1, without the element already counted
+			for (int i = 0; i < numberOfExponentNodes - 1; i++) {
+				error += Math.abs(coefficients[firstPosition + i * numberOfDisplacementNodes + numberOfDisplacementNodes - 1]);
+			}
+			maximumError = Math.max(maximumError, error);
+		}
+		return maximumError;
+	}
+
+	/**
+	 * It returns the price of the call option for given exponent and displacement, and for the maturity and the strike of given indices.
+	 * Nothing is allocated.
+	 *
+	 * @param exponent, it must be in the interval of the exponents of the table
+	 * @param displacement, it must be in the interval of the displacements of the table
+	 * @param maturityIndex, the index of the maturity in the array given to the constructor
+	 * @param strikeIndex, the index of the strike in the array given to the constructor
+	 * @return the interpolated price of the call option
+	 */
+	public double getPrice(double exponent, double displacement, int maturityIndex, int strikeIndex) {
+
+		double x = getPointOfReferenceInterval(checkExponent(exponent), smallestExponent, biggestExponent);
+		double y = getPointOfReferenceInterval(checkDisplacement(displacement), smallestDisplacement, biggestDisplacement);
+
+		int position = (maturityIndex * numberOfStrikes + strikeIndex) * numberOfExponentNodes * numberOfDisplacementNodes;
+
+		/*
+		 * T_i(x) and T_j(y) are computed by the recursion T_(n+1)(z) = 2 z T_n(z) - T_(n-1)(z), starting from T_0(z) = 1 and
+		 * T_(-1)(z) = z, so that T_1(z) = z is also given by the recursion
+		 */
+		double price = 0;
+		double previousExponentPolynomial = x;
+		double exponentPolynomial = 1;
+		for (int i = 0; i < numberOfExponentNodes; i++) {
+			double sumOverDisplacements = 0;
+			double previousDisplacementPolynomial = y;
+			double displacementPolynomial = 1;
+			for (int j = 0; j < numberOfDisplacementNodes; j++) {
+				sumOverDisplacements += coefficients[position++] * displacementPolynomial;
+				double nextDisplacementPolynomial = 2 * y * displacementPolynomial - previousDisplacementPolynomial;
+				previousDisplacementPolynomial = displacementPolynomial;
+				displacementPolynomial = nextDisplacementPolynomial;
+			}
+			price += sumOverDisplacements * exponentPolynomial;
+			double nextExponentPolynomial = 2 * x * exponentPolynomial - previousExponentPolynomial;
+			previousExponentPolynomial = exponentPolynomial;
+			exponentPolynomial = nextExponentPolynomial;
+		}
+		return price;
+	}
+
+	/**
+	 * It computes the prices of the call options for given exponent and displacement, for all the combinations of the maturities and
+	 * strikes of the table, and writes them in a given array. The price for the maturity of index i and the strike of index j is written
+	 * at position firstPosition + i * numberOfStrikes + j, as in CevPrices. The Chebyshev polynomials are computed only once for all
+	 * the prices.
+	 *
+	 * @param exponent, it must be in the interval of the exponents of the table
+	 * @param displacement, it must be in the interval of the displacements of the table
+	 * @param prices, the array where the prices are written
+	 * @param firstPosition, the position of prices where the price for the first maturity and the first strike is written
+	 */
+	public void getPrices(double exponent, double displacement, double[] prices, int firstPosition) {
+
+		double x = getPointOfReferenceInterval(checkExponent(exponent), smallestExponent, biggestExponent);
+		double y = getPointOfReferenceInterval(checkDisplacement(displacement), smallestDisplacement, biggestDisplacement);
+
+		double[] exponentPolynomials = getChebyshevPolynomials(x, numberOfExponentNodes);
+		double[] displacementPolynomials = getChebyshevPolynomials(y, numberOfDisplacementNodes);
+
+		//the products T_i(x) T_j(y), in the same order as the coefficients of one price
+		int numberOfCoefficientsOfOnePrice = numberOfExponentNodes * numberOfDisplacementNodes;
+		double[] products = new double[numberOfCoefficientsOfOnePrice];
+		for (int i = 0; i < numberOfExponentNodes; i++) {
+			for (int j = 0; j < numberOfDisplacementNodes; j++) {
+				products[i * numberOfDisplacementNodes + j] = exponentPolynomials[i] * displacementPolynomials[j];
+			}
+		}
+
+		//the sums are split in four partial sums, which can be computed at the same time by the processor
+		int lastMultipleOfFour = numberOfCoefficientsOfOnePrice & ~3;
+		int position = 0;
+		for (int priceIndex = 0; priceIndex < numberOfPrices; priceIndex++) {
+			double firstSum = 0, secondSum = 0, thirdSum = 0, fourthSum = 0;
+			int k = 0;
+			for (; k < lastMultipleOfFour; k += 4) {
+				firstSum += coefficients[position + k] * products[k];
+				secondSum += coefficients[position + k + 1] * products[k + 1];
+				thirdSum += coefficients[position + k + 2] * products[k + 2];
+				fourthSum += coefficients[position + k + 3] * products[k + 3];
+			}
+			for (; k < numberOfCoefficientsOfOnePrice; k++) {
+				firstSum += coefficients[position + k] * products[k];
+			}
+			prices[firstPosition + priceIndex] = (firstSum + secondSum) + (thirdSum + fourthSum);
+			position += numberOfCoefficientsOfOnePrice;
+		}
+	}
+
+	/*
+	 * It returns T_0(z),..,T_(n-1)(z)
+	 */
+	private static double[] getChebyshevPolynomials(double z, int numberOfPolynomials) {
+		double[] polynomials = new double[numberOfPolynomials];
+		polynomials[0] = 1;
+		polynomials[1] = z;
+		for (int i = 2; i < numberOfPolynomials; i++) {
+			polynomials[i] = 2 * z * polynomials[i - 1] - polynomials[i - 2];
+		}
+		return polynomials;
+	}
+
+	private double checkExponent(double exponent) {
+		if (exponent < smallestExponent || exponent > biggestExponent) {
+			throw new IllegalArgumentException("The exponent " + exponent + " is outside the interval of the table");
+		}
+		return exponent;
+	}
+
+	private double checkDisplacement(double displacement) {
+		if (displacement < smallestDisplacement || displacement > biggestDisplacement) {
+			throw new IllegalArgumentException("The displacement " + displacement + " is outside the interval of the table");
+		}
+		return displacement;
+	}
+
+	/**
+	 * It returns an estimate of the maximum interpolation error over all the prices, given by the Chebyshev coefficients of highest
+	 * degree
+	 *
+	 * @return an estimate of the interpolation error
+	 */
+	public double getErrorEstimate() {
+		return errorEstimate;
+	}
+
+	/**
+	 * It returns the number of prices for given exponent and displacement, i.e., the number of strikes times the number of maturities
+	 *
+	 * @return the number of prices for given exponent and displacement
+	 */
+	public int getNumberOfPrices() {
+		return numberOfPrices;
+	}
+}
@@ -4,7 +4,12 @@ package it.univr.cevprices;
 import net.finmath.functions.NonCentralChiSquaredDistribution;
 
 /**
- * This class has two methods to compute prices for call options when the underlying is the CEV process  
+ * This class has two methods to compute prices for call options when the underlying is the CEV process, and two methods to compute
+ * them for all the combinations of given strikes and maturities. The latter compute the quantities which do not depend on the strike
+ * or on the maturity only once, and write the prices in an array given by the user, so they should be preferred when many prices
+ * for the same model are needed, for example to generate training data. They also compute the non-central chi-squared distribution
+ * functions with NonCentralChiSquaredCumulativeDistribution, which is much faster than the general one of finmath and reuses the
+ * logarithms of the Gamma function for all the prices, since the degrees of freedom only depend on the exponent.
  * 
  * @author Andrea Mazzon
  *
@@ -47,12 +52,109 @@ public class CevPrices {
         double delta = (1 - 2 * exponent) / (1 - exponent);
         double transformedStrike = Math.pow(strike, 2 * (1 - exponent)) / (Math.pow(sigma, 2) * Math.pow((1 - exponent), 2));
         double transformedInitialValue = Math.pow(initialValue, 2 * (1 - exponent)) / (Math.pow(sigma, 2) * Math.pow((1 - exponent), 2));
-        NonCentralChiSquaredDistribution chiSquaredDist1 = new NonCentralChiSquaredDistribution(4 - delta, transformedStrike / T);
-        NonCentralChiSquaredDistribution chiSquaredDist2 = new NonCentralChiSquaredDistribution(2 - delta, transformedInitialValue / T);
+        NonCentralChiSquaredDistribution chiSquaredDist1 = new NonCentralChiSquaredDistribution(4 - delta, transformedInitialValue / T);
+        NonCentralChiSquaredDistribution chiSquaredDist2 = new NonCentralChiSquaredDistribution(2 - delta, transformedStrike / T);
         double firstChiSquared = chiSquaredDist1.cumulativeDistribution(transformedStrike / T);
         double secondChiSquared = chiSquaredDist2.cumulativeDistribution(transformedInitialValue / T);
         return initialValue * (1 - firstChiSquared) - strike * secondChiSquared;
     }
 
 
+    //the maximum absolute error of the non-central chi-squared distribution functions computed by the methods for many prices
+    static final double CUMULATIVE_DISTRIBUTION_TOLERANCE = 1E-14;
+
+    /*
+     * For bigger non-centralities, which happen when the exponent is very close to one, the approximation of Sankaran is used, since
+     * the series would need too many terms. Its error is there negligible
+     */
+    static final double MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION = 1E7;
+
+
+    //the transformed strikes are stored here, so that no array is allocated at every call. Every thread has its own array
+    private static final ThreadLocal<double[]> transformedStrikesBuffer = ThreadLocal.withInitial(() -> new double[0]);
+
+    static double[] getTransformedStrikes(double[] strikes, double exponent, double scaleFactor) {
+        double[] transformedStrikes = transformedStrikesBuffer.get();
+        if (transformedStrikes.length < strikes.length) {
+            transformedStrikes = new double[strikes.length];
+            transformedStrikesBuffer.set(transformedStrikes);
+        }
+        for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+            transformedStrikes[strikeIndex] = Math.pow(strikes[strikeIndex], 2 * (1 - exponent)) * scaleFactor;
+        }
+        return transformedStrikes;
+    }
+
+
+    /**
+	 * It computes the prices of the calls for all the combinations of given maturities and strikes, when the exponent is strictly
+	 * bigger than one, and writes them in a given array. The price for the maturity of index i and the strike of index j is written at
+	 * position firstPosition + i * strikes.length + j. The transforms of the initial value and of the strikes are computed only once.
+	 * @param initialValue
+	 * @param sigma
+	 * @param exponent: it must be strictly bigger than one
+	 * @param maturities
+	 * @param strikes
+	 * @param prices, the array where the prices are written
+	 * @param firstPosition, the position of prices where the price for the first maturity and the first strike is written
+	 */
+    public static void CEVPricesCallForExponentBiggerThanOne(double initialValue, double sigma, double exponent, double[] maturities,
+    		double[] strikes, double[] prices, int firstPosition) {
+        double nu = 1 / (2 * (exponent - 1));
+        double delta = (1 - 2 * exponent) / (1 - exponent);
+        double scaleFactor = 1 / Math.pow(sigma * (1 - exponent), 2);
+        double transformedInitialValue = Math.pow(initialValue, 2 * (1 - exponent)) * scaleFactor;
+        double[] transformedStrikes = getTransformedStrikes(strikes, exponent, scaleFactor);
+
+        //the degrees of freedom do not depend on strikes and maturities
+        NonCentralChiSquaredCumulativeDistribution chiSquaredDist1 = new NonCentralChiSquaredCumulativeDistribution(2 * nu, CUMULATIVE_DISTRIBUTION_TOLERANCE,
+        		MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+        NonCentralChiSquaredCumulativeDistribution chiSquaredDist2 = new NonCentralChiSquaredCumulativeDistribution(delta, CUMULATIVE_DISTRIBUTION_TOLERANCE,
+        		MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+
+        int position = firstPosition;
+        for (double maturity : maturities) {
+            for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+                double firstChiSquared = chiSquaredDist1.cumulativeDistribution(transformedStrikes[strikeIndex] / maturity, transformedInitialValue / maturity);
+                double secondChiSquared = chiSquaredDist2.cumulativeDistribution(transformedInitialValue / maturity, transformedStrikes[strikeIndex] / maturity);
+                prices[position++] = initialValue * (1 - firstChiSquared) - strikes[strikeIndex] * secondChiSquared;
+            }
+        }
+    }
+
+
+    /**
+	 * It computes the prices of the calls for all the combinations of given maturities and strikes, when the exponent is smaller or
+	 * equal one, and writes them in a given array. The price for the maturity of index i and the strike of index j is written at
+	 * position firstPosition + i * strikes.length + j. The transforms of the initial value and of the strikes are computed only once.
+	 * @param initialValue
+	 * @param sigma
+	 * @param exponent: it must be smaller or equal one
+	 * @param maturities
+	 * @param strikes
+	 * @param prices, the array where the prices are written
+	 * @param firstPosition, the position of prices where the price for the first maturity and the first strike is written
+	 */
+    public static void CEVPricesCallForExponentSmallerEqualOne(double initialValue, double sigma, double exponent, double[] maturities,
+    		double[] strikes, double[] prices, int firstPosition) {
+        double delta = (1 - 2 * exponent) / (1 - exponent);
+        double scaleFactor = 1 / (Math.pow(sigma, 2) * Math.pow((1 - exponent), 2));
+        double transformedInitialValue = Math.pow(initialValue, 2 * (1 - exponent)) * scaleFactor;
+        double[] transformedStrikes = getTransformedStrikes(strikes, exponent, scaleFactor);
+
+        //the degrees of freedom do not depend on strikes and maturities
+        NonCentralChiSquaredCumulativeDistribution chiSquaredDist1 = new NonCentralChiSquaredCumulativeDistribution(4 - delta, CUMULATIVE_DISTRIBUTION_TOLERANCE,
+        		MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+        NonCentralChiSquaredCumulativeDistribution chiSquaredDist2 = new NonCentralChiSquaredCumulativeDistribution(2 - delta, CUMULATIVE_DISTRIBUTION_TOLERANCE,
+        		MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+
+        int position = firstPosition;
+        for (double maturity : maturities) {
+            for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+                double firstChiSquared = chiSquaredDist1.cumulativeDistribution(transformedInitialValue / maturity, transformedStrikes[strikeIndex] / maturity);
+                double secondChiSquared = chiSquaredDist2.cumulativeDistribution(transformedStrikes[strikeIndex] / maturity, transformedInitialValue / maturity);
+                prices[position++] = initialValue * (1 - firstChiSquared) - strikes[strikeIndex] * secondChiSquared;
+            }
+        }
+    }
 }
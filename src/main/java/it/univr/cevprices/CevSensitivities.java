@@ -0,0 +1,143 @@
+package it.univr.cevprices;
+
+import net.finmath.functions.NormalDistribution;
+
+/**
+ * This class computes the prices of call options when the underlying is the CEV process dX_t = sigma X_t^beta dW_t, together with their
+ * deltas, i.e., the derivatives with respect to the initial value, and their vegas, i.e., the derivatives with respect to sigma, for all
+ * the combinations of given strikes and maturities.
+ *
+ * The prices are the ones of CevPrices: they are given by S (1 - A) - K B, where A and B are non-central chi-squared distribution functions
+ * whose points and non-centralities are the transforms x = S^(2(1-beta)) / (sigma^2 (1-beta)^2 T) of the initial value and
+ * y = K^(2(1-beta)) / (sigma^2 (1-beta)^2 T) of the strike. The derivative of a non-central chi-squared distribution function F(z; f, lambda)
+ * is p(z; f, lambda) with respect to z and -p(z; f + 2, lambda) with respect to lambda, where p is the density. These densities are
+ * computed by NonCentralChiSquaredCumulativeDistribution in the same sums as the distribution functions, so the deltas and the vegas
+ * cost much less than the two or four more prices per quote needed by finite differences, and they have no discretization error.
+ *
+ * When the exponent is one, the model is the one of Black and Scholes, and the formulas of Black and Scholes are used.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CevSensitivities {
+
+	/**
+	 * It computes the prices, the deltas and the vegas of the calls for all the combinations of given maturities and strikes, and writes
+	 * them in given arrays. The values for the maturity of index i and the strike of index j are written at position
+	 * firstPosition + i * strikes.length + j.
+	 *
+	 * @param initialValue
+	 * @param sigma
+	 * @param exponent, it can be smaller, equal or bigger than one
+	 * @param maturities
+	 * @param strikes
+	 * @param prices, the array where the prices are written
+	 * @param deltas, the array where the derivatives of the prices with respect to the initial value are written
+	 * @param vegas, the array where the derivatives of the prices with respect to sigma are written
+	 * @param firstPosition, the position of the arrays where the values for the first maturity and the first strike are written
+	 */
+	public static void CEVPricesDeltasAndVegasCall(double initialValue, double sigma, double exponent, double[] maturities, double[] strikes,
+			double[] prices, double[] deltas, double[] vegas, int firstPosition) {
+
+		if (exponent == 1) {
+			blackScholesPricesDeltasAndVegas(initialValue, sigma, maturities, strikes, prices, deltas, vegas, firstPosition);
+			return;
+		}
+
+		boolean isStrictLocalMartingale = exponent > 1;
+
+		double scaleFactor = 1 / Math.pow(sigma * (1 - exponent), 2);
+		double transformedInitialValue = Math.pow(initialValue, 2 * (1 - exponent)) * scaleFactor;
+		double[] transformedStrikes = CevPrices.getTransformedStrikes(strikes, exponent, scaleFactor);
+
+		//2 nu and delta for exponents bigger than one, 4 - delta and 2 - delta for exponents smaller than one, see CevPrices
+		double degreesOfFreedomForFirstChiSquared = isStrictLocalMartingale ? 1 / (exponent - 1) : (3 - 2 * exponent) / (1 - exponent);
+		double degreesOfFreedomForSecondChiSquared = isStrictLocalMartingale ? (2 * exponent - 1) / (exponent - 1) : 1 / (1 - exponent);
+
+		NonCentralChiSquaredCumulativeDistribution chiSquaredDist1 = new NonCentralChiSquaredCumulativeDistribution(
+				degreesOfFreedomForFirstChiSquared, CevPrices.CUMULATIVE_DISTRIBUTION_TOLERANCE, CevPrices.MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+		NonCentralChiSquaredCumulativeDistribution chiSquaredDist2 = new NonCentralChiSquaredCumulativeDistribution(
+				degreesOfFreedomForSecondChiSquared, CevPrices.CUMULATIVE_DISTRIBUTION_TOLERANCE, CevPrices.MINIMUM_NON_CENTRALITY_FOR_APPROXIMATION);
+
+		//the densities with f and f + 2 degrees of freedom at the same point as the distribution functions
+		double[] firstDensities = new double[2];
+		double[] secondDensities = new double[2];
+
+		int position = firstPosition;
+		for (double maturity : maturities) {
+
+			double x = transformedInitialValue / maturity;
+
+			//derivatives of x with respect to the initial value and to sigma
+			double derivativeOfXWithRespectToInitialValue = 2 * (1 - exponent) * x / initialValue;
+			double derivativeOfXWithRespectToSigma = -2 * x / sigma;
+
+			for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+
+				double y = transformedStrikes[strikeIndex] / maturity;
+				//y does not depend on the initial value
+				double derivativeOfYWithRespectToSigma = -2 * y / sigma;
+
+				double firstChiSquared;
+				double secondChiSquared;
+
+				double derivativeOfFirstWithRespectToInitialValue;
+				double derivativeOfSecondWithRespectToInitialValue;
+				double derivativeOfFirstWithRespectToSigma;
+				double derivativeOfSecondWithRespectToSigma;
+
+				if (isStrictLocalMartingale) {
+					//first: point x, non-centrality y. Second: point y, non-centrality x
+					firstChiSquared = chiSquaredDist1.cumulativeDistributionAndDensities(y, x, firstDensities);
+					secondChiSquared = chiSquaredDist2.cumulativeDistributionAndDensities(x, y, secondDensities);
+
+					derivativeOfFirstWithRespectToInitialValue = firstDensities[0] * derivativeOfXWithRespectToInitialValue;
+					derivativeOfSecondWithRespectToInitialValue = -secondDensities[1] * derivativeOfXWithRespectToInitialValue;
+
+					derivativeOfFirstWithRespectToSigma = firstDensities[0] * derivativeOfXWithRespectToSigma
+							- firstDensities[1] * derivativeOfYWithRespectToSigma;
+					derivativeOfSecondWithRespectToSigma = secondDensities[0] * derivativeOfYWithRespectToSigma
+							- secondDensities[1] * derivativeOfXWithRespectToSigma;
+				} else {
+					//first: point y, non-centrality x. Second: point x, non-centrality y
+					firstChiSquared = chiSquaredDist1.cumulativeDistributionAndDensities(x, y, firstDensities);
+					secondChiSquared = chiSquaredDist2.cumulativeDistributionAndDensities(y, x, secondDensities);
+
+					derivativeOfFirstWithRespectToInitialValue = -firstDensities[1] * derivativeOfXWithRespectToInitialValue;
+					derivativeOfSecondWithRespectToInitialValue = secondDensities[0] * derivativeOfXWithRespectToInitialValue;
+
+					derivativeOfFirstWithRespectToSigma = firstDensities[0] * derivativeOfYWithRespectToSigma
+							- firstDensities[1] * derivativeOfXWithRespectToSigma;
+					derivativeOfSecondWithRespectToSigma = secondDensities[0] * derivativeOfXWithRespectToSigma
+							- secondDensities[1] * derivativeOfYWithRespectToSigma;
+				}
+
+				double strike = strikes[strikeIndex];
+
+				prices[position] = initialValue * (1 - firstChiSquared) - strike * secondChiSquared;
+				deltas[position] = 1 - firstChiSquared - initialValue * derivativeOfFirstWithRespectToInitialValue
+						- strike * derivativeOfSecondWithRespectToInitialValue;
+				vegas[position] = -initialValue * derivativeOfFirstWithRespectToSigma - strike * derivativeOfSecondWithRespectToSigma;
+				position++;
+			}
+		}
+	}
+
+	//the case when the exponent is one
+	private static void blackScholesPricesDeltasAndVegas(double initialValue, double sigma, double[] maturities, double[] strikes,
+			double[] prices, double[] deltas, double[] vegas, int firstPosition) {
+		int position = firstPosition;
+		for (double maturity : maturities) {
+			double standardDeviation = sigma * Math.sqrt(maturity);
+			for (double strike : strikes) {
+				double d1 = Math.log(initialValue / strike) / standardDeviation + 0.5 * standardDeviation;
+				double d2 = d1 - standardDeviation;
+				double firstNormal = NormalDistribution.cumulativeDistribution(d1);
+				prices[position] = initialValue * firstNormal - strike * NormalDistribution.cumulativeDistribution(d2);
+				deltas[position] = firstNormal;
+				vegas[position] = initialValue * NormalDistribution.density(d1) * Math.sqrt(maturity);
+				position++;
+			}
+		}
+	}
+}
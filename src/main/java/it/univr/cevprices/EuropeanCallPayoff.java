@@ -0,0 +1,26 @@
+package it.univr.cevprices;
+
+/**
+ * This class represents the payoff max(X_T - K, 0) of a call option with maturity T equal to the final time of the simulation.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class EuropeanCallPayoff implements PathPayoff {
+
+	private final double strike;
+
+	/**
+	 * It constructs the payoff of a call option with given strike
+	 *
+	 * @param strike
+	 */
+	public EuropeanCallPayoff(double strike) {
+		this.strike = strike;
+	}
+
+	@Override
+	public double getPayoff(double[] path, int firstPosition, CevMonteCarloSimulator simulator) {
+		return Math.max(path[firstPosition + simulator.getNumberOfTimeSteps()] - strike, 0.0);
+	}
+}
@@ -0,0 +1,299 @@
+package it.univr.cevprices;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.special.Gamma;
+
+import net.finmath.functions.NormalDistribution;
+
+/**
+ * This class computes the cumulative distribution function of a non-central chi-squared distribution with given degrees of freedom f,
+ * for any non-centrality lambda. It is written for the prices of the CEV model, where the degrees of freedom are fixed by the exponent
+ * and the function has to be computed for many values of the non-centrality and of the point.
+ *
+ * The function is the mixture F(x; f, lambda) = sum_k p_k P(f/2 + k, x/2), where p_k = e^(-lambda/2) (lambda/2)^k / k! are the
+ * Poisson weights and P is the regularized lower incomplete gamma function. Following Benton and Krishnamoorthy, the sum is started
+ * from the biggest Poisson weight, at k = floor(lambda/2), and computed going both backward and forward. Only one incomplete gamma
+ * function is computed: the others are obtained by the recursions
+ * P(a + 1, y) = P(a, y) - y^a e^(-y) / Gamma(a + 1), p_(k+1) = p_k (lambda/2) / (k+1),
+ * which only need a few multiplications. When lambda/2 is smaller than one, the sum starts from k = 0 and only goes forward, which
+ * is the series of Ding. The sums stop when the sum of the remaining terms is surely smaller than the tolerance, so that the absolute
+ * error is guaranteed to be not bigger than the tolerance, apart from rounding errors.
+ *
+ * The number of terms grows like the square root of lambda: for very big non-centralities, where many terms are needed, the approximation
+ * of Sankaran can be used instead, by giving the minimum non-centrality for which it is used in the constructor. It only needs the normal
+ * distribution function, but its error is not guaranteed: it gets smaller as f + lambda gets bigger, and it is negligible when f + lambda
+ * is of the order of millions. It is always used if lambda does not fit in an int.
+ *
+ * The logarithms of the Gamma function needed at the biggest Poisson weight are stored once computed, so they are computed only once
+ * when the object is used for many values of the non-centrality with the same integer part of lambda/2. An object of this class must not
+ * be used by different threads at the same time.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class NonCentralChiSquaredCumulativeDistribution {
+
+	private final double degreesOfFreedom;
+	private final double halfDegreesOfFreedom;
+
+	private final double tolerance;
+
+	//if lambda is bigger than this, the approximation of Sankaran is used instead of the series
+	private final double minimumNonCentralityForApproximation;
+
+	//the logarithms of the Gamma function are stored only for the indices of the biggest Poisson weight smaller than this
+	private static final int MAXIMUM_NUMBER_OF_STORED_LOG_GAMMAS = 1 << 16;
+
+	//an upper bound of y^a e^(-y) / (2 Gamma(a + 1)) for all y > 0 and a >= 0
+	private static final double MAXIMUM_HALF_GAMMA_DENSITY = 0.6;
+
+	//log(k!) and log(Gamma(f/2 + k + 1)) for the values of k already met
+	private double[] logFactorials = new double[0];
+	private double[] logGammaOfHalfDegreesOfFreedomPlusOne = new double[0];
+
+	/**
+	 * It constructs an object to compute the cumulative distribution function of a non-central chi-squared distribution with given degrees
+	 * of freedom, with guaranteed absolute error.
+	 *
+	 * @param degreesOfFreedom, the degrees of freedom f. They must be positive
+	 * @param tolerance, the maximum absolute error
+	 */
+	public NonCentralChiSquaredCumulativeDistribution(double degreesOfFreedom, double tolerance) {
+		this(degreesOfFreedom, tolerance, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * It constructs an object to compute the cumulative distribution function of a non-central chi-squared distribution with given degrees
+	 * of freedom, using the approximation of Sankaran for big non-centralities.
+	 *
+	 * @param degreesOfFreedom, the degrees of freedom f. They must be positive
+	 * @param tolerance, the maximum absolute error when the series is used
+	 * @param minimumNonCentralityForApproximation, if the non-centrality is bigger than this, the approximation of Sankaran is used
+	 */
+	public NonCentralChiSquaredCumulativeDistribution(double degreesOfFreedom, double tolerance, double minimumNonCentralityForApproximation) {
+		if (degreesOfFreedom <= 0) {
+			throw new IllegalArgumentException("The degrees of freedom must be positive");
+		}
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("The tolerance must be positive");
+		}
+		this.degreesOfFreedom = degreesOfFreedom;
+		this.halfDegreesOfFreedom = 0.5 * degreesOfFreedom;
+		this.tolerance = tolerance;
+		this.minimumNonCentralityForApproximation = minimumNonCentralityForApproximation;
+	}
+
+	/**
+	 * It returns the value of the cumulative distribution function at a given point, for a given non-centrality
+	 *
+	 * @param nonCentrality, the non-centrality lambda. It must not be negative
+	 * @param x, the point
+	 * @return the probability that a non-central chi-squared random variable with the degrees of freedom of this object and non-centrality
+	 * 		   lambda is not bigger than x
+	 */
+	public double cumulativeDistribution(double nonCentrality, double x) {
+		return computeDistributionAndDensities(nonCentrality, x, null);
+	}
+
+	/**
+	 * It returns the value of the cumulative distribution function at a given point, for a given non-centrality, and writes in a given
+	 * array the density p(x; f, lambda) at the same point and the density p(x; f + 2, lambda) with two more degrees of freedom. These are
+	 * the derivatives of the cumulative distribution function with respect to x and, with the minus sign, to lambda. They are computed in
+	 * the same sums as the cumulative distribution function, with the same Poisson weights and the same terms y^a e^(-y) / Gamma(a + 1)
+	 * of the recursion of the incomplete gamma function, which are also the densities of the gamma distributions.
+	 *
+	 * @param nonCentrality, the non-centrality lambda. It must not be negative
+	 * @param x, the point
+	 * @param densities, the array where p(x; f, lambda) is written at position 0 and p(x; f + 2, lambda) at position 1
+	 * @return the probability that a non-central chi-squared random variable with the degrees of freedom of this object and non-centrality
+	 * 		   lambda is not bigger than x
+	 */
+	public double cumulativeDistributionAndDensities(double nonCentrality, double x, double[] densities) {
+		return computeDistributionAndDensities(nonCentrality, x, densities);
+	}
+
+	//the densities are not computed if densities is null
+	private double computeDistributionAndDensities(double nonCentrality, double x, double[] densities) {
+
+		boolean computeDensities = densities != null;
+
+		if (x <= 0) {
+			if (computeDensities) {
+				densities[0] = 0.0;
+				densities[1] = 0.0;
+			}
+			return 0.0;
+		}
+		//the index of the biggest Poisson weight must fit in an int
+		if (nonCentrality > minimumNonCentralityForApproximation || nonCentrality >= Integer.MAX_VALUE) {
+			if (computeDensities) {
+				densities[0] = getSankaranDensity(degreesOfFreedom, nonCentrality, x);
+				densities[1] = getSankaranDensity(degreesOfFreedom + 2, nonCentrality, x);
+			}
+			return getSankaranApproximation(degreesOfFreedom, nonCentrality, x);
+		}
+
+		double halfNonCentrality = 0.5 * nonCentrality;
+		double halfX = 0.5 * x;
+		double logHalfX = Math.log(halfX);
+
+		//the index of the biggest Poisson weight
+		int indexAtMode = (int) halfNonCentrality;
+		double logFactorial;
+		double logGammaOfShapePlusOne;
+		if (indexAtMode < MAXIMUM_NUMBER_OF_STORED_LOG_GAMMAS) {
+			ensureLogGammasUpTo(indexAtMode);
+			logFactorial = logFactorials[indexAtMode];
+			logGammaOfShapePlusOne = logGammaOfHalfDegreesOfFreedomPlusOne[indexAtMode];
+		} else {
+			logFactorial = Gamma.logGamma(indexAtMode + 1.0);
+			logGammaOfShapePlusOne = Gamma.logGamma(halfDegreesOfFreedom + indexAtMode + 1);
+		}
+
+		double shapeAtMode = halfDegreesOfFreedom + indexAtMode;
+		//for lambda = 0 there is only the weight of index 0, equal to 1
+		double poissonWeightAtMode = nonCentrality == 0 ? 1.0
+				: Math.exp(-halfNonCentrality + indexAtMode * Math.log(halfNonCentrality) - logFactorial);
+		double gammaAtMode = Gamma.regularizedGammaP(shapeAtMode, halfX);
+		//y^a e^(-y) / Gamma(a + 1) for a = shapeAtMode, which is P(a, y) - P(a + 1, y)
+		double gammaDifferenceAtMode = Math.exp(shapeAtMode * logHalfX - halfX - logGammaOfShapePlusOne);
+
+		double sum = poissonWeightAtMode * gammaAtMode;
+		double sumOfWeights = poissonWeightAtMode;
+
+		/*
+		 * The density of a chi-squared distribution with f + 2k degrees of freedom at x is y^(a-1) e^(-y) / (2 Gamma(a)) with a = f/2 + k,
+		 * so the terms of the recursion also give the densities: below, we sum the terms without the factor 1/2
+		 */
+		double sumForDensity = poissonWeightAtMode * gammaDifferenceAtMode * shapeAtMode / halfX;
+		double sumForDensityWithTwoMoreDegrees = poissonWeightAtMode * gammaDifferenceAtMode;
+
+		/*
+		 * Backward: P(a - 1, y) = P(a, y) + y^(a-1) e^(-y) / Gamma(a), p_(k-1) = p_k k / (lambda/2). Every remaining term is smaller than
+		 * the current Poisson weight, and there are k of them. This also holds for the terms of the densities, since y^a e^(-y) / (2 Gamma(a + 1))
+		 * is smaller than one for a not negative: the only exception is the first term of p(x; f, lambda) when f < 2.
+		 */
+		double poissonWeight = poissonWeightAtMode;
+		double gamma = gammaAtMode;
+		double gammaDifference = gammaDifferenceAtMode;
+		for (int index = indexAtMode; index > 0; index--) {
+			double shape = halfDegreesOfFreedom + index;
+			gammaDifference *= shape / halfX;//now it is y^(a-1) e^(-y) / Gamma(a)
+			gamma += gammaDifference;
+			poissonWeight *= index / halfNonCentrality;
+			sum += poissonWeight * gamma;
+			sumOfWeights += poissonWeight;
+			if (computeDensities) {
+				sumForDensity += poissonWeight * gammaDifference * (shape - 1) / halfX;
+				sumForDensityWithTwoMoreDegrees += poissonWeight * gammaDifference;
+			}
+			if (poissonWeight * (index - 1) < 0.5 * tolerance) {
+				break;
+			}
+		}
+
+		/*
+		 * Forward: P(a + 1, y) = P(a, y) - y^a e^(-y) / Gamma(a + 1), p_(k+1) = p_k (lambda/2) / (k + 1). The incomplete gamma function
+		 * decreases with a, so the remaining terms sum to at most the current P times the remaining Poisson weights. The terms of the
+		 * densities are at most MAXIMUM_HALF_GAMMA_DENSITY times the Poisson weights
+		 */
+		poissonWeight = poissonWeightAtMode;
+		gamma = gammaAtMode;
+		gammaDifference = gammaDifferenceAtMode;
+		for (int index = indexAtMode + 1; nonCentrality > 0
+				&& (computeDensities ? Math.max(gamma, MAXIMUM_HALF_GAMMA_DENSITY) : gamma) * (1 - sumOfWeights) >= 0.5 * tolerance; index++) {
+			gamma -= gammaDifference;
+			gammaDifference *= halfX / (halfDegreesOfFreedom + index);
+			poissonWeight *= halfNonCentrality / index;
+			sum += poissonWeight * gamma;
+			sumOfWeights += poissonWeight;
+			if (computeDensities) {
+				sumForDensity += poissonWeight * gammaDifference * (halfDegreesOfFreedom + index) / halfX;
+				sumForDensityWithTwoMoreDegrees += poissonWeight * gammaDifference;
+			}
+			if ((gamma <= 0 && !computeDensities) || poissonWeight == 0) {
+				break;
+			}
+		}
+
+		if (computeDensities) {
+			densities[0] = 0.5 * sumForDensity;
+			densities[1] = 0.5 * sumForDensityWithTwoMoreDegrees;
+		}
+
+		return Math.min(1.0, Math.max(0.0, sum));
+	}
+
+	/**
+	 * It returns the approximation of Sankaran of the cumulative distribution function at a given point, for a given non-centrality
+	 *
+	 * @param nonCentrality, the non-centrality lambda. It must not be negative
+	 * @param x, the point
+	 * @return the approximated probability that a non-central chi-squared random variable with the degrees of freedom of this object
+	 * 		   and non-centrality lambda is not bigger than x
+	 */
+	public double getSankaranApproximation(double nonCentrality, double x) {
+		return getSankaranApproximation(degreesOfFreedom, nonCentrality, x);
+	}
+
+	private static double getSankaranApproximation(double degreesOfFreedom, double nonCentrality, double x) {
+
+		if (x <= 0) {
+			return 0.0;
+		}
+
+		double[] coefficients = getSankaranCoefficients(degreesOfFreedom, nonCentrality);
+		double h = coefficients[0];
+
+		double numerator = Math.pow(x / (degreesOfFreedom + nonCentrality), h) - coefficients[1];
+
+		return NormalDistribution.cumulativeDistribution(numerator / coefficients[2]);
+	}
+
+	//it is the derivative with respect to x of the approximation of Sankaran
+	private static double getSankaranDensity(double degreesOfFreedom, double nonCentrality, double x) {
+
+		if (x <= 0) {
+			return 0.0;
+		}
+
+		double[] coefficients = getSankaranCoefficients(degreesOfFreedom, nonCentrality);
+		double h = coefficients[0];
+
+		double sumOfParameters = degreesOfFreedom + nonCentrality;
+		double power = Math.pow(x / sumOfParameters, h);
+		double numerator = power - coefficients[1];
+
+		return NormalDistribution.density(numerator / coefficients[2]) * h * power / (x * coefficients[2]);
+	}
+
+	/*
+	 * It returns h and the two constants c and d such that the approximation of Sankaran is the standard normal distribution function
+	 * computed at ((x / (f + lambda))^h - c) / d
+	 */
+	private static double[] getSankaranCoefficients(double degreesOfFreedom, double nonCentrality) {
+		double sumOfParameters = degreesOfFreedom + nonCentrality;
+		double h = 1 - 2.0 / 3 * sumOfParameters * (degreesOfFreedom + 3 * nonCentrality)
+				/ ((degreesOfFreedom + 2 * nonCentrality) * (degreesOfFreedom + 2 * nonCentrality));
+		double p = (degreesOfFreedom + 2 * nonCentrality) / (sumOfParameters * sumOfParameters);
+		double m = (h - 1) * (1 - 3 * h);
+
+		return new double[] {h, 1 + h * p * (h - 1 - 0.5 * (2 - h) * m * p), h * Math.sqrt(2 * p) * (1 + 0.5 * m * p)};
+	}
+
+	//it computes the logarithms of the Gamma functions which are still missing, up to the given index
+	private void ensureLogGammasUpTo(int index) {
+		if (index < logFactorials.length) {
+			return;
+		}
+		int oldLength = logFactorials.length;
+		int newLength = Math.min(Math.max(index + 1, 2 * oldLength), MAXIMUM_NUMBER_OF_STORED_LOG_GAMMAS);
+		logFactorials = Arrays.copyOf(logFactorials, newLength);
+		logGammaOfHalfDegreesOfFreedomPlusOne = Arrays.copyOf(logGammaOfHalfDegreesOfFreedomPlusOne, newLength);
+		for (int k = oldLength; k < newLength; k++) {
+			logFactorials[k] = Gamma.logGamma(k + 1);
+			logGammaOfHalfDegreesOfFreedomPlusOne[k] = Gamma.logGamma(halfDegreesOfFreedom + k + 1);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package it.univr.cevprices;
+
+/**
+ * This interface represents the payoff of an option whose underlying is simulated by CevMonteCarloSimulator. The payoff is computed
+ * for one path at a time, as soon as the path is simulated, so that the paths do not need to be stored.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public interface PathPayoff {
+
+	/**
+	 * It returns the payoff for a given path of the underlying
+	 *
+	 * @param path, the array where the path is stored: the value at the time of index i is at position firstPosition + i
+	 * @param firstPosition, the position of the initial value of the path
+	 * @param simulator, the object which has simulated the path. It gives the times and the local variances of the underlying, for
+	 * 		  example to correct the probability that the path has crossed a barrier between two times
+	 * @return the payoff for the path
+	 */
+	double getPayoff(double[] path, int firstPosition, CevMonteCarloSimulator simulator);
+}
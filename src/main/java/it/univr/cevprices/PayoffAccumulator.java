@@ -0,0 +1,78 @@
+package it.univr.cevprices;
+
+/**
+ * This class accumulates the payoffs of the paths of a Monte Carlo simulation one after the other, without storing them, and gives their
+ * average and the standard error of the average. Two accumulators for different paths can be merged, so that the paths can be
+ * simulated in parallel.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class PayoffAccumulator {
+
+	private long numberOfPaths;
+
+	/*
+	 * The average and the sum of the squared differences from the average, updated at every payoff as in the algorithm of Welford, which
+	 * is more precise than summing the payoffs and their squares
+	 */
+	private double average;
+	private double sumOfSquaredDifferences;
+
+	/**
+	 * It adds the payoff of one path
+	 *
+	 * @param payoff
+	 */
+	public void add(double payoff) {
+		numberOfPaths++;
+		double difference = payoff - average;
+		average += difference / numberOfPaths;
+		sumOfSquaredDifferences += difference * (payoff - average);
+	}
+
+	/**
+	 * It adds all the payoffs accumulated by another accumulator
+	 *
+	 * @param otherAccumulator
+	 */
+	public void add(PayoffAccumulator otherAccumulator) {
+		if (otherAccumulator.numberOfPaths == 0) {
+			return;
+		}
+		long totalNumberOfPaths = numberOfPaths + otherAccumulator.numberOfPaths;
+		double difference = otherAccumulator.average - average;
+		average += difference * otherAccumulator.numberOfPaths / totalNumberOfPaths;
+		sumOfSquaredDifferences += otherAccumulator.sumOfSquaredDifferences
+				+ difference * difference * ((double) numberOfPaths * otherAccumulator.numberOfPaths / totalNumberOfPaths);
+		numberOfPaths = totalNumberOfPaths;
+	}
+
+	/**
+	 * It returns the number of payoffs accumulated so far
+	 *
+	 * @return the number of payoffs accumulated so far
+	 */
+	public long getNumberOfPaths() {
+		return numberOfPaths;
+	}
+
+	/**
+	 * It returns the average of the payoffs accumulated so far, i.e., the Monte Carlo approximation of the price
+	 *
+	 * @return the average of the payoffs
+	 */
+	public double getAverage() {
+		return average;
+	}
+
+	/**
+	 * It returns the standard error of the average, i.e., the empirical standard deviation of the payoffs divided by the square root of
+	 * the number of payoffs
+	 *
+	 * @return the standard error of the average
+	 */
+	public double getStandardError() {
+		return numberOfPaths < 2 ? Double.NaN : Math.sqrt(sumOfSquaredDifferences / (numberOfPaths - 1) / numberOfPaths);
+	}
+}
@@ -0,0 +1,126 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * This class finds the maximizing control via the method of Brent. At every iteration, the interval where the maximum is searched is reduced
+ * either by taking the vertex of the parabola through the three best points found so far, or, when this is not reliable, by a step of the
+ * golden section search. The iterations stop when the interval is smaller than controlStep. The ends of the control interval are finally
+ * checked as well, so that a maximum at one of the two ends is found exactly.
+ *
+ * If the function has only one local maximum in the control interval, as it is the case for the concave Hamiltonians of Merton-type problems,
+ * the maximizing control is found with a precision of controlStep with some tens of evaluations, independently of how small controlStep is.
+ * If it has more local maxima, the search can be trapped in one of them.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BrentControlOptimizer implements ControlOptimizer {
+
+	//it is (3 - sqrt(5))/2, the fraction of the interval which is cut at every step of the golden section search
+	private static final double GOLDEN_SECTION = 0.3819660112501051;
+
+	private static final int MAXIMUM_NUMBER_OF_ITERATIONS = 100;
+
+	@Override
+	public double getMaximizingControl(DoubleUnaryOperator functionToMaximize, double leftEndControlInterval, double rightEndControlInterval,
+			double controlStep) {
+
+		double tolerance = 0.5 * controlStep;
+
+		//the maximum is between left and right. We call best the best point found so far, second and third the second and third best ones
+		double left = leftEndControlInterval;
+		double right = rightEndControlInterval;
+		double best = left + GOLDEN_SECTION * (right - left);
+		double second = best;
+		double third = best;
+		double valueAtBest = functionToMaximize.applyAsDouble(best);
+		double valueAtSecond = valueAtBest;
+		double valueAtThird = valueAtBest;
+
+		//the last step and the one before
+		double step = 0;
+		double stepBefore = 0;
+
+		for (int iteration = 0; iteration < MAXIMUM_NUMBER_OF_ITERATIONS; iteration ++) {
+
+			double middle = 0.5 * (left + right);
+			if (Math.abs(best - middle) <= 2 * tolerance - 0.5 * (right - left)) {
+				break;
+			}
+
+			boolean goldenSectionStep = true;
+
+			if (Math.abs(stepBefore) > tolerance) {
+				//we try the vertex of the parabola through best, second and third
+				double r = (best - second) * (valueAtBest - valueAtThird);
+				double q = (best - third) * (valueAtBest - valueAtSecond);
+				double p = (best - third) * q - (best - second) * r;
+				q = 2 * (q - r);
+				if (q > 0) {
+					p = -p;
+				}
+				q = Math.abs(q);
+				double stepBeforeBefore = stepBefore;
+				stepBefore = step;
+				//the vertex is taken only if it is inside the interval and the step is less than half the one before the last
+				if (Math.abs(p) < Math.abs(0.5 * q * stepBeforeBefore) && p > q * (left - best) && p < q * (right - best)) {
+					step = p / q;
+					double newPoint = best + step;
+					if (newPoint - left < 2 * tolerance || right - newPoint < 2 * tolerance) {
+						step = Math.copySign(tolerance, middle - best);
+					}
+					goldenSectionStep = false;
+				}
+			}
+
+			if (goldenSectionStep) {
+				stepBefore = best >= middle ? left - best : right - best;
+				step = GOLDEN_SECTION * stepBefore;
+			}
+
+			double newPoint = Math.abs(step) >= tolerance ? best + step : best + Math.copySign(tolerance, step);
+			double valueAtNewPoint = functionToMaximize.applyAsDouble(newPoint);
+
+			if (valueAtNewPoint >= valueAtBest) {
+				if (newPoint >= best) {
+					left = best;
+				} else {
+					right = best;
+				}
+				third = second;
+				valueAtThird = valueAtSecond;
+				second = best;
+				valueAtSecond = valueAtBest;
+				best = newPoint;
+				valueAtBest = valueAtNewPoint;
+			} else {
+				if (newPoint < best) {
+					left = newPoint;
+				} else {
+					right = newPoint;
+				}
+				if (valueAtNewPoint >= valueAtSecond || second == best) {
+					third = second;
+					valueAtThird = valueAtSecond;
+					second = newPoint;
+					valueAtSecond = valueAtNewPoint;
+				} else if (valueAtNewPoint >= valueAtThird || third == best || third == second) {
+					third = newPoint;
+					valueAtThird = valueAtNewPoint;
+				}
+			}
+		}
+
+		//the ends of the control interval are never evaluated by the search, so we check them here
+		double valueAtLeftEnd = functionToMaximize.applyAsDouble(leftEndControlInterval);
+		double valueAtRightEnd = functionToMaximize.applyAsDouble(rightEndControlInterval);
+		if (valueAtLeftEnd > valueAtBest && valueAtLeftEnd >= valueAtRightEnd) {
+			return leftEndControlInterval;
+		}
+		if (valueAtRightEnd > valueAtBest) {
+			return rightEndControlInterval;
+		}
+		return best;
+	}
+}
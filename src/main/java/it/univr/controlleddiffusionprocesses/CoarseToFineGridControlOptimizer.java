@@ -0,0 +1,65 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * This class finds the maximizing control by a sequence of grid searches on finer and finer grids. The function is first evaluated on a
+ * coarse grid of the whole control interval. Then a finer grid is taken around the best point found, in the interval between its two
+ * neighbours in the coarse grid, and so on until the step of the grid gets as small as controlStep. The returned control is always
+ * a point of the grid a_min, a_min + controlStep, a_min + 2 controlStep, ...
+ *
+ * If the function has only one local maximum in the control interval, the result is the same as the one of a search on the whole
+ * grid with step controlStep, but with only about numberOfPointsPerLevel * log(number of controls) / log(numberOfPointsPerLevel / 2)
+ * evaluations. If it has more local maxima, the search can be trapped in one of them.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CoarseToFineGridControlOptimizer implements ControlOptimizer {
+
+	private int numberOfPointsPerLevel;
+
+	/**
+	 * It constructs an object to find the maximizing control by a sequence of grid searches on finer and finer grids
+	 *
+	 * @param numberOfPointsPerLevel, the number of points of every grid. It must be at least 3
+	 */
+	public CoarseToFineGridControlOptimizer(int numberOfPointsPerLevel) {
+		if (numberOfPointsPerLevel < 3) {
+			throw new IllegalArgumentException("At least three points are needed for every grid");
+		}
+		this.numberOfPointsPerLevel = numberOfPointsPerLevel;
+	}
+
+	@Override
+	public double getMaximizingControl(DoubleUnaryOperator functionToMaximize, double leftEndControlInterval, double rightEndControlInterval,
+			double controlStep) {
+
+		//we work with the indices of the points of the finest grid, so that all the grids are sub-grids of it
+		int firstIndex = 0;
+		int lastIndex = (int) ((rightEndControlInterval - leftEndControlInterval)/controlStep);
+		int bestIndex = 0;
+
+		while (true) {
+			//the step of the current grid, as a number of steps of the finest grid
+			int stepOfIndices = Math.max(1, (int) Math.ceil((double) (lastIndex - firstIndex) / (numberOfPointsPerLevel - 1)));
+
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int index = firstIndex; index <= lastIndex; index += stepOfIndices) {
+				double value = functionToMaximize.applyAsDouble(leftEndControlInterval + index * controlStep);
+				if (value > bestValue) {
+					bestValue = value;
+					bestIndex = index;
+				}
+			}
+
+			if (stepOfIndices == 1) {
+				return leftEndControlInterval + bestIndex * controlStep;
+			}
+
+			//the next grid is between the two neighbours of the best point
+			firstIndex = Math.max(firstIndex, bestIndex - stepOfIndices + 1);
+			lastIndex = Math.min(lastIndex, bestIndex + stepOfIndices - 1);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.stream.IntStream;
+
+import net.finmath.util.TriFunction;
+
+/**
+ * This class stores the values of 1/2 sigma^2, b and f for all the points (t_i,x_j) of the grid of time and space and for all the controls
+ * of the grid a_min, a_min + controlStep, ..., a_max. These values do not depend on the value function, so they are the same at every
+ * iteration of the Policy Improvement Algorithm: once they are stored, the Hamiltonian for all the controls at a given point can be computed
+ * by a simple scan of an array, without calling the functions again.
+ *
+ * The values are stored in one table for every time, in which the three values for the point x_j and the control a_k are contiguous, at
+ * positions 3 * (j * numberOfControls + k), 3 * (j * numberOfControls + k) + 1 and 3 * (j * numberOfControls + k) + 2. The tables are
+ * filled in parallel. They are stored outside the heap of the Java virtual machine if they are large, so that they do not weigh on the
+ * garbage collector.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+class ControlCoefficientTables {
+
+	//if the total number of values is bigger than this, the tables are stored outside the heap
+	static final long MINIMUM_NUMBER_OF_VALUES_OUTSIDE_HEAP = 1L << 23;
+
+	private DoubleBuffer[] tables;
+
+	private int numberOfControls;
+
+	/**
+	 * It constructs the tables and fills them.
+	 *
+	 * @param driftFunctionWithControl, the function b(t,x,a) of time, space and control
+	 * @param diffusionFunctionWithControl, the function sigma(t,x,a) of time, space and control
+	 * @param runningRewardFunction, the function f(t,x,a) of time, space and control
+	 * @param times, the times of the grid
+	 * @param spaces, the points of the space grid
+	 * @param controls, the controls of the grid
+	 */
+	ControlCoefficientTables(TriFunction<Double, Double, Double, Double> driftFunctionWithControl,
+			TriFunction<Double, Double, Double, Double> diffusionFunctionWithControl,
+			TriFunction<Double, Double, Double, Double> runningRewardFunction, double[] times, double[] spaces, double[] controls) {
+
+		numberOfControls = controls.length;
+
+		int sizeOfTable = 3 * spaces.length * numberOfControls;
+		boolean outsideHeap = getNumberOfValues(times.length, spaces.length, numberOfControls) > MINIMUM_NUMBER_OF_VALUES_OUTSIDE_HEAP;
+
+		tables = new DoubleBuffer[times.length];
+
+		IntStream.range(0, times.length).parallel().forEach(timeIndex -> {
+			DoubleBuffer table = outsideHeap
+					? ByteBuffer.allocateDirect(sizeOfTable * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer()
+					: DoubleBuffer.allocate(sizeOfTable);
+			int position = 0;
+			for (double space : spaces) {
+				for (double control : controls) {
+					double volatility = diffusionFunctionWithControl.apply(times[timeIndex], space, control);
+					table.put(position, 0.5 * volatility * volatility);
+					table.put(position + 1, driftFunctionWithControl.apply(times[timeIndex], space, control));
+					table.put(position + 2, runningRewardFunction.apply(times[timeIndex], space, control));
+					position += 3;
+				}
+			}
+			tables[timeIndex] = table;
+		});
+	}
+
+	/**
+	 * It returns the total number of values stored by the tables for the given grids
+	 *
+	 * @param numberOfTimes, the number of times of the grid
+	 * @param numberOfSpacePoints, the number of points of the space grid
+	 * @param numberOfControls, the number of controls of the grid
+	 * @return the total number of values stored by the tables
+	 */
+	static long getNumberOfValues(int numberOfTimes, int numberOfSpacePoints, int numberOfControls) {
+		return 3L * numberOfTimes * numberOfSpacePoints * numberOfControls;
+	}
+
+	/**
+	 * It computes the values of 1/2 sigma^2 * secondSpaceDerivative + b * firstSpaceDerivative + f for all the controls, at the given
+	 * point of the grid.
+	 *
+	 * @param timeIndex, the index of the time in the array given to the constructor
+	 * @param spaceIndex, the index of the space in the array given to the constructor
+	 * @param firstSpaceDerivative, the first derivative of the value function at the point
+	 * @param secondSpaceDerivative, the second derivative of the value function at the point
+	 * @param valuesForControls, the array where the value for the control of index k is written at position k
+	 */
+	void computeValuesForControls(int timeIndex, int spaceIndex, double firstSpaceDerivative, double secondSpaceDerivative,
+			double[] valuesForControls) {
+		DoubleBuffer table = tables[timeIndex];
+		int position = 3 * spaceIndex * numberOfControls;
+		for (int controlIndex = 0; controlIndex < numberOfControls; controlIndex ++) {
+			valuesForControls[controlIndex] = table.get(position) * secondSpaceDerivative + table.get(position + 1) * firstSpaceDerivative
+					+ table.get(position + 2);
+			position += 3;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * This interface represents a method to find the control a in an interval [a_min, a_max] which maximizes a given function of the control.
+ * In the Policy Improvement Algorithm, this function is the Hamiltonian
+ * a -> 1/2(sigma(t,x,a))^2 * \partial_xx v + b(t,x,a) * \partial_x v + f(t,x,a)
+ * at a given point (t,x) of the grid, and it has to be maximized at every point. The implementations differ in how many times they
+ * evaluate the function and in which assumptions they make on it.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public interface ControlOptimizer {
+
+	/**
+	 * It returns the control which maximizes the given function in the control interval. The implementations must be thread safe,
+	 * because this method may be called for different points at the same time.
+	 *
+	 * @param functionToMaximize, the function of the control to maximize
+	 * @param leftEndControlInterval, the left end of the interval where controls are taken
+	 * @param rightEndControlInterval, the right end of the interval where controls are taken
+	 * @param controlStep, the precision with which the maximizing control is required. For the methods based on a grid, it is the step
+	 * 		  of the grid of the controls
+	 * @return the maximizing control
+	 */
+	double getMaximizingControl(DoubleUnaryOperator functionToMaximize, double leftEndControlInterval, double rightEndControlInterval,
+			double controlStep);
+}
@@ -0,0 +1,40 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleUnaryOperator;
+
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+
+/**
+ * This class finds the maximizing control by evaluating the function at all the points of the grid
+ * a_min, a_min + controlStep, a_min + 2 controlStep, ... in the control interval, and by taking the point where the function is the
+ * biggest. In case of more points giving the maximum, up to four digits, one of them is chosen randomly.
+ * It makes no assumption on the function, but it needs as many evaluations as the points of the grid. It is the default method used by
+ * PolicyImprovement.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class GridSearchControlOptimizer implements ControlOptimizer {
+
+	//every thread gets its own array to store the values of the function, which is reused for all the points it processes
+	private final ThreadLocal<double[]> valuesForControls = ThreadLocal.withInitial(() -> new double[0]);
+
+	@Override
+	public double getMaximizingControl(DoubleUnaryOperator functionToMaximize, double leftEndControlInterval, double rightEndControlInterval,
+			double controlStep) {
+
+		int numberOfControls = (int) ((rightEndControlInterval - leftEndControlInterval)/controlStep) + 1;
+
+		double[] values = valuesForControls.get();
+		if (values.length != numberOfControls) {
+			values = new double[numberOfControls];
+			valuesForControls.set(values);
+		}
+
+		for (int controlIndex = 0; controlIndex < numberOfControls; controlIndex ++) {
+			values[controlIndex] = functionToMaximize.applyAsDouble(leftEndControlInterval + controlIndex * controlStep);
+		}
+
+		return leftEndControlInterval + UsefulMethodsForArrays.getRandomMaximizingIndex(values) * controlStep;
+	}
+}
@@ -0,0 +1,388 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import it.univr.pdesolvers.SolutionInterpolator;
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+import net.finmath.util.TriFunction;
+
+/**
+ * Main goal of this class is to provide an approximated solution to the same class of optimal stochastic control problems as
+ * PolicyImprovement, i.e., to the Hamilton-Jacobi-Bellman equation
+ *
+ * \partial_t v(t,x) = sup_a [1/2 (sigma(t,x,a))^2 \partial_xx v(t,x) + b(t,x,a) \partial_x v(t,x) + f(t,x,a)], (t,x) \in (0,T] x R,
+ * v(0,x)=g(x), x \in R,
+ *
+ * where, as for PolicyImprovement, t is the time remaining to final time. Differently from PolicyImprovement, which solves the whole PDE
+ * for given controls and then improves the controls on the whole grid, here the HJB equation is solved directly going forward in time.
+ * At every time step we discretize it with the implicit Euler scheme, so that we get the non linear system
+ *
+ * (v^{n+1} - v^n) / dt = sup_a [L^a v^{n+1} + f^a],
+ *
+ * where L^a is the discretized generator. This system is solved by the policy iteration of Howard: starting from the controls of the past
+ * time step, we solve the linear system for the given controls, we take the controls that maximize L^a v^{n+1} + f^a for the new v^{n+1},
+ * and we go on until the controls do not change. Since the controls change little from one time step to the other, only few iterations
+ * are usually needed, and every iteration only needs the solution of a tri-diagonal system via the Thomas algorithm. In this way, the
+ * cost grows linearly with the number of points of the grid.
+ *
+ * The first derivative is approximated by upwind differences, i.e., forward differences where the drift is positive and backward
+ * differences where it is negative. In this way the matrices of the linear systems are diagonally dominant for every control, which
+ * guarantees that the policy iteration converges. As for CrankNicholsonPDESolver, the value at the left boundary is given, whereas at the
+ * right boundary we impose the second derivative to be zero.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class HowardPolicyIterationHJBSolver {
+
+	//functions of time, space and control
+	private TriFunction<Double, Double, Double, Double> driftFunctionWithControl;
+	private TriFunction<Double, Double, Double, Double> diffusionFunctionWithControl;
+	private TriFunction<Double, Double, Double, Double> runningRewardFunction;
+
+	//this is function of space only
+	private DoubleUnaryOperator finalRewardFunction;
+
+	//the condition at the left boundary, as a function of space and time
+	private DoubleBinaryOperator conditionAtLeftBoundary;
+
+	//the interval A where we look for the possible controls
+	private double leftEndControlInterval;
+	private double rightEndControlInterval;
+	private double controlStep;
+
+	private double leftEndSpaceInterval;
+	private double spaceStep;
+	private int numberOfSpaceSteps;
+
+	private double timeStep;
+	private int numberOfTimeSteps;
+
+	//the policy iteration at every time step stops if it reaches this number of iterations
+	private int maxNumberOfPolicyIterations;
+
+	//the method used to find the maximizing control at every point
+	private ControlOptimizer controlOptimizer = new GridSearchControlOptimizer();
+
+	//space grid
+	private double[] x;
+
+	//the value function and the optimal control. Time is on the rows, space on the columns
+	private double[][] valueFunction;
+	private double[][] optimalControl;
+
+	//the total number of policy iterations, i.e., of linear systems solved
+	private int numberOfPolicyIterations;
+
+	//the three diagonals and the known term of the tri-diagonal system, together with the working array for the Thomas algorithm
+	private double[] lowerDiagonal;
+	private double[] diagonal;
+	private double[] upperDiagonal;
+	private double[] knownTerm;
+	private double[] workingArray;
+
+
+	/**
+	 * It constructs an object to solve a general stochastic optimal control problem in continuous time, with one-dimensional domain for
+	 * the controlled process, via the policy iteration of Howard at every time step of the implicit Euler scheme for the HJB equation.
+	 *
+	 * @param driftFunctionWithControl, the function b(t,x,a) of time, space and control
+	 * @param diffusionFunctionWithControl, the function sigma(t,x,a) of time, space and control
+	 * @param runningRewardFunction, the function f(t,x,a) of time, space and control
+	 * @param finalRewardFunction, the function g(x)
+	 * @param conditionAtLeftBoundary, the condition at the left boundary of the space domain we want to consider, as a function of
+	 * 		  space and time. The condition at the right boundary is not needed.
+	 * @param leftEndControlInterval, the left boundary of the interval where controls are taken
+	 * @param rightEndControlInterval, the right boundary of the interval where controls are taken
+	 * @param controlStep, the discretization step of the control interval
+	 * @param leftEndSpaceInterval, the left boundary of the space interval
+	 * @param rightEndSpaceInterval, the right boundary of the space interval
+	 * @param spaceStep, the discretization step of the space interval
+	 * @param finalTime, the time at which the final reward is potentially given
+	 * @param timeStep, the discretization step of the time interval [0, finalTime]
+	 * @param maxNumberOfPolicyIterations, the maximum number of policy iterations at every time step
+	 */
+	public HowardPolicyIterationHJBSolver(TriFunction<Double, Double, Double, Double> driftFunctionWithControl,
+			TriFunction<Double, Double, Double, Double> diffusionFunctionWithControl,
+			TriFunction<Double, Double, Double, Double> runningRewardFunction, DoubleUnaryOperator finalRewardFunction,
+			DoubleBinaryOperator conditionAtLeftBoundary, double leftEndControlInterval, double rightEndControlInterval, double controlStep,
+			double leftEndSpaceInterval, double rightEndSpaceInterval, double spaceStep, double finalTime, double timeStep,
+			int maxNumberOfPolicyIterations) {
+
+		this.driftFunctionWithControl = driftFunctionWithControl;
+		this.diffusionFunctionWithControl = diffusionFunctionWithControl;
+		this.runningRewardFunction = runningRewardFunction;
+		this.finalRewardFunction = finalRewardFunction;
+		this.conditionAtLeftBoundary = conditionAtLeftBoundary;
+
+		this.leftEndControlInterval = leftEndControlInterval;
+		this.rightEndControlInterval = rightEndControlInterval;
+		this.controlStep = controlStep;
+
+		this.leftEndSpaceInterval = leftEndSpaceInterval;
+		this.spaceStep = spaceStep;
+		this.timeStep = timeStep;
+
+		numberOfTimeSteps = (int) Math.ceil(finalTime / timeStep);
+		numberOfSpaceSteps = (int) Math.ceil((rightEndSpaceInterval - leftEndSpaceInterval) / spaceStep);
+
+		this.maxNumberOfPolicyIterations = maxNumberOfPolicyIterations;
+	}
+
+	/**
+	 * It sets the method used to find the maximizing control at every point of the grid, at every policy iteration. By default, the
+	 * controls are searched on the grid given in the constructor, via GridSearchControlOptimizer.
+	 *
+	 * @param controlOptimizer, the method used to find the maximizing control
+	 */
+	public void setControlOptimizer(ControlOptimizer controlOptimizer) {
+		this.controlOptimizer = controlOptimizer;
+	}
+
+
+	//this is the core of the class: it computes the value function and the optimal control going forward from one time to the other
+	private void solve() {
+
+		x = new double[numberOfSpaceSteps + 1];
+		for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
+			x[spaceIndex] = leftEndSpaceInterval + spaceIndex * spaceStep;
+		}
+
+		valueFunction = new double[numberOfTimeSteps + 1][numberOfSpaceSteps + 1];
+		optimalControl = new double[numberOfTimeSteps][numberOfSpaceSteps + 1];
+
+		lowerDiagonal = new double[numberOfSpaceSteps - 1];
+		diagonal = new double[numberOfSpaceSteps - 1];
+		upperDiagonal = new double[numberOfSpaceSteps - 1];
+		knownTerm = new double[numberOfSpaceSteps - 1];
+		workingArray = new double[numberOfSpaceSteps - 1];
+
+		numberOfPolicyIterations = 0;
+
+		for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
+			valueFunction[0][spaceIndex] = finalRewardFunction.applyAsDouble(x[spaceIndex]);
+		}
+
+		//the first controls are the middle point of the control interval. Then, we start from the controls of the past time step
+		double[] initialControls = new double[numberOfSpaceSteps + 1];
+		Arrays.fill(initialControls, 0.5 * (leftEndControlInterval + rightEndControlInterval));
+
+		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex ++) {
+			double[] controls = optimalControl[timeIndex - 1];
+			System.arraycopy(timeIndex == 1 ? initialControls : optimalControl[timeIndex - 2], 0, controls, 0, numberOfSpaceSteps + 1);
+
+			solveLinearSystemForGivenControls(timeIndex, controls);
+			numberOfPolicyIterations ++;
+
+			//the controls are not improved after the last iteration, so that the value function is always the one for the controls
+			for (int iteration = 1; iteration < maxNumberOfPolicyIterations && improveControls(timeIndex, controls); iteration ++) {
+				solveLinearSystemForGivenControls(timeIndex, controls);
+				numberOfPolicyIterations ++;
+			}
+		}
+	}
+
+	/*
+	 * It computes the value function at the time of index timeIndex, for the given controls, via the implicit Euler scheme:
+	 * (I - dt L^a) v^{n+1} = v^n + dt f^a
+	 */
+	private void solveLinearSystemForGivenControls(int timeIndex, double[] controls) {
+
+		double time = timeIndex * timeStep;
+		double[] pastValues = valueFunction[timeIndex - 1];
+		double[] newValues = valueFunction[timeIndex];
+
+		for (int spaceIndex = 1; spaceIndex < numberOfSpaceSteps; spaceIndex ++) {
+			double control = controls[spaceIndex];
+			double volatility = diffusionFunctionWithControl.apply(time, x[spaceIndex], control);
+			double drift = driftFunctionWithControl.apply(time, x[spaceIndex], control);
+
+			//the upwind discretization: the coefficients of the values at the left and at the right in L^a, which are never negative
+			double diffusionTerm = 0.5 * volatility * volatility / (spaceStep * spaceStep);
+			double leftCoefficient = diffusionTerm + Math.max(- drift, 0.0) / spaceStep;
+			double rightCoefficient = diffusionTerm + Math.max(drift, 0.0) / spaceStep;
+
+			int systemIndex = spaceIndex - 1;
+			lowerDiagonal[systemIndex] = - timeStep * leftCoefficient;
+			diagonal[systemIndex] = 1 + timeStep * (leftCoefficient + rightCoefficient);
+			upperDiagonal[systemIndex] = - timeStep * rightCoefficient;
+			knownTerm[systemIndex] = pastValues[spaceIndex] + timeStep * runningRewardFunction.apply(time, x[spaceIndex], control);
+		}
+
+		double valueAtLeftBoundary = conditionAtLeftBoundary.applyAsDouble(x[0], time);
+		knownTerm[0] -= lowerDiagonal[0] * valueAtLeftBoundary;
+
+		//as in CrankNicholsonPDESolver, we take the value at the right border at the past time
+		knownTerm[numberOfSpaceSteps - 2] -= upperDiagonal[numberOfSpaceSteps - 2] * pastValues[numberOfSpaceSteps];
+
+		UsefulMethodsForArrays.solveTridiagonalSystem(lowerDiagonal, diagonal, upperDiagonal, knownTerm, knownTerm, workingArray);
+
+		System.arraycopy(knownTerm, 0, newValues, 1, numberOfSpaceSteps - 1);
+		newValues[0] = valueAtLeftBoundary;
+		newValues[numberOfSpaceSteps] = 2 * newValues[numberOfSpaceSteps - 1] - newValues[numberOfSpaceSteps - 2];
+	}
+
+	/*
+	 * It replaces the controls at the time of index timeIndex with the ones maximizing L^a v + f^a, where v is the value function
+	 * computed for the current controls, and returns true if at least one control has changed by more than half the control step.
+	 * At the borders, where the discretized generator is not defined, the controls are the ones of the closest points.
+	 */
+	private boolean improveControls(int timeIndex, double[] controls) {
+
+		double time = timeIndex * timeStep;
+		double[] values = valueFunction[timeIndex];
+		boolean haveControlsChanged = false;
+
+		for (int spaceIndex = 1; spaceIndex < numberOfSpaceSteps; spaceIndex ++) {
+			double space = x[spaceIndex];
+			double secondDerivative = (values[spaceIndex + 1] - 2 * values[spaceIndex] + values[spaceIndex - 1]) / (spaceStep * spaceStep);
+			double forwardDerivative = (values[spaceIndex + 1] - values[spaceIndex]) / spaceStep;
+			double backwardDerivative = (values[spaceIndex] - values[spaceIndex - 1]) / spaceStep;
+
+			//the same discretization of the generator as in the linear system
+			DoubleUnaryOperator hamiltonian = control -> {
+				double volatility = diffusionFunctionWithControl.apply(time, space, control);
+				double drift = driftFunctionWithControl.apply(time, space, control);
+				return 0.5 * volatility * volatility * secondDerivative
+						+ (drift > 0 ? drift * forwardDerivative : drift * backwardDerivative)
+						+ runningRewardFunction.apply(time, space, control);
+			};
+
+			double maximizingControl = controlOptimizer.getMaximizingControl(hamiltonian, leftEndControlInterval, rightEndControlInterval,
+					controlStep);
+
+			/*
+			 * The controls which do not improve the Hamiltonian are not changed: in this way, the iterations stop when more controls give
+			 * the same value
+			 */
+			if (Math.abs(maximizingControl - controls[spaceIndex]) > 0.5 * controlStep
+					&& hamiltonian.applyAsDouble(maximizingControl) > hamiltonian.applyAsDouble(controls[spaceIndex]) + 1E-12) {
+				controls[spaceIndex] = maximizingControl;
+				haveControlsChanged = true;
+			}
+		}
+		controls[0] = controls[1];
+		controls[numberOfSpaceSteps] = controls[numberOfSpaceSteps - 1];
+
+		return haveControlsChanged;
+	}
+
+
+	/**
+	 * It returns the value function as a matrix of doubles.
+	 *
+	 * @return the value function as a matrix of doubles. The time remaining to final time is on rows, space on columns
+	 */
+	public double[][] getValueFunction() {
+		if (valueFunction == null) {
+			solve();
+		}
+		return valueFunction.clone();
+	}
+
+	/**
+	 * It returns the optimal controls as a matrix of doubles.
+	 *
+	 * @return the optimal controls as a matrix of doubles. The time remaining to final time is on rows, space on columns. The first row is
+	 * 		   for the first time step
+	 */
+	public double[][] getOptimalControl() {
+		if (valueFunction == null) {
+			solve();
+		}
+		return optimalControl.clone();
+	}
+
+	/**
+	 * It returns the value function at a given time as a vector of doubles. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the value function has to be computed. It his here meant as time remaining to final time
+	 * @return the vector of the value function for that time
+	 */
+	public double[] getValueFunctionAtGivenTime(double time) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return valueFunction[(int) Math.round(time / timeStep)];
+	}
+
+	/**
+	 * It returns the optimal control at a given time as a vector of doubles. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the optimal control has to be computed. It his here meant as time remaining to final time
+	 * @return the vector of the optimal control for that time
+	 */
+	public double[] getOptimalControlAtGivenTime(double time) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return optimalControl[(int) Math.round(time / timeStep) - 1];
+	}
+
+	/**
+	 * It returns the value function at a given time and a given space value. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the value function has to be computed. It his here meant as time remaining to final time
+	 * @param space, the value of x
+	 * @return the value function for that time and space
+	 */
+	public double getValueFunctionAtTimeAndSpace(double time, double space) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return valueFunction[(int) Math.round(time / timeStep)][(int) Math.round((space - leftEndSpaceInterval) / spaceStep)];
+	}
+
+	/**
+	 * It returns the optimal control at a given time and a given space value. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the optimal control has to be computed. It his here meant as time remaining to final time
+	 * @param space, the value of x
+	 * @return the optimal control for that time and space
+	 */
+	public double getOptimalControlAtTimeAndSpace(double time, double space) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return optimalControl[(int) Math.round(time / timeStep) - 1][(int) Math.round((space - leftEndSpaceInterval) / spaceStep)];
+	}
+
+	/**
+	 * It returns an object which interpolates the value function, linearly in time and with the given method in space.
+	 * The time is here meant as time remaining to final time
+	 * @param spaceInterpolation, the method to interpolate in space
+	 * @return an object which interpolates the value function
+	 */
+	public SolutionInterpolator getInterpolatedValueFunction(SolutionInterpolator.SpaceInterpolation spaceInterpolation) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return new SolutionInterpolator(valueFunction, 0.0, timeStep, leftEndSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	/**
+	 * It returns an object which interpolates the optimal control, linearly in time and with the given method in space.
+	 * The time is here meant as time remaining to final time
+	 * @param spaceInterpolation, the method to interpolate in space
+	 * @return an object which interpolates the optimal control
+	 */
+	public SolutionInterpolator getInterpolatedOptimalControl(SolutionInterpolator.SpaceInterpolation spaceInterpolation) {
+		if (valueFunction == null) {
+			solve();
+		}
+		return new SolutionInterpolator(optimalControl, timeStep, timeStep, leftEndSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	/**
+	 * It returns the total number of policy iterations, i.e., of linear systems which have been solved, over all the time steps
+	 * @return the total number of policy iterations
+	 */
+	public int getNumberOfPolicyIterations() {
+		if (valueFunction == null) {
+			solve();
+		}
+		return numberOfPolicyIterations;
+	}
+}
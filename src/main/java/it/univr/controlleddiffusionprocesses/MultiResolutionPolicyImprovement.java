@@ -0,0 +1,203 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import it.univr.pdesolvers.SolutionInterpolator;
+import net.finmath.util.TriFunction;
+
+/**
+ * This class solves the same optimal stochastic control problems as PolicyImprovement, but on a sequence of grids which get finer and
+ * finer. The Policy Improvement Algorithm is first applied on the coarsest grid, where the steps of time, space and control are
+ * multiplied by refinementFactor^(numberOfLevels - 1) with respect to the ones given in the constructor, so every iteration is cheap.
+ * The optimal control found there, interpolated linearly in time and space, is then the initial control for the algorithm on the next
+ * finer grid, and so on until the finest grid, which is the one given in the constructor. Since the initial control is already close to
+ * the optimal one, only a few iterations are needed on the finer grids, where they are more expensive.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class MultiResolutionPolicyImprovement {
+
+	//level 0 is the finest grid, the one given in the constructor
+	private PolicyImprovement[] policyImprovementsForLevels;
+
+	private boolean isSolved;
+
+	/**
+	 * It constructs on object to solve a general stochastic optimal control problem in continuous time, with one-dimensional domain for
+	 * the controlled process, via the Policy Improvement Algorithm applied on a sequence of finer and finer grids.
+	 *
+	 * @param driftFunctionWithControl, the function b(t,x,a) of time, space and control
+	 * @param diffusionFunctionWithControl, the function sigma(t,x,a) of time, space and control
+	 * @param runningRewardFunction, the function f(t,x,a) of time, space and control
+	 * @param finalRewardFunction, the function g(x)
+	 * @param conditionAtLeftBoundary, the condition at the left boundary of the space domain we want to consider
+	 * @param leftEndControlInterval, the left boundary of the interval where controls are taken
+	 * @param rightEndControlInterval, the right boundary of the interval where controls are taken
+	 * @param controlStep, the discretization step of the control interval for the finest grid
+	 * @param leftEndSpaceInterval, the left boundary of the space interval
+	 * @param rightEndSpaceInterval, the right boundary of the space interval
+	 * @param spaceStep, the discretization step of the space interval for the finest grid
+	 * @param finalTime, the time at which the final reward is potentially given
+	 * @param timeStep, the discretization step of the time interval [0, finalTime] for the finest grid
+	 * @param requiredPrecision, for every grid, the iterations stop if the norm of the difference between the new and past values of the
+	 * 		  matrix of the value function is smaller than this
+	 * @param maxNumberIterations, for every grid, the iterations also stop if we reach the maximum number of iterations
+	 * @param numberOfLevels, the number of grids. If it is 1, only the finest grid is considered, as in PolicyImprovement
+	 * @param refinementFactor, the factor by which the steps are divided from a grid to the next finer one. It must be at least 2
+	 */
+	public MultiResolutionPolicyImprovement(TriFunction<Double, Double, Double, Double> driftFunctionWithControl,
+			TriFunction<Double, Double, Double, Double> diffusionFunctionWithControl, TriFunction<Double, Double, Double, Double> runningRewardFunction,
+			DoubleUnaryOperator finalRewardFunction, DoubleBinaryOperator conditionAtLeftBoundary, double leftEndControlInterval,
+			double rightEndControlInterval, double controlStep, double leftEndSpaceInterval, double rightEndSpaceInterval, double spaceStep,
+			double finalTime, double timeStep, double requiredPrecision, int maxNumberIterations, int numberOfLevels, int refinementFactor) {
+
+		if (numberOfLevels < 1) {
+			throw new IllegalArgumentException("At least one level is needed");
+		}
+		if (refinementFactor < 2) {
+			throw new IllegalArgumentException("The refinement factor must be at least 2");
+		}
+
+		policyImprovementsForLevels = new PolicyImprovement[numberOfLevels];
+
+		double factorForLevel = 1.0;
+		for (int level = 0; level < numberOfLevels; level ++) {
+			policyImprovementsForLevels[level] = new PolicyImprovement(driftFunctionWithControl, diffusionFunctionWithControl,
+					runningRewardFunction, finalRewardFunction, conditionAtLeftBoundary, leftEndControlInterval, rightEndControlInterval,
+					controlStep * factorForLevel, leftEndSpaceInterval, rightEndSpaceInterval, spaceStep * factorForLevel, finalTime,
+					timeStep * factorForLevel, requiredPrecision, maxNumberIterations);
+			factorForLevel *= refinementFactor;
+		}
+	}
+
+	/**
+	 * It sets the method used to find the maximizing control at every point of the grid, for all the grids.
+	 *
+	 * @param controlOptimizer, the method used to find the maximizing control
+	 */
+	public void setControlOptimizer(ControlOptimizer controlOptimizer) {
+		for (PolicyImprovement policyImprovement : policyImprovementsForLevels) {
+			policyImprovement.setControlOptimizer(controlOptimizer);
+		}
+	}
+
+	/**
+	 * It sets if the maximizing controls at every iteration have to be computed in parallel, for all the grids.
+	 *
+	 * @param parallelComputationOfControls, true if the maximizing controls have to be computed in parallel
+	 */
+	public void setParallelComputationOfControls(boolean parallelComputationOfControls) {
+		for (PolicyImprovement policyImprovement : policyImprovementsForLevels) {
+			policyImprovement.setParallelComputationOfControls(parallelComputationOfControls);
+		}
+	}
+
+	/**
+	 * It sets the criteria to stop the iterations when the controls do not change enough, for all the grids. See the same method of
+	 * PolicyImprovement.
+	 *
+	 * @param maximumFractionOfChangedControls, the iterations stop if the fraction of the points where the control changes is not bigger
+	 * 		  than this
+	 * @param maximumChangeOfControls, the iterations stop if the maximum absolute change of the control is not bigger than this
+	 */
+	public void setStoppingCriteriaForControls(double maximumFractionOfChangedControls, double maximumChangeOfControls) {
+		for (PolicyImprovement policyImprovement : policyImprovementsForLevels) {
+			policyImprovement.setStoppingCriteriaForControls(maximumFractionOfChangedControls, maximumChangeOfControls);
+		}
+	}
+
+	/*
+	 * It applies the Policy Improvement Algorithm from the coarsest to the finest grid, every time starting from the optimal control
+	 * of the previous grid
+	 */
+	private void solve() throws Exception {
+
+		for (int level = policyImprovementsForLevels.length - 2; level >= 0; level --) {
+			//the computations are lazy: here the algorithm is applied on the grid of level + 1
+			SolutionInterpolator coarseOptimalControl = policyImprovementsForLevels[level + 1]
+					.getInterpolatedOptimalControl(SolutionInterpolator.SpaceInterpolation.LINEAR);
+			policyImprovementsForLevels[level].setInitialControl(coarseOptimalControl::evaluate);
+		}
+
+		//and finally on the finest grid
+		policyImprovementsForLevels[0].getNumberOfIterations();
+
+		isSolved = true;
+	}
+
+	/**
+	 * It returns the object which applies the Policy Improvement Algorithm on the grid of the given level, after the algorithm has been
+	 * applied on all the grids. From it one can get the value function, the optimal control and the information about the iterations
+	 * on that grid.
+	 *
+	 * @param level, the level of the grid: 0 is the finest grid, numberOfLevels - 1 the coarsest one
+	 * @return the object which applies the Policy Improvement Algorithm on the grid of the given level
+	 * @throws Exception
+	 */
+	public PolicyImprovement getPolicyImprovementAtLevel(int level) throws Exception {
+		if (!isSolved) {
+			solve();
+		}
+		return policyImprovementsForLevels[level];
+	}
+
+	/**
+	 * It returns the value function on the finest grid as a matrix of doubles.
+	 *
+	 * @return It returns the value function as a matrix of doubles. The time remaining to final time is on rows, space on columns
+	 * @throws Exception
+	 */
+	public double[][] getValueFunction() throws Exception {
+		return getPolicyImprovementAtLevel(0).getValueFunction();
+	}
+
+	/**
+	 * It returns the optimal controls on the finest grid as a matrix of doubles.
+	 *
+	 * @return It returns the optimal controls as a matrix of doubles. The time remaining to final time is on rows, space on columns
+	 * @throws Exception
+	 */
+	public double[][] getOptimalControl() throws Exception {
+		return getPolicyImprovementAtLevel(0).getOptimalControl();
+	}
+
+	/**
+	 * It returns the value function on the finest grid at a given time and a given space value. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the value function has to be computed. It his here meant as time remaining to final time
+	 * @param space, the value of x
+	 * @return the value function for that time and space
+	 * @throws Exception
+	 */
+	public double getValueFunctionAtTimeAndSpace(double time, double space) throws Exception {
+		return getPolicyImprovementAtLevel(0).getValueFunctionAtTimeAndSpace(time, space);
+	}
+
+	/**
+	 * It returns the optimal control on the finest grid at a given time and a given space value. The time is here meant as
+	 * time remaining to final time
+	 * @param time, the time when the value function has to be computed. It his here meant as time remaining to final time
+	 * @param space, the value of x
+	 * @return the optimal control for that time and space
+	 * @throws Exception
+	 */
+	public double getOptimalControlAtTimeAndSpace(double time, double space) throws Exception {
+		return getPolicyImprovementAtLevel(0).getOptimalControlAtTimeAndSpace(time, space);
+	}
+
+	/**
+	 * It returns the number of iterations which have been performed on every grid
+	 *
+	 * @return the number of iterations for every level, 0 being the finest grid
+	 * @throws Exception
+	 */
+	public int[] getNumberOfIterationsForLevels() throws Exception {
+		int[] numberOfIterations = new int[policyImprovementsForLevels.length];
+		for (int level = 0; level < policyImprovementsForLevels.length; level ++) {
+			numberOfIterations[level] = getPolicyImprovementAtLevel(level).getNumberOfIterations();
+		}
+		return numberOfIterations;
+	}
+}
@@ -6,6 +6,8 @@ import java.util.function.DoubleUnaryOperator;
 import java.util.stream.IntStream;
 
 import it.univr.pdesolvers.CrankNicholsonPDESolver;
+import it.univr.pdesolvers.SolutionInterpolator;
+import it.univr.usefulmethodsarrays.DenseMatrix;
 import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
 import net.finmath.util.TriFunction;
 
@@ -57,10 +59,58 @@ public class PolicyImprovement {
 	private int maxNumberIterations;
 	
 	//it will contain the values of the optimal control, updated at every iteration. Time is on the rows, space on the columns
-	private double[][] updatedOptimalControl;
+	private DenseMatrix updatedOptimalControl;
 
 	//it will contain the value function, updated at every iteration. Time is on the rows, space on the columns
-	private double[][] updatedValueFunction;
+	private DenseMatrix updatedValueFunction;
+
+	/*
+	 * The control at time and space from which the iterations start. If it is null, the iterations start from the middle point of the
+	 * control interval at every point
+	 */
+	private DoubleBinaryOperator initialControl;
+
+	//if true, the maximizing controls for different times are computed in parallel
+	private boolean parallelComputationOfControls;
+
+	//the method used to find the maximizing control at every point
+	private ControlOptimizer controlOptimizer = new GridSearchControlOptimizer();
+
+	/*
+	 * If true, and if the controls are searched on the grid via GridSearchControlOptimizer, the values of the coefficients for all the
+	 * points of the grid and all the controls are computed once for all, and stored in the tables
+	 */
+	private boolean useCoefficientTables;
+	private ControlCoefficientTables coefficientTables;
+
+	//if the tables would store more values than this, they are not used
+	private long maximumNumberOfValuesInCoefficientTables = 1L << 28;
+
+	//when the tables are used, every thread gets its own array to store the values of the Hamiltonian for all the controls
+	private ThreadLocal<double[]> valuesForControls;
+
+	/*
+	 * The iterations also stop, before solving a new PDE, if the fraction of the points of the grid where the control has changed or the
+	 * maximum absolute change of the control are not bigger than these
+	 */
+	private double maximumFractionOfChangedControls;
+	private double maximumChangeOfControls;
+
+	//the number of controls which have changed in every row of the matrix of controls, and the maximum absolute change in every row
+	private int[] numberOfChangedControlsAtGivenTime;
+	private double[] maximumChangeOfControlsAtGivenTime;
+
+	/*
+	 * For every iteration (the first one being the solution of the PDE for the initial controls), the time needed in seconds, the norm
+	 * of the difference between the new and past value function, the maximum absolute difference between them, the fraction of the
+	 * points of the grid where the control has changed and the maximum absolute change of the control
+	 */
+	private int numberOfIterations;
+	private double[] timesOfIterations;
+	private double[] normsOfDifferencesOfValueFunction;
+	private double[] maximumDifferencesOfValueFunction;
+	private double[] fractionsOfChangedControls;
+	private double[] maximumChangesOfControls;
 
 
 	/**
@@ -108,140 +158,328 @@ public class PolicyImprovement {
 		this.finalTime = finalTime;
 		this.timeStep = timeStep;
 
-		numberOfTimeSteps = (int) (finalTime/timeStep);
-		numberOfSpaceSteps = (int) ((rightEndSpaceInterval-leftEndSpaceInterval)/spaceStep);	
+		//the same numbers of steps as in the PDE solver, so that the matrices of the controls match its grids
+		numberOfTimeSteps = (int) Math.ceil(finalTime/timeStep);
+		numberOfSpaceSteps = (int) Math.ceil((rightEndSpaceInterval-leftEndSpaceInterval)/spaceStep);
 		
 		this.requiredPrecision = requiredPrecision;
 		this.maxNumberIterations = maxNumberIterations;
 	}
 
 
+	/**
+	 * It sets if the maximizing controls at every iteration have to be computed in parallel, splitting the times among the available
+	 * processors. By default, this is not done.
+	 *
+	 * @param parallelComputationOfControls, true if the maximizing controls have to be computed in parallel
+	 */
+	public void setParallelComputationOfControls(boolean parallelComputationOfControls) {
+		this.parallelComputationOfControls = parallelComputationOfControls;
+	}
+
+
+	/**
+	 * It sets the method used to find the maximizing control at every point of the grid, at every iteration. By default, the controls
+	 * are searched on the grid leftEndControlInterval, leftEndControlInterval + controlStep, ..., rightEndControlInterval given in the
+	 * constructor, via GridSearchControlOptimizer. When the Hamiltonian has only one local maximum in the control, methods like
+	 * BrentControlOptimizer are much faster.
+	 *
+	 * @param controlOptimizer, the method used to find the maximizing control
+	 */
+	public void setControlOptimizer(ControlOptimizer controlOptimizer) {
+		this.controlOptimizer = controlOptimizer;
+	}
+
+
+	/**
+	 * It sets if the values of the drift, of the volatility and of the running reward for all the points of the grid and all the controls
+	 * have to be computed only once, and stored in tables. In this way, the maximizing controls at every iteration are computed by scanning
+	 * these tables, without calling the functions again. This is only possible when the controls are searched on the grid via
+	 * GridSearchControlOptimizer, which is the default, and if the tables are not bigger than the maximum given here: otherwise,
+	 * the functions are called as usual. Large tables are stored outside the heap.
+	 *
+	 * @param useCoefficientTables, true if the tables have to be used
+	 * @param maximumNumberOfValuesInCoefficientTables, the maximum number of values that the tables can store, i.e., three times the
+	 * 		  number of times, times the number of points of the space grid, times the number of controls
+	 */
+	public void setCoefficientTables(boolean useCoefficientTables, long maximumNumberOfValuesInCoefficientTables) {
+		this.useCoefficientTables = useCoefficientTables;
+		this.maximumNumberOfValuesInCoefficientTables = maximumNumberOfValuesInCoefficientTables;
+	}
+
+
+	/**
+	 * It sets the control from which the iterations start, as a function of time and space. The time is here meant as time remaining to
+	 * final time. A good initial guess, for example the optimal control computed on a coarser grid, reduces the number of iterations.
+	 * By default, the iterations start from the middle point of the control interval at every point.
+	 *
+	 * @param initialControl, the function (t,x) -> a^0(t,x) giving the initial control. Its values are moved inside the control
+	 * 		  interval if they are outside
+	 */
+	public void setInitialControl(DoubleBinaryOperator initialControl) {
+		this.initialControl = initialControl;
+	}
+
+
+	/**
+	 * It sets the criteria to stop the iterations when the controls do not change enough. After the controls are updated, the
+	 * iterations stop without solving the PDE for the new controls if the fraction of the points of the grid where the control has changed
+	 * by more than half the control step is not bigger than maximumFractionOfChangedControls, or if the maximum absolute change of the control is not bigger than
+	 * maximumChangeOfControls. By default they are both zero, so that the iterations only stop when no control changes: in this case the
+	 * PDE would have the same solution.
+	 *
+	 * @param maximumFractionOfChangedControls, the iterations stop if the fraction of the points where the control changes is not bigger
+	 * 		  than this
+	 * @param maximumChangeOfControls, the iterations stop if the maximum absolute change of the control is not bigger than this
+	 */
+	public void setStoppingCriteriaForControls(double maximumFractionOfChangedControls, double maximumChangeOfControls) {
+		this.maximumFractionOfChangedControls = maximumFractionOfChangedControls;
+		this.maximumChangeOfControls = maximumChangeOfControls;
+	}
+
+
 	/*
 	 * This is the core of the class: here we apply indeed the Policy Improvement Algorithm by starting from a given matrix of controls which will be
 	 * iteratively updated based on the solution of the PDE for the past optimal controls. 
 	 */
 	private void computeSolutionAndOptimalControl() throws Exception {
 
-		updatedOptimalControl = new double[numberOfTimeSteps][numberOfSpaceSteps + 1];
+		updatedOptimalControl = new DenseMatrix(numberOfTimeSteps, numberOfSpaceSteps + 1);
 		
-		//the first matrix of optimal controls has same values for all rows and columns
 		for (int rowIndex = 0; rowIndex < numberOfTimeSteps; rowIndex ++) {
-			//these values are the middle point of the control interval
-			Arrays.fill(updatedOptimalControl[rowIndex], (rightEndControlInterval-leftEndControlInterval)/2);
+			if (initialControl == null) {
+				//the first matrix of optimal controls has the middle point of the control interval for all rows and columns
+				Arrays.fill(updatedOptimalControl.getData(), updatedOptimalControl.getPositionOfRow(rowIndex),
+						updatedOptimalControl.getPositionOfRow(rowIndex + 1), 0.5 * (leftEndControlInterval + rightEndControlInterval));
+			} else {
+				//the row of index i is for the time (i+1) * timeStep
+				double time = (rowIndex + 1) * timeStep;
+				for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
+					double control = initialControl.applyAsDouble(time, leftEndSpaceInterval + spaceIndex * spaceStep);
+					updatedOptimalControl.set(rowIndex, spaceIndex, Math.min(Math.max(control, leftEndControlInterval), rightEndControlInterval));
+				}
+			}
 		}
 		
-		//we construct the object to solve the first PDE, for the first control
+		int numberOfControls = (int) ((rightEndControlInterval - leftEndControlInterval)/controlStep) + 1;
+
+		coefficientTables = null;
+		if (useCoefficientTables && controlOptimizer instanceof GridSearchControlOptimizer && ControlCoefficientTables.getNumberOfValues(
+				numberOfTimeSteps, numberOfSpaceSteps + 1, numberOfControls) <= maximumNumberOfValuesInCoefficientTables) {
+			//the same grids as for the computation of the maximizing controls
+			double[] times = IntStream.rangeClosed(1, numberOfTimeSteps).mapToDouble(i -> i * timeStep).toArray();
+			double[] spaces = IntStream.rangeClosed(0, numberOfSpaceSteps).mapToDouble(j -> leftEndSpaceInterval + j * spaceStep).toArray();
+			double[] controls = IntStream.range(0, numberOfControls).mapToDouble(k -> leftEndControlInterval + k * controlStep).toArray();
+			coefficientTables = new ControlCoefficientTables(driftFunctionWithControl, diffusionFunctionWithControl, runningRewardFunction,
+					times, spaces, controls);
+			valuesForControls = ThreadLocal.withInitial(() -> new double[numberOfControls]);
+		}
+
+		numberOfChangedControlsAtGivenTime = new int[numberOfTimeSteps];
+		maximumChangeOfControlsAtGivenTime = new double[numberOfTimeSteps];
+
+		numberOfIterations = 0;
+		timesOfIterations = new double[maxNumberIterations + 1];
+		normsOfDifferencesOfValueFunction = new double[maxNumberIterations + 1];
+		maximumDifferencesOfValueFunction = new double[maxNumberIterations + 1];
+		fractionsOfChangedControls = new double[maxNumberIterations + 1];
+		maximumChangesOfControls = new double[maxNumberIterations + 1];
+
+		long startTime = System.nanoTime();
+
+		/*
+		 * We construct the object to solve the first PDE, for the first control. The same object is then used for all the iterations: only
+		 * the controls change, so the grids and the arrays of the solver are reused and the coefficients of the PDE are computed again only
+		 * where the controls have changed
+		 */
 		CrankNicholsonPDESolver solver = new CrankNicholsonPDESolver(spaceStep,  timeStep,  leftEndSpaceInterval,  rightEndSpaceInterval,  finalTime,
 				driftFunctionWithControl, diffusionFunctionWithControl, runningRewardFunction, finalRewardFunction, conditionAtLeftBoundary, 
-				updatedOptimalControl);
+				updatedOptimalControl.toArray());
 
-		//we update the value function..
-		updatedValueFunction = solver.getSolution().clone();
+		//we update the value function. Note that this is the matrix of the solver..
+		updatedValueFunction = solver.getSolutionAsDenseMatrix();
 
-		//..and based on the updated value function we also update the optimal control 
-		updatedOptimalControl = getMaximizingControl(updatedValueFunction).clone();
+		//..and based on the updated value function we also update the optimal control. The matrix of the controls is overwritten
+		computeMaximizingControl(updatedOptimalControl);
 
-		//just to be sure that we enter the while loop
-		double differenceNorm = Double.MAX_VALUE;
+		//there is no past value function for the first iteration
+		saveIteration(startTime, Double.NaN, Double.NaN);
 
 		int iterationCounter = 0;//the while loop stops if it reaches maxNumberIterations
-		while (differenceNorm > requiredPrecision & iterationCounter < maxNumberIterations) {
-			
-			//it is used to compute the norm of the difference between the matrices of the new and the past solution
-			double[][] oldSolution = updatedValueFunction.clone();
+		while (iterationCounter < maxNumberIterations) {
+
+			//if the controls have not changed enough, solving the PDE again is not worth it
+			if (fractionsOfChangedControls[numberOfIterations - 1] <= maximumFractionOfChangedControls
+					|| maximumChangesOfControls[numberOfIterations - 1] <= maximumChangeOfControls) {
+				break;
+			}
 
-			//object to solve the new PDE. The only thing that changes, at every iteration, is updatedOptimalControl
-			solver = new CrankNicholsonPDESolver(spaceStep,  timeStep,  leftEndSpaceInterval,  rightEndSpaceInterval,  finalTime,
-					driftFunctionWithControl, diffusionFunctionWithControl, runningRewardFunction, finalRewardFunction, conditionAtLeftBoundary, 
-					updatedOptimalControl);
+			startTime = System.nanoTime();
+
+			//the only thing that changes, at every iteration, is updatedOptimalControl
+			solver.setControls(updatedOptimalControl.getData());
+
+			//the solver writes the new solution in a new matrix, so the past one is still valid and we do not need to copy it
+			DenseMatrix oldSolution = updatedValueFunction;
 
 			//we update the value function..
-			updatedValueFunction = solver.getSolution().clone();
-			
+			updatedValueFunction = solver.getSolutionAsDenseMatrix();
+
 			//..and based on the updated value function we also update the optimal control 
-			updatedOptimalControl = getMaximizingControl(updatedValueFunction).clone();
-			
-			//the norm of a matrix is here computed as the maximum sum of the elements of its rows divided by the number of columns
-			differenceNorm = UsefulMethodsForArrays.getNormDifference(updatedValueFunction, oldSolution);
+			computeMaximizingControl(updatedOptimalControl);
+
+			/*
+			 * The norm of a matrix is here computed as the maximum sum of the absolute values of the elements of its columns (i.e., for fixed
+			 * space) divided by the number of columns
+			 */
+			double differenceNorm = 0.0;
+			double maximumDifference = 0.0;
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
+				double sumOfDifferences = 0.0;
+				for (int timeIndex = 0; timeIndex <= numberOfTimeSteps; timeIndex ++) {
+					double difference = Math.abs(updatedValueFunction.get(timeIndex, spaceIndex) - oldSolution.get(timeIndex, spaceIndex));
+					sumOfDifferences += difference;
+					maximumDifference = Math.max(maximumDifference, difference);
+				}
+				differenceNorm = Math.max(differenceNorm, sumOfDifferences);
+			}
+			differenceNorm /= numberOfSpaceSteps + 1;
+
+			saveIteration(startTime, differenceNorm, maximumDifference);
 			iterationCounter ++;
+
+			if (differenceNorm <= requiredPrecision) {
+				break;
+			}
 		}
 	}
 
+	//it saves the time needed by the iteration and the changes of the value function and of the controls
+	private void saveIteration(long startTime, double differenceNorm, double maximumDifference) {
+
+		int numberOfChangedControls = 0;
+		double maximumChange = 0.0;
+		for (int timeIndex = 0; timeIndex < numberOfTimeSteps; timeIndex ++) {
+			numberOfChangedControls += numberOfChangedControlsAtGivenTime[timeIndex];
+			maximumChange = Math.max(maximumChange, maximumChangeOfControlsAtGivenTime[timeIndex]);
+		}
+
+		timesOfIterations[numberOfIterations] = (System.nanoTime() - startTime) / 1E9;
+		normsOfDifferencesOfValueFunction[numberOfIterations] = differenceNorm;
+		maximumDifferencesOfValueFunction[numberOfIterations] = maximumDifference;
+		fractionsOfChangedControls[numberOfIterations] = (double) numberOfChangedControls / (numberOfTimeSteps * (numberOfSpaceSteps + 1));
+		maximumChangesOfControls[numberOfIterations] = maximumChange;
+		numberOfIterations ++;
+	}
+
 	/*
-	 * At the k-th iteration of the Policy Improvement Algorithm we implement, this method returns a matrix whose element of row i and column
+	 * At the k-th iteration of the Policy Improvement Algorithm we implement, this method computes a matrix whose element of row i and column
 	 * is the control a^k(t[i],x[j]) that maximizes 1/2(sigma(t[i],x[j],a))^2 * \partial_xx v^k + (b(t[i],x[j],a)) * \partial_x v^k + f()t[i],x[j],a),
-	 * where v^k is the value function computed at the k-th iteration. The derivatives are approximated via final differences. 
+	 * where v^k is the value function computed at the k-th iteration. The derivatives are approximated via final differences.
+	 * The controls are written in the matrix given as an argument, so no matrix is allocated at every iteration. For every row, the number
+	 * of controls which have changed and their maximum absolute change are saved as well.
+	 * The maximization at different points is independent, so if parallelComputationOfControls is true the rows of the matrix are
+	 * computed in parallel.
 	 */
-	private double[][] getMaximizingControl(double[][] currentValueFunction){
+	private void computeMaximizingControl(DenseMatrix maximizingControls){
 
-		//matrix to fill
-		double[][] maximizingControls = new double[numberOfTimeSteps][numberOfSpaceSteps + 1];
+		IntStream timeIndices = IntStream.rangeClosed(1, numberOfTimeSteps);
+		if (parallelComputationOfControls) {
+			timeIndices = timeIndices.parallel();
+		}
+		timeIndices.forEach(timeIndex -> computeMaximizingControlsAtGivenTime(timeIndex, maximizingControls.getData(),
+				maximizingControls.getPositionOfRow(timeIndex - 1)));
+	}
 
-		int numberOfControls = (int) ((rightEndControlInterval - leftEndControlInterval)/controlStep) + 1;
+	/*
+	 * It computes the maximizing controls for all the points of the space grid at the time of index timeIndex, and writes them in
+	 * the given array from the given position
+	 */
+	private void computeMaximizingControlsAtGivenTime(int timeIndex, double[] maximizingControls, int firstPosition) {
+
+		//the value function at the time of index timeIndex starts from this position
+		double[] valueFunction = updatedValueFunction.getData();
+		int positionOfValueFunction = updatedValueFunction.getPositionOfRow(timeIndex);
+
+		double time = timeIndex * timeStep;
+
+		int numberOfChangedControls = 0;
+		double maximumChange = 0.0;
+
+		for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
+			double space = leftEndSpaceInterval + spaceIndex * spaceStep;
+			double firstSpaceDerivative = computeFirstDerivative(valueFunction, positionOfValueFunction, spaceIndex);
+			double secondSpaceDerivative = computeSecondDerivative(valueFunction, positionOfValueFunction, spaceIndex);
+
+			double maximizingControl;
+
+			if (coefficientTables != null) {
+				//the same as GridSearchControlOptimizer does, but with the values of the coefficients taken from the tables
+				double[] values = valuesForControls.get();
+				coefficientTables.computeValuesForControls(timeIndex - 1, spaceIndex, firstSpaceDerivative, secondSpaceDerivative, values);
+				maximizingControl = leftEndControlInterval + UsefulMethodsForArrays.getRandomMaximizingIndex(values) * controlStep;
+			} else {
+				//the function of the control that we want to maximize at this point..
+				DoubleUnaryOperator hamiltonian = control -> {
+					double drift = driftFunctionWithControl.apply(time, space, control);
+					double volatility = diffusionFunctionWithControl.apply(time, space, control);
+					return 0.5 * volatility * volatility * secondSpaceDerivative + drift * firstSpaceDerivative
+							+ runningRewardFunction.apply(time, space, control);
+				};
+
+				//..and the control that maximizes it
+				maximizingControl = controlOptimizer.getMaximizingControl(hamiltonian, leftEndControlInterval,
+						rightEndControlInterval, controlStep);
+			}
 
-		//all the possible controls. For every time and space, we choose the maximizing one.
-		double[] controls = IntStream.range(0, numberOfControls).mapToDouble(i -> leftEndControlInterval + i * controlStep).toArray();
-		double time = timeStep;
-		
-		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex ++) {
-			
-			double space = leftEndSpaceInterval;
-			
-			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex ++) {
-				double firstSpaceDerivative = computeFirstDerivative(timeIndex, spaceIndex);
-				double secondSpaceDerivative = computeSecondDerivative(timeIndex, spaceIndex);
-				double[] valuesForControls = new double[numberOfControls];
-				
-				//we compute the values of all the controls..
-				for (int controlIndex = 0; controlIndex < numberOfControls; controlIndex ++) {
-					double drift = driftFunctionWithControl.apply(time, space, controls[controlIndex]);
-					double volatility = diffusionFunctionWithControl.apply(time, space, controls[controlIndex]);
-					valuesForControls[controlIndex] = 0.5 * volatility * volatility * secondSpaceDerivative + drift * firstSpaceDerivative
-							+ runningRewardFunction.apply(time, space, controls[controlIndex]);
-				}
-				
-				//..and take the control that maximizes them
-				maximizingControls[timeIndex - 1][spaceIndex]=controls[UsefulMethodsForArrays.getRandomMaximizingIndex(valuesForControls)];
-				space += spaceStep;
+			/*
+			 * Changes smaller than half the control step are below the precision of the optimizers, so we do not count them as changes of the
+			 * control
+			 */
+			double change = Math.abs(maximizingControl - maximizingControls[firstPosition + spaceIndex]);
+			if (change > 0.5 * controlStep) {
+				numberOfChangedControls ++;
 			}
-						
-			time += timeStep;
+			maximumChange = Math.max(maximumChange, change);
+			maximizingControls[firstPosition + spaceIndex] = maximizingControl;
 		}
-		return maximizingControls;
+
+		numberOfChangedControlsAtGivenTime[timeIndex - 1] = numberOfChangedControls;
+		maximumChangeOfControlsAtGivenTime[timeIndex - 1] = maximumChange;
 	}
 
 	/*
-	 * This method computes the approximated first derivative of updatedValueFunction at the point in time and space
-	 * determined by timeIndex and spaceIndex
+	 * This method computes the approximated first derivative of the value function at the point of the space grid determined by spaceIndex,
+	 * for the time whose values start at the given position of the array
 	 */
-	private double computeFirstDerivative(int timeIndex, int spaceIndex) {
+	private double computeFirstDerivative(double[] valueFunction, int position, int spaceIndex) {
 
 		if (spaceIndex == 0) {
-			return (updatedValueFunction[timeIndex][1]-updatedValueFunction[timeIndex][0])/spaceStep;
+			return (valueFunction[position + 1]-valueFunction[position])/spaceStep;
 		} else if (spaceIndex == numberOfSpaceSteps) {
-			return (updatedValueFunction[timeIndex][numberOfSpaceSteps]-updatedValueFunction[timeIndex][numberOfSpaceSteps - 1])/spaceStep;
+			return (valueFunction[position + numberOfSpaceSteps]-valueFunction[position + numberOfSpaceSteps - 1])/spaceStep;
 		}
 		else {
-			return (updatedValueFunction[timeIndex][spaceIndex + 1]-updatedValueFunction[timeIndex ][spaceIndex - 1])/(2*spaceStep);
+			return (valueFunction[position + spaceIndex + 1]-valueFunction[position + spaceIndex - 1])/(2*spaceStep);
 		}
 	}
 	
 	/*
-	 * This method computes the approximated second derivative of updatedValueFunction at the point in time and space
-	 * determined by timeIndex and spaceIndex
+	 * This method computes the approximated second derivative of the value function at the point of the space grid determined by spaceIndex,
+	 * for the time whose values start at the given position of the array
 	 */
-	private double computeSecondDerivative(int timeIndex, int spaceIndex) {
+	private double computeSecondDerivative(double[] valueFunction, int position, int spaceIndex) {
 
 		if (spaceIndex == 0) {
-			return (updatedValueFunction[timeIndex][2]-2*updatedValueFunction[timeIndex][1]+updatedValueFunction[timeIndex][0])/(spaceStep*spaceStep);
+			return (valueFunction[position + 2]-2*valueFunction[position + 1]+valueFunction[position])/(spaceStep*spaceStep);
 
 		} else if (spaceIndex == numberOfSpaceSteps) {
-			return (updatedValueFunction[timeIndex][numberOfSpaceSteps]-2*updatedValueFunction[timeIndex][numberOfSpaceSteps - 1]
-					+updatedValueFunction[timeIndex][numberOfSpaceSteps - 2])/(spaceStep*spaceStep);
+			return (valueFunction[position + numberOfSpaceSteps]-2*valueFunction[position + numberOfSpaceSteps - 1]
+					+valueFunction[position + numberOfSpaceSteps - 2])/(spaceStep*spaceStep);
 		}
 		else {
-			return (updatedValueFunction[timeIndex][spaceIndex + 1]-2*updatedValueFunction[timeIndex][spaceIndex]
-					+updatedValueFunction[timeIndex][spaceIndex - 1])/(spaceStep*spaceStep);
+			return (valueFunction[position + spaceIndex + 1]-2*valueFunction[position + spaceIndex]
+					+valueFunction[position + spaceIndex - 1])/(spaceStep*spaceStep);
 		}
 	}
 	
@@ -255,7 +493,7 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedValueFunction.clone();
+		return updatedValueFunction.toArray();
 	}
 
 	/**
@@ -268,7 +506,7 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedOptimalControl.clone();
+		return updatedOptimalControl.toArray();
 	}
 
 
@@ -286,7 +524,7 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedValueFunction[timeIndex];
+		return updatedValueFunction.getRow(timeIndex);
 	}
 
 	/**
@@ -303,7 +541,7 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedOptimalControl[timeIndex - 1];
+		return updatedOptimalControl.getRow(timeIndex - 1);
 	}
 
 	/**
@@ -322,7 +560,7 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedValueFunction[timeIndex][spaceIndex];
+		return updatedValueFunction.get(timeIndex, spaceIndex);
 	}
 
 	/**
@@ -341,6 +579,118 @@ public class PolicyImprovement {
 		if (updatedValueFunction == null) {
 			computeSolutionAndOptimalControl();
 		}
-		return updatedOptimalControl[timeIndex - 1][spaceIndex];
+		return updatedOptimalControl.get(timeIndex - 1, spaceIndex);
+	}
+
+	/**
+	 * It returns an object which interpolates the value function, linearly in time and with the given method in space. It can be used
+	 * instead of getValueFunctionAtTimeAndSpace when the value function has to be evaluated many times, also outside the grid.
+	 * The time is here meant as time remaining to final time
+	 * @param spaceInterpolation, the method to interpolate in space
+	 * @return an object which interpolates the value function
+	 * @throws Exception
+	 */
+	public SolutionInterpolator getInterpolatedValueFunction(SolutionInterpolator.SpaceInterpolation spaceInterpolation) throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return new SolutionInterpolator(updatedValueFunction, 0.0, timeStep, leftEndSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	/**
+	 * It returns an object which interpolates the optimal control, linearly in time and with the given method in space.
+	 * The time is here meant as time remaining to final time
+	 * @param spaceInterpolation, the method to interpolate in space
+	 * @return an object which interpolates the optimal control
+	 * @throws Exception
+	 */
+	public SolutionInterpolator getInterpolatedOptimalControl(SolutionInterpolator.SpaceInterpolation spaceInterpolation) throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		//the first row of the matrix of the optimal controls is for the first time step
+		return new SolutionInterpolator(updatedOptimalControl, timeStep, timeStep, leftEndSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	/**
+	 * It returns the number of iterations which have been performed, i.e., the number of PDEs which have been solved
+	 *
+	 * @return the number of iterations
+	 * @throws Exception
+	 */
+	public int getNumberOfIterations() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return numberOfIterations;
+	}
+
+	/**
+	 * It returns the time needed by every iteration, in seconds. The first iteration is the solution of the PDE for the initial controls
+	 *
+	 * @return the time needed by every iteration
+	 * @throws Exception
+	 */
+	public double[] getTimesOfIterations() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return Arrays.copyOf(timesOfIterations, numberOfIterations);
+	}
+
+	/**
+	 * It returns, for every iteration, the norm of the difference between the new and the past value function, which is used to stop the
+	 * iterations. It is computed as the maximum sum of the absolute values of the columns of the difference, divided by the number of columns.
+	 * It is Double.NaN for the first iteration
+	 *
+	 * @return the norm of the difference between the new and the past value function for every iteration
+	 * @throws Exception
+	 */
+	public double[] getNormsOfDifferencesOfValueFunction() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return Arrays.copyOf(normsOfDifferencesOfValueFunction, numberOfIterations);
+	}
+
+	/**
+	 * It returns, for every iteration, the maximum absolute difference between the new and the past value function. It is Double.NaN for
+	 * the first iteration
+	 *
+	 * @return the maximum absolute difference between the new and the past value function for every iteration
+	 * @throws Exception
+	 */
+	public double[] getMaximumDifferencesOfValueFunction() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return Arrays.copyOf(maximumDifferencesOfValueFunction, numberOfIterations);
+	}
+
+	/**
+	 * It returns, for every iteration, the fraction of the points of the grid where the control has changed when it has been updated at
+	 * the end of the iteration. Changes which are not bigger than half the control step are not counted
+	 *
+	 * @return the fraction of the points of the grid where the control has changed, for every iteration
+	 * @throws Exception
+	 */
+	public double[] getFractionsOfChangedControls() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return Arrays.copyOf(fractionsOfChangedControls, numberOfIterations);
+	}
+
+	/**
+	 * It returns, for every iteration, the maximum absolute change of the control when it has been updated at the end of the iteration
+	 *
+	 * @return the maximum absolute change of the control, for every iteration
+	 * @throws Exception
+	 */
+	public double[] getMaximumChangesOfControls() throws Exception {
+		if (updatedValueFunction == null) {
+			computeSolutionAndOptimalControl();
+		}
+		return Arrays.copyOf(maximumChangesOfControls, numberOfIterations);
 	}
 }
@@ -0,0 +1,44 @@
+package it.univr.controlleddiffusionprocesses;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * This class finds the maximizing control supposing that the function to maximize is a polynomial of degree at most two in the control.
+ * This is the case for the Hamiltonian of the Policy Improvement Algorithm when the drift b(t,x,a) and the volatility sigma(t,x,a) are
+ * affine in the control and the running reward f(t,x,a) is at most quadratic, as for example in the Merton problem. The function is then
+ * evaluated only at the two ends and at the middle of the control interval, and the maximizing control is computed in closed form: it is
+ * the vertex of the parabola, moved into the control interval, if the parabola is concave, and the best end of the interval otherwise.
+ * If the function is not of this form, the result is in general not the maximizing control.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class QuadraticControlOptimizer implements ControlOptimizer {
+
+	@Override
+	public double getMaximizingControl(DoubleUnaryOperator functionToMaximize, double leftEndControlInterval, double rightEndControlInterval,
+			double controlStep) {
+
+		if (rightEndControlInterval <= leftEndControlInterval) {
+			return leftEndControlInterval;
+		}
+
+		double halfLength = 0.5 * (rightEndControlInterval - leftEndControlInterval);
+		double middlePoint = leftEndControlInterval + halfLength;
+
+		double valueAtLeftEnd = functionToMaximize.applyAsDouble(leftEndControlInterval);
+		double valueAtMiddlePoint = functionToMaximize.applyAsDouble(middlePoint);
+		double valueAtRightEnd = functionToMaximize.applyAsDouble(rightEndControlInterval);
+
+		//the parabola is alpha * (a - middlePoint)^2 + beta * (a - middlePoint) + valueAtMiddlePoint
+		double alpha = (valueAtLeftEnd + valueAtRightEnd - 2 * valueAtMiddlePoint) / (2 * halfLength * halfLength);
+		double beta = (valueAtRightEnd - valueAtLeftEnd) / (2 * halfLength);
+
+		if (alpha < 0) {
+			double vertex = middlePoint - beta / (2 * alpha);
+			return Math.min(Math.max(vertex, leftEndControlInterval), rightEndControlInterval);
+		}
+		//if the parabola is convex or a line, the maximum is at one of the two ends
+		return valueAtRightEnd > valueAtLeftEnd ? rightEndControlInterval : leftEndControlInterval;
+	}
+}
@@ -137,12 +137,9 @@ public abstract class ValueIteration {
 			
 			/*
 			 * We check the maximum absolute difference between the new and the opld value function: if this is smaller than
-			 * requiredPrecision, the loop stops
+			 * requiredPrecision, the loop stops. In the same loop, the old value functions are updated
 			 */
-			differenceBetweenPastAndOldValueFunctions = UsefulMethodsForArrays.getMaxDifference(valueFunctions, oldValueFunctions);
-
-			//update of the old value functions.
-			oldValueFunctions = valueFunctions.clone();
+			differenceBetweenPastAndOldValueFunctions = UsefulMethodsForArrays.getMaxDifferenceAndCopy(valueFunctions, oldValueFunctions);
 		}
 		
 		//the loop is now terminated: we get the optimal actions
@@ -0,0 +1,213 @@
+package it.univr.neuralnetworks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import it.univr.usefulmethodsarrays.DenseMatrix;
+
+/**
+ * This class stores on disk the data generated by BubbleDetectionDataGenerator, so that they are computed only once: when the same data
+ * are needed again, for example in another run of the same experiment or when training networks with different hyperparameters, they
+ * are read from the disk instead of computing again all the prices.
+ *
+ * Every data set is stored in a file in a given directory, whose name is the SHA-256 hash of all the parameters which determine the data:
+ * strikes, maturities, intervals of exponents and displacements, initial value, sigma, number of underlyings and seed. So the file is
+ * found if and only if the same data have already been generated. The file has a header with the number of rows and columns and the
+ * hash itself, then the labels and then the prices, row after row, as doubles. The files are read and written via memory mapping, and
+ * the data are copied from the file directly to the memory of the arrays of Nd4j, without passing through arrays of Java.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BubbleDetectionDataCache {
+
+	//it is written at the beginning of the file, to recognize it. It must be changed if the format or the way of computing the data change
+	private static final int MAGIC_NUMBER = 0x43455631;
+
+	private static final int HASH_LENGTH = 32;
+
+	//magic number, number of rows, number of columns, hash
+	private static final int HEADER_LENGTH = 3 * Integer.BYTES + HASH_LENGTH;
+
+	//a file is mapped in memory in pieces of at most this number of bytes
+	private static final long MAXIMUM_BYTES_PER_MAPPING = 1L << 30;
+
+	private static final String FILE_EXTENSION = ".cev";
+
+	private final Path directory;
+
+	/**
+	 * It constructs an object to store and read the data in a given directory
+	 *
+	 * @param directory, the directory where the files are stored. It is created if it does not exist
+	 */
+	public BubbleDetectionDataCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * It returns a DataSet with the prices and the labels for a given number of true martingales and of strict local martingales, as
+	 * generated by the method generateDataSet of the given BubbleDetectionDataGenerator. If the same data are already stored, they are
+	 * read from the disk; otherwise, they are generated and stored.
+	 *
+	 * @param dataGenerator, the object which generates the data
+	 * @param numberOfStrictLocalAndTrueMartingales, the number of true martingales, which is also the number of strict local martingales
+	 * @param seed, the seed from which the random displacements and exponents are generated
+	 * @return the DataSet whose features are the prices and whose labels are 0 for true martingales and 1 for strict local martingales
+	 * @throws IOException
+	 */
+	public DataSet getDataSet(BubbleDetectionDataGenerator dataGenerator, int numberOfStrictLocalAndTrueMartingales, long seed)
+			throws IOException {
+
+		byte[] hash = getHash(dataGenerator, numberOfStrictLocalAndTrueMartingales, seed);
+		Path file = directory.resolve(toHexadecimal(hash) + FILE_EXTENSION);
+
+		int numberOfRows = 2 * numberOfStrictLocalAndTrueMartingales;
+		int numberOfColumns = dataGenerator.getNumberOfPrices();
+
+		if (!isValid(file, hash, numberOfRows, numberOfColumns)) {
+			DenseMatrix prices = new DenseMatrix(numberOfRows, numberOfColumns);
+			double[] labels = new double[numberOfRows];
+			dataGenerator.generatePricesAndLabels(numberOfStrictLocalAndTrueMartingales, seed, prices, labels);
+			write(file, hash, prices, labels);
+		}
+
+		return read(file, numberOfRows, numberOfColumns);
+	}
+
+	/**
+	 * It returns true if the data for the given parameters are already stored
+	 *
+	 * @param dataGenerator, the object which generates the data
+	 * @param numberOfStrictLocalAndTrueMartingales, the number of true martingales, which is also the number of strict local martingales
+	 * @param seed, the seed from which the random displacements and exponents are generated
+	 * @return true if the data are already stored
+	 * @throws IOException
+	 */
+	public boolean contains(BubbleDetectionDataGenerator dataGenerator, int numberOfStrictLocalAndTrueMartingales, long seed)
+			throws IOException {
+		byte[] hash = getHash(dataGenerator, numberOfStrictLocalAndTrueMartingales, seed);
+		return isValid(directory.resolve(toHexadecimal(hash) + FILE_EXTENSION), hash, 2 * numberOfStrictLocalAndTrueMartingales,
+				dataGenerator.getNumberOfPrices());
+	}
+
+	private static byte[] getHash(BubbleDetectionDataGenerator dataGenerator, int numberOfStrictLocalAndTrueMartingales, long seed) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC_NUMBER).array());
+			return digest.digest(dataGenerator.getParametersAsBytes(numberOfStrictLocalAndTrueMartingales, seed));
+		} catch (NoSuchAlgorithmException e) {
+			//every implementation of the Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHexadecimal(byte[] bytes) {
+		StringBuilder hexadecimal = new StringBuilder(2 * bytes.length);
+		for (byte singleByte : bytes) {
+			hexadecimal.append(String.format("%02x", singleByte));
+		}
+		return hexadecimal.toString();
+	}
+
+	//it checks that the file exists, that it has the expected header and that it is long enough
+	private static boolean isValid(Path file, byte[] hash, int numberOfRows, int numberOfColumns) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() != getFileLength(numberOfRows, numberOfColumns)) {
+				return false;
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+			int magicNumberInFile = header.getInt();
+			int numberOfRowsInFile = header.getInt();
+			int numberOfColumnsInFile = header.getInt();
+			byte[] hashInFile = new byte[HASH_LENGTH];
+			header.get(hashInFile);
+			return magicNumberInFile == MAGIC_NUMBER && numberOfRowsInFile == numberOfRows && numberOfColumnsInFile == numberOfColumns
+					&& Arrays.equals(hash, hashInFile);
+		}
+	}
+
+	private static long getFileLength(int numberOfRows, int numberOfColumns) {
+		return HEADER_LENGTH + (long) Double.BYTES * numberOfRows * (1 + numberOfColumns);
+	}
+
+	/*
+	 * The data are first written in a temporary file, which is then renamed: in this way, the file with the final name is always
+	 * complete, even if the program stops while writing or if another program is writing the same data
+	 */
+	private void write(Path file, byte[] hash, DenseMatrix prices, double[] labels) throws IOException {
+		Files.createDirectories(directory);
+		Path temporaryFile = Files.createTempFile(directory, "incomplete", FILE_EXTENSION);
+		try {
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+				header.putInt(MAGIC_NUMBER).putInt(prices.getNumberOfRows()).putInt(prices.getNumberOfColumns()).put(hash);
+
+				long position = HEADER_LENGTH;
+				position = transfer(channel, FileChannel.MapMode.READ_WRITE, position, DoubleBuffer.wrap(labels), true);
+				transfer(channel, FileChannel.MapMode.READ_WRITE, position, prices.getAsDoubleBuffer(), true);
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	private static DataSet read(Path file, int numberOfRows, int numberOfColumns) throws IOException {
+		INDArray pricesData = Nd4j.create(DataType.DOUBLE, numberOfRows, numberOfColumns);
+		//the labels are a matrix with only one column, to make it compatible with the output of the network
+		INDArray labelsData = Nd4j.create(DataType.DOUBLE, numberOfRows, 1);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long position = HEADER_LENGTH;
+			//asNioDouble() gives the memory of the arrays of Nd4j, outside the heap
+			position = transfer(channel, FileChannel.MapMode.READ_ONLY, position, labelsData.data().asNioDouble(), false);
+			transfer(channel, FileChannel.MapMode.READ_ONLY, position, pricesData.data().asNioDouble(), false);
+		}
+
+		return new DataSet(pricesData, labelsData);
+	}
+
+	/*
+	 * It maps the part of the file starting from position, in pieces of at most MAXIMUM_BYTES_PER_MAPPING bytes, and copies the doubles of
+	 * the buffer in the file if toFile is true, or the doubles of the file in the buffer otherwise. It returns the position after the
+	 * last double
+	 */
+	private static long transfer(FileChannel channel, FileChannel.MapMode mode, long position, DoubleBuffer buffer, boolean toFile)
+			throws IOException {
+		long maximumDoublesPerMapping = MAXIMUM_BYTES_PER_MAPPING / Double.BYTES;
+		while (buffer.hasRemaining()) {
+			int numberOfDoubles = (int) Math.min(buffer.remaining(), maximumDoublesPerMapping);
+			DoubleBuffer mappedDoubles = channel.map(mode, position, (long) numberOfDoubles * Double.BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			DoubleBuffer piece = buffer.slice().limit(numberOfDoubles);
+			if (toFile) {
+				mappedDoubles.put(piece);
+			} else {
+				piece.put(mappedDoubles);
+			}
+			buffer.position(buffer.position() + numberOfDoubles);
+			position += (long) numberOfDoubles * Double.BYTES;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,209 @@
+package it.univr.neuralnetworks;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import it.univr.cevprices.CevPrices;
+import it.univr.usefulmethodsarrays.DenseMatrix;
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+
+/**
+ * This class generates the data to train and test a neural network which has to learn if an underlying process is a strict local
+ * martingale (i.e., if it has a financial bubble) or a true martingale (i.e., it has no bubble) based on the call prices it generates.
+ * The underlyings are displaced CEV processes
+ *
+ * dX_t = sigma (X_t + d)^beta dW_t,
+ * X_0 = x_0,
+ *
+ * where d and beta are uniformly distributed in intervals given by the user: the interval of beta is different for true martingales
+ * (beta smaller or equal than one) and strict local martingales (beta bigger than one). Every row of the data has the prices generated
+ * by one underlying for all the combinations of given strikes and maturities: the price for the maturity of index i and the strike of
+ * index j is at position i * numberOfStrikes + j of the row. Rows with even indices have the prices generated by true martingales,
+ * with label 0, rows with odd indices the ones generated by strict local martingales, with label 1.
+ *
+ * The rows are computed in parallel. The random displacements and exponents of the pair of rows of index k are generated by a
+ * SplittableRandom object whose seed only depends on the seed given by the user and on k, so the data are the same for any number
+ * of threads and any order in which the rows are computed. All the prices are written in one array, row after row, which is
+ * then given to Nd4j as it is, without passing through a matrix double[][].
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BubbleDetectionDataGenerator {
+
+	private final double initialValue;
+	private final double sigma;
+
+	private final double[] strikes;
+	private final double[] maturities;
+
+	//the interval where we generate the random exponents for the true martingales
+	private final double exponentSmallTrueMartingale;
+	private final double exponentsRangeTrueMartingale;
+
+	//the interval where we generate the random exponents for the strict local martingales
+	private final double exponentSmallStrictLocalMartingale;
+	private final double exponentsRangeStrictLocalMartingale;
+
+	//the interval where we generate the random displacements for both true martingales and strict local martingales
+	private final double displacementSmall;
+	private final double displacementsRange;
+
+	/**
+	 * It constructs an object to generate the prices and the labels to train and test the network
+	 *
+	 * @param initialValue, the initial value x_0 of the underlyings
+	 * @param sigma, the volatility parameter of the underlyings
+	 * @param strikes, the strikes of the calls
+	 * @param maturities, the maturities of the calls
+	 * @param exponentSmallTrueMartingale, the left end of the interval of the exponents for the true martingales
+	 * @param exponentBigTrueMartingale, the right end of the interval of the exponents for the true martingales. It must be smaller or equal
+	 * 		  than one
+	 * @param exponentSmallStrictLocalMartingale, the left end of the interval of the exponents for the strict local martingales. It must be
+	 * 		  bigger than one
+	 * @param exponentBigStrictLocalMartingale, the right end of the interval of the exponents for the strict local martingales
+	 * @param displacementSmall, the left end of the interval of the displacements
+	 * @param displacementBig, the right end of the interval of the displacements
+	 */
+	public BubbleDetectionDataGenerator(double initialValue, double sigma, double[] strikes, double[] maturities,
+			double exponentSmallTrueMartingale, double exponentBigTrueMartingale, double exponentSmallStrictLocalMartingale,
+			double exponentBigStrictLocalMartingale, double displacementSmall, double displacementBig) {
+		if (exponentBigTrueMartingale > 1 || exponentSmallStrictLocalMartingale <= 1) {
+			throw new IllegalArgumentException("The exponents of the true martingales must be smaller or equal than one, the ones "
+					+ "of the strict local martingales bigger than one");
+		}
+		this.initialValue = initialValue;
+		this.sigma = sigma;
+		this.strikes = strikes.clone();
+		this.maturities = maturities.clone();
+		this.exponentSmallTrueMartingale = exponentSmallTrueMartingale;
+		this.exponentsRangeTrueMartingale = exponentBigTrueMartingale - exponentSmallTrueMartingale;
+		this.exponentSmallStrictLocalMartingale = exponentSmallStrictLocalMartingale;
+		this.exponentsRangeStrictLocalMartingale = exponentBigStrictLocalMartingale - exponentSmallStrictLocalMartingale;
+		this.displacementSmall = displacementSmall;
+		this.displacementsRange = displacementBig - displacementSmall;
+	}
+
+	/**
+	 * It returns the number of prices generated by every underlying, which is the number of inputs of the network
+	 *
+	 * @return the number of prices generated by every underlying
+	 */
+	public int getNumberOfPrices() {
+		return strikes.length * maturities.length;
+	}
+
+	/**
+	 * It computes the prices and the labels for a given number of true martingales and of strict local martingales, and writes them in
+	 * given objects. The rows 2k and 2k + 1 only depend on seed and k.
+	 *
+	 * @param numberOfStrictLocalAndTrueMartingales, the number of true martingales, which is also the number of strict local martingales
+	 * @param seed, the seed from which the random displacements and exponents are generated
+	 * @param prices, the matrix where the prices are written. It must have 2 * numberOfStrictLocalAndTrueMartingales rows and
+	 * 		  getNumberOfPrices() columns
+	 * @param labels, the array where the labels are written. It must have 2 * numberOfStrictLocalAndTrueMartingales elements
+	 */
+	public void generatePricesAndLabels(int numberOfStrictLocalAndTrueMartingales, long seed, DenseMatrix prices, double[] labels) {
+
+		if (prices.getNumberOfRows() != 2 * numberOfStrictLocalAndTrueMartingales || prices.getNumberOfColumns() != getNumberOfPrices()
+				|| labels.length != 2 * numberOfStrictLocalAndTrueMartingales) {
+			throw new IllegalArgumentException("The dimensions of prices and labels do not match the number of underlyings and prices");
+		}
+
+		double[] pricesData = prices.getData();
+
+		IntStream.range(0, numberOfStrictLocalAndTrueMartingales).parallel().forEach(pairIndex -> {
+
+			SplittableRandom randomGenerator = new SplittableRandom(UsefulMethodsForArrays.getSeedForIndex(seed, pairIndex));
+
+			//generations of exponents in the intervals of true martingales and strict local martingales, respectively
+			double exponentTrueMartingale = exponentSmallTrueMartingale + exponentsRangeTrueMartingale * randomGenerator.nextDouble();
+			double exponentStrictLocalMartingale = exponentSmallStrictLocalMartingale
+					+ exponentsRangeStrictLocalMartingale * randomGenerator.nextDouble();
+
+			//generations of displacements for the true martingale and the strict local martingale, respectively (same interval, different generation)
+			double displacementTrueMartingale = displacementSmall + displacementsRange * randomGenerator.nextDouble();
+			double displacementStrictLocalMartingale = displacementSmall + displacementsRange * randomGenerator.nextDouble();
+
+			//the strikes plus the displacement of the model for which the prices are computed
+			double[] displacedStrikes = new double[strikes.length];
+
+			//the prices are written directly in the array of the matrix, at the position of their rows
+			computeDisplacedStrikes(displacementTrueMartingale, displacedStrikes);
+			CevPrices.CEVPricesCallForExponentSmallerEqualOne(initialValue + displacementTrueMartingale, sigma, exponentTrueMartingale,
+					maturities, displacedStrikes, pricesData, prices.getPositionOfRow(2 * pairIndex));
+
+			computeDisplacedStrikes(displacementStrictLocalMartingale, displacedStrikes);
+			CevPrices.CEVPricesCallForExponentBiggerThanOne(initialValue + displacementStrictLocalMartingale, sigma, exponentStrictLocalMartingale,
+					maturities, displacedStrikes, pricesData, prices.getPositionOfRow(2 * pairIndex + 1));
+
+			labels[2 * pairIndex] = 0;
+			labels[2 * pairIndex + 1] = 1;
+		});
+	}
+
+	/**
+	 * It returns a DataSet with the prices and the labels for a given number of true martingales and of strict local martingales. The
+	 * rows 2k and 2k + 1 only depend on seed and k.
+	 *
+	 * @param numberOfStrictLocalAndTrueMartingales, the number of true martingales, which is also the number of strict local martingales
+	 * @param seed, the seed from which the random displacements and exponents are generated
+	 * @return the DataSet whose features are the prices and whose labels are 0 for true martingales and 1 for strict local martingales
+	 */
+	public DataSet generateDataSet(int numberOfStrictLocalAndTrueMartingales, long seed) {
+
+		int numberOfRows = 2 * numberOfStrictLocalAndTrueMartingales;
+
+		DenseMatrix prices = new DenseMatrix(numberOfRows, getNumberOfPrices());
+		double[] labels = new double[numberOfRows];
+
+		generatePricesAndLabels(numberOfStrictLocalAndTrueMartingales, seed, prices, labels);
+
+		//the arrays are given as they are, in the same order of the elements ('c' means row after row)
+		INDArray pricesData = Nd4j.create(prices.getData(), new long[] {numberOfRows, getNumberOfPrices()}, 'c');
+		//the labels are a matrix with only one column, to make it compatible with the output of the network
+		INDArray labelsData = Nd4j.create(labels, new long[] {numberOfRows, 1}, 'c');
+
+		return new DataSet(pricesData, labelsData);
+	}
+
+	/**
+	 * It returns all the parameters which determine the data generated for a given number of underlyings and a given seed, written in
+	 * an array of bytes: the data are the same if and only if these bytes are the same. It is used to identify the data in
+	 * BubbleDetectionDataCache.
+	 *
+	 * @param numberOfStrictLocalAndTrueMartingales, the number of true martingales, which is also the number of strict local martingales
+	 * @param seed, the seed from which the random displacements and exponents are generated
+	 * @return the parameters which determine the data, written in an array of bytes
+	 */
+	byte[] getParametersAsBytes(int numberOfStrictLocalAndTrueMartingales, long seed) {
+		ByteBuffer parameters = ByteBuffer.allocate(Integer.BYTES * 3 + Long.BYTES
+				+ Double.BYTES * (8 + strikes.length + maturities.length));
+		parameters.putInt(numberOfStrictLocalAndTrueMartingales).putLong(seed);
+		parameters.putDouble(initialValue).putDouble(sigma);
+		parameters.putDouble(exponentSmallTrueMartingale).putDouble(exponentsRangeTrueMartingale);
+		parameters.putDouble(exponentSmallStrictLocalMartingale).putDouble(exponentsRangeStrictLocalMartingale);
+		parameters.putDouble(displacementSmall).putDouble(displacementsRange);
+		parameters.putInt(strikes.length);
+		for (double strike : strikes) {
+			parameters.putDouble(strike);
+		}
+		parameters.putInt(maturities.length);
+		for (double maturity : maturities) {
+			parameters.putDouble(maturity);
+		}
+		return parameters.array();
+	}
+
+	//it writes in displacedStrikes the strikes plus the displacement
+	private void computeDisplacedStrikes(double displacement, double[] displacedStrikes) {
+		for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+			displacedStrikes[strikeIndex] = strikes[strikeIndex] + displacement;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package it.univr.neuralnetworks;
+
+import java.util.List;
+
+import org.deeplearning4j.datasets.iterator.utilty.ListDataSetIterator;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.ParallelWrapper;
+import org.nd4j.linalg.dataset.AsyncDataSetIterator;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * This class trains a network, as the one constructed in NeuralNetworksForBubbleDetection, by mini-batches: at every epoch, the rows of
+ * the training data are shuffled and divided in batches of given size, and the parameters of the network are updated after every
+ * batch. In this way, there are many updates per epoch instead of one, every update is cheaper, and the noise given by the random
+ * batches helps to avoid bad local minima.
+ *
+ * The batches are given to the network by an AsyncDataSetIterator, which prepares the next ones in another thread while the network is
+ * trained on the current one. If more than one worker is asked, the training is done by a ParallelWrapper: every worker has a copy of
+ * the network and is trained on different batches, and the parameters of the copies are averaged after a given number of batches.
+ * With one worker, the results only depend on the seeds of the network and of the shuffling; with more workers, they also depend on
+ * the order in which the threads take the batches.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BubbleDetectionTrainer {
+
+	private final int batchSize;
+	private final long seedForShuffling;
+	private final int numberOfPrefetchedBatches;
+	private final int numberOfWorkers;
+	private final int averagingFrequency;
+
+	/**
+	 * It constructs an object to train networks by mini-batches
+	 *
+	 * @param batchSize, the number of rows of the training data in every batch
+	 * @param seedForShuffling, the seed from which the rows are shuffled at every epoch
+	 * @param numberOfPrefetchedBatches, the number of batches prepared in advance by the iterator
+	 * @param numberOfWorkers, the number of copies of the network trained in parallel. If it is one, no ParallelWrapper is used
+	 * @param averagingFrequency, the number of batches after which the parameters of the copies are averaged, when there is more than one
+	 * 		  worker
+	 */
+	public BubbleDetectionTrainer(int batchSize, long seedForShuffling, int numberOfPrefetchedBatches, int numberOfWorkers,
+			int averagingFrequency) {
+		if (batchSize < 1 || numberOfPrefetchedBatches < 1 || numberOfWorkers < 1 || averagingFrequency < 1) {
+			throw new IllegalArgumentException("The batch size, the number of prefetched batches, the number of workers and the averaging "
+					+ "frequency must be positive");
+		}
+		this.batchSize = batchSize;
+		this.seedForShuffling = seedForShuffling;
+		this.numberOfPrefetchedBatches = numberOfPrefetchedBatches;
+		this.numberOfWorkers = numberOfWorkers;
+		this.averagingFrequency = averagingFrequency;
+	}
+
+	/**
+	 * It trains a network for a given number of epochs. The rows of the training data are shuffled in place: their order changes.
+	 *
+	 * @param network, the network to be trained. It must be initialized
+	 * @param trainingData, the data on which the network is trained
+	 * @param numberOfEpochs, the number of times the network is trained on all the data
+	 */
+	public void train(MultiLayerNetwork network, DataSet trainingData, int numberOfEpochs) {
+
+		ParallelWrapper parallelWrapper = numberOfWorkers > 1 ? new ParallelWrapper.Builder<>(network)
+				.workers(numberOfWorkers)
+				.prefetchBuffer(numberOfPrefetchedBatches)
+				.averagingFrequency(averagingFrequency)
+				.reportScoreAfterAveraging(true)
+				.build() : null;
+
+		try {
+			for (int epoch = 0; epoch < numberOfEpochs; epoch++) {
+
+				//a different order at every epoch, always the same for a given seed
+				trainingData.shuffle(seedForShuffling + epoch);
+				List<DataSet> batches = trainingData.batchBy(batchSize);
+				//every element of the list is already a batch, so the iterator gives one element at a time
+				DataSetIterator batchesIterator = new ListDataSetIterator<>(batches, 1);
+
+				if (parallelWrapper != null) {
+					//the ParallelWrapper prefetches the batches by itself
+					parallelWrapper.fit(batchesIterator);
+				} else {
+					network.fit(new AsyncDataSetIterator(batchesIterator, numberOfPrefetchedBatches));
+				}
+			}
+		} finally {
+			if (parallelWrapper != null) {
+				parallelWrapper.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package it.univr.neuralnetworks;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * This class uses a trained network, as the one constructed in NeuralNetworksForBubbleDetection, to give the probabilities that the
+ * underlyings which have generated given call prices are strict local martingales, i.e., that they have a bubble. The network is given
+ * (or read from a file) only once, and then the prices can be given many times, for example as they arrive from a market data feed.
+ *
+ * The prices of one underlying, called a surface, are given as in BubbleDetectionDataGenerator: the price for the maturity of index i
+ * and the strike of index j is at position i * numberOfStrikes + j. More surfaces can be given together, one after the other in the same
+ * array: they are given to the network in batches of at most maximumBatchSize surfaces. The input of the network is always written in
+ * the same INDArray, allocated in the constructor, and its output is computed in a workspace of Nd4j, whose memory is reused at every
+ * batch: so nothing is allocated when the probabilities are computed, apart from the first batches.
+ *
+ * The object also counts the number of batches and surfaces it has evaluated and the time spent in doing that, from which the
+ * throughput and the latency of a batch are given.
+ *
+ * The methods which compute the probabilities can be called from different threads, but they are executed one at a time, since the
+ * input array and the workspace are shared.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class BubbleDetector {
+
+	private static final String OUTPUT_WORKSPACE_ID = "BUBBLE_DETECTOR_OUTPUT";
+
+	/*
+	 * The memory of the workspace is learned in the first batch and then reused: when a bigger batch needs more memory, it is allocated
+	 * again
+	 */
+	private static final WorkspaceConfiguration OUTPUT_WORKSPACE_CONFIGURATION = WorkspaceConfiguration.builder()
+			.initialSize(0)
+			.policyLearning(LearningPolicy.FIRST_LOOP)
+			.policyAllocation(AllocationPolicy.OVERALLOCATE)
+			.build();
+
+	private final MultiLayerNetwork network;
+
+	//it transforms the prices before they are given to the network, in the same way as in the training. It can be null
+	private final DataNormalization normalizer;
+
+	private final int numberOfPrices;
+	private final int maximumBatchSize;
+
+	//the input of the network, with maximumBatchSize rows: for smaller batches, only the first rows are used
+	private final INDArray input;
+
+	private final AtomicLong numberOfBatches = new AtomicLong();
+	private final AtomicLong numberOfSurfaces = new AtomicLong();
+	private final AtomicLong totalTimeInNanoseconds = new AtomicLong();
+	private final AtomicLong maximumTimeInNanoseconds = new AtomicLong();
+
+	/**
+	 * It constructs an object which gives the bubble probabilities computed by a given trained network, whose inputs have been
+	 * normalized by a given normalizer in the training
+	 *
+	 * @param network, the trained network. Its input must be the prices of one surface, and its output the probability of a bubble
+	 * @param normalizer, the normalizer of the inputs of the network. It can be null, if the prices are given to the network as they are
+	 * @param maximumBatchSize, the maximum number of surfaces given together to the network
+	 */
+	public BubbleDetector(MultiLayerNetwork network, DataNormalization normalizer, int maximumBatchSize) {
+		if (maximumBatchSize < 1) {
+			throw new IllegalArgumentException("The maximum batch size must be positive");
+		}
+		this.network = network;
+		this.normalizer = normalizer;
+		this.numberOfPrices = network.layerInputSize(0);
+		this.maximumBatchSize = maximumBatchSize;
+		//the same data type of the parameters of the network, so that the input is not converted at every batch
+		this.input = Nd4j.create(network.getLayerWiseConfigurations().getDataType(), maximumBatchSize, numberOfPrices);
+	}
+
+	/**
+	 * It constructs an object which gives the bubble probabilities computed by a given trained network
+	 *
+	 * @param network, the trained network. Its input must be the prices of one surface, and its output the probability of a bubble
+	 * @param maximumBatchSize, the maximum number of surfaces given together to the network
+	 */
+	public BubbleDetector(MultiLayerNetwork network, int maximumBatchSize) {
+		this(network, null, maximumBatchSize);
+	}
+
+	/**
+	 * It constructs an object which gives the bubble probabilities computed by the trained network stored by a ModelCheckpoint, with
+	 * the normalizer of its inputs if it has been stored together with the network
+	 *
+	 * @param checkpoint, the object which has stored the network
+	 * @param maximumBatchSize, the maximum number of surfaces given together to the network
+	 * @throws IOException
+	 */
+	public BubbleDetector(ModelCheckpoint checkpoint, int maximumBatchSize) throws IOException {
+		this(checkpoint.loadMultiLayerNetwork(), checkpoint.loadNormalizer(), maximumBatchSize);
+	}
+
+	/**
+	 * It computes the probabilities that the underlyings which have generated given surfaces of prices are strict local martingales, and
+	 * writes them in a given array
+	 *
+	 * @param prices, the array with the surfaces, one after the other
+	 * @param firstPosition, the position of prices where the first surface starts
+	 * @param numberOfSurfaces, the number of surfaces
+	 * @param probabilities, the array where the probabilities are written
+	 * @param firstPositionOfProbabilities, the position of probabilities where the probability for the first surface is written
+	 */
+	public synchronized void computeBubbleProbabilities(double[] prices, int firstPosition, int numberOfSurfaces, double[] probabilities,
+			int firstPositionOfProbabilities) {
+
+		if (firstPosition + (long) numberOfSurfaces * numberOfPrices > prices.length
+				|| firstPositionOfProbabilities + numberOfSurfaces > probabilities.length) {
+			throw new IllegalArgumentException("The arrays are too short for the given number of surfaces");
+		}
+
+		for (int firstSurface = 0; firstSurface < numberOfSurfaces; firstSurface += maximumBatchSize) {
+			int batchSize = Math.min(maximumBatchSize, numberOfSurfaces - firstSurface);
+			computeBatch(prices, firstPosition + firstSurface * numberOfPrices, batchSize, probabilities,
+					firstPositionOfProbabilities + firstSurface);
+		}
+	}
+
+	/**
+	 * It returns the probability that the underlying which has generated a given surface of prices is a strict local martingale
+	 *
+	 * @param prices, the prices of the surface
+	 * @return the probability that the underlying is a strict local martingale
+	 */
+	public double getBubbleProbability(double[] prices) {
+		double[] probability = new double[1];
+		computeBubbleProbabilities(prices, 0, 1, probability, 0);
+		return probability[0];
+	}
+
+	private void computeBatch(double[] prices, int firstPosition, int batchSize, double[] probabilities, int firstPositionOfProbabilities) {
+
+		long startTime = System.nanoTime();
+
+		int numberOfInputs = batchSize * numberOfPrices;
+		//the rows of the input are contiguous, so the first batchSize rows are the first numberOfInputs elements of its memory
+		if (input.dataType() == DataType.DOUBLE) {
+			DoubleBuffer inputBuffer = input.data().asNioDouble();
+			inputBuffer.put(prices, firstPosition, numberOfInputs);
+		} else {
+			FloatBuffer inputBuffer = input.data().asNioFloat();
+			for (int i = 0; i < numberOfInputs; i++) {
+				inputBuffer.put(i, (float) prices[firstPosition + i]);
+			}
+		}
+
+		INDArray batchInput = batchSize == maximumBatchSize ? input
+				: input.get(NDArrayIndex.interval(0, batchSize), NDArrayIndex.all());
+
+		if (normalizer != null) {
+			//the input is transformed in place
+			normalizer.transform(batchInput);
+		}
+
+		try (MemoryWorkspace outputWorkspace = Nd4j.getWorkspaceManager().getAndActivateWorkspace(OUTPUT_WORKSPACE_CONFIGURATION,
+				OUTPUT_WORKSPACE_ID)) {
+			INDArray output = network.output(batchInput, false, null, null, outputWorkspace);
+			for (int i = 0; i < batchSize; i++) {
+				probabilities[firstPositionOfProbabilities + i] = output.getDouble(i, 0);
+			}
+		}
+
+		long elapsedTime = System.nanoTime() - startTime;
+		numberOfBatches.incrementAndGet();
+		numberOfSurfaces.addAndGet(batchSize);
+		totalTimeInNanoseconds.addAndGet(elapsedTime);
+		maximumTimeInNanoseconds.accumulateAndGet(elapsedTime, Math::max);
+	}
+
+	/**
+	 * It returns the number of batches given to the network since the construction of the object or the last call of resetCounters()
+	 *
+	 * @return the number of batches given to the network
+	 */
+	public long getNumberOfBatches() {
+		return numberOfBatches.get();
+	}
+
+	/**
+	 * It returns the number of surfaces evaluated since the construction of the object or the last call of resetCounters()
+	 *
+	 * @return the number of surfaces evaluated
+	 */
+	public long getNumberOfSurfaces() {
+		return numberOfSurfaces.get();
+	}
+
+	/**
+	 * It returns the number of surfaces evaluated per second, considering only the time spent in the evaluation of the batches
+	 *
+	 * @return the number of surfaces evaluated per second
+	 */
+	public double getThroughput() {
+		long totalTime = totalTimeInNanoseconds.get();
+		return totalTime == 0 ? 0.0 : numberOfSurfaces.get() * 1E9 / totalTime;
+	}
+
+	/**
+	 * It returns the average time in milliseconds needed to evaluate a batch, from when the prices are given to when the probabilities
+	 * are written
+	 *
+	 * @return the average latency of a batch in milliseconds
+	 */
+	public double getAverageLatency() {
+		long batches = numberOfBatches.get();
+		return batches == 0 ? 0.0 : totalTimeInNanoseconds.get() / 1E6 / batches;
+	}
+
+	/**
+	 * It returns the maximum time in milliseconds needed to evaluate a batch
+	 *
+	 * @return the maximum latency of a batch in milliseconds
+	 */
+	public double getMaximumLatency() {
+		return maximumTimeInNanoseconds.get() / 1E6;
+	}
+
+	/**
+	 * It sets all the counters to zero
+	 */
+	public void resetCounters() {
+		numberOfBatches.set(0);
+		numberOfSurfaces.set(0);
+		totalTimeInNanoseconds.set(0);
+		maximumTimeInNanoseconds.set(0);
+	}
+
+	/**
+	 * It returns the number of prices of one surface, i.e., the number of inputs of the network
+	 *
+	 * @return the number of prices of one surface
+	 */
+	public int getNumberOfPrices() {
+		return numberOfPrices;
+	}
+}
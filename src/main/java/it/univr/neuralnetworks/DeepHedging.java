@@ -1,5 +1,7 @@
 package it.univr.neuralnetworks;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,6 +38,10 @@ import net.finmath.time.TimeDiscretization;
  * The class has then a public method that makes the user specify a number of trajectories simulated with a different seed
  * with respect to the one used for the training set. The final portfolio values for those trajectories based on
  * the strategies learnt by the network and applied to the new trajectories are then returned.
+ * If a directory is given in the constructor, the trained network is stored there by a ModelCheckpoint, in a file whose name depends on
+ * the configuration of the network, on the number of epochs and on the training data: when an object is constructed again with the same
+ * directory and the same parameters, the network is read from the file the first time it is needed, instead of being constructed and
+ * trained again. Its training can also be continued, for example with new epochs.
  * 
  * @author Andrea Mazzon
  *
@@ -70,6 +76,12 @@ public class DeepHedging {
 	private double strike;
 	private double optionPrice;
 
+	//the directory where the trained networks are stored. It is null if the network is not stored
+	private Path checkpointDirectory;
+
+	//the data to train the network: they are constructed only once, the first time they are needed
+	private MultiDataSet dataSetTrain;
+
 
 	/**
 	 * It constructs an object to get an optimal hedging strategy via neural networks
@@ -92,6 +104,8 @@ public class DeepHedging {
 		this.numberOfNodesForFirstLayer = numberOfNodesForFirstLayer;
 		this.numberOfNodesForSecondLayer = numberOfNodesForSecondLayer;
 		this.numberOfEpochs = numberOfEpochs;
+		this.learningRate = learningRate;
+		this.seedForNetwork = seedForNetwork;
 
 		this.strike = strike;
 		this.optionPrice = optionPrice;	
@@ -104,10 +118,34 @@ public class DeepHedging {
 
 	}
 
+	/**
+	 * It constructs an object to get an optimal hedging strategy via neural networks, which stores the trained network in a given
+	 * directory. If the directory already contains a network with the same configuration, trained for the same number of epochs on the
+	 * same trajectories, this is read instead of being trained.
+	 * 
+	 * @param pricesGenerator: AssetModelMonteCarloSimulationModel object to generate trajectories to train the network.
+	 * A clone with modified number of trajectories and seed is used to get the test values
+	 * @param numberOfNodesForFirstLayer: the number of nodes given to the first layer of the sub-networks, every time 
+	 * @param numberOfNodesForSecondLayer: the number of nodes given to the second layer of the sub-networks, every time 
+	 * @param numberOfEpochs: the number of epochs to train the big network
+	 * @param learningRate: the learning rate to train the big network
+	 * @param strike: the strike of the option
+	 * @param optionPrice: the price for which the option is sold
+	 * @param seedForNetwork: the seed to train the network (we use the Adam algorithm, which involves some stochasticity)
+	 * @param checkpointDirectory: the directory where the trained network is stored
+	 */
+	public DeepHedging(AssetModelMonteCarloSimulationModel pricesGenerator, int numberOfNodesForFirstLayer,
+			int numberOfNodesForSecondLayer, int numberOfEpochs, double learningRate, double strike, double optionPrice, int seedForNetwork,
+			Path checkpointDirectory) {
+		this(pricesGenerator, numberOfNodesForFirstLayer, numberOfNodesForSecondLayer, numberOfEpochs, learningRate, strike, optionPrice,
+				seedForNetwork);
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
 
 	
-	// In this method, we construct the big network as the "union" of sub-neural networks
-	private void constructNetwork() {
+	// In this method, we construct the configuration of the big network as the "union" of sub-neural networks
+	private ComputationGraphConfiguration constructConfiguration() {
 		
 		/*
 		 * Here we specify that our network will be trained using the Adam algorithm as updater to find the optimal parameters,
@@ -166,7 +204,7 @@ public class DeepHedging {
 		 * We will then have as many different inputs as the number of times we call the method addInputs in the
 		 * network construction. For any different input, as many values will be given as the size of the training set.
 		 * The order with which we give the different inputs must be the same as the one with which we call the corresponding
-		 * methods. See what we do in the construction of inputsArrayTrain in the trainNetwork() method.
+		 * methods. See what we do in the construction of inputsArrayTrain in the getDataSetTrain() method.
 		 * 
 		 */
 		
@@ -265,10 +303,14 @@ public class DeepHedging {
 				.nIn(1).nOut(1).activation(new ActivationIdentity()).constrainAllParameters().build(), "finalPortfolioValue")
 		.setOutputs("finalOutput");
 
-		//little technical thing: how to construct a true network out of a configuration
-		
-		ComputationGraphConfiguration configuration = builder.build();
+		return builder.build();
+	}
+
 
+	// In this method, we construct the big network out of its configuration
+	private void constructNetwork(ComputationGraphConfiguration configuration) {
+
+		//little technical thing: how to construct a true network out of a configuration
 		network = new ComputationGraph(configuration);
 		network.init();
 
@@ -287,8 +329,77 @@ public class DeepHedging {
 	}
 
 	
-	 // In this method, we create an object of type MultiDataSet and we use it to train the network 
-	private void trainNetwork() throws CalculationException {
+	/*
+	 * In this method we get the network the first time it is needed: if it has already been stored, it is read from the file, together
+	 * with the state of the Adam algorithm. Otherwise, it is constructed, trained and, if a directory is given, stored.
+	 */
+	private void getNetworkIfNeeded() throws CalculationException, IOException {
+		if (network != null) {
+			return;
+		}
+		ComputationGraphConfiguration configuration = constructConfiguration();
+		ModelCheckpoint checkpoint = getCheckpoint(configuration);
+		if (checkpoint != null && checkpoint.exists()) {
+			network = checkpoint.loadComputationGraph();
+			return;
+		}
+		constructNetwork(configuration);
+		trainNetwork(numberOfEpochs);
+		if (checkpoint != null) {
+			checkpoint.save(network);
+		}
+	}
+
+	/*
+	 * It returns the object which stores the network trained for numberOfEpochs epochs, or null if no directory is given. The name of
+	 * the file depends on the configuration of the network (layers, learning rate, seed, strike and option price), on the number of
+	 * epochs and on the trajectories used for the training. The configuration must be a new one, since the one of a trained network
+	 * also contains the number of epochs done.
+	 */
+	private ModelCheckpoint getCheckpoint(ComputationGraphConfiguration configuration) throws CalculationException {
+		if (checkpointDirectory == null) {
+			return null;
+		}
+		return new ModelCheckpoint(checkpointDirectory, configuration.toJson() + "\nnumberOfEpochs=" + numberOfEpochs,
+				getDataSetTrain().getFeatures());
+	}
+
+	/**
+	 * This method continues the training of the network for a given number of epochs, with the same training data. If a directory is
+	 * given, the network is then stored as the one trained for the total number of epochs: an object constructed with this number of
+	 * epochs will read it.
+	 * 
+	 * @param numberOfAdditionalEpochs, the number of epochs for which the network is trained further
+	 * @throws CalculationException
+	 * @throws IOException
+	 */
+	public void continueTraining(int numberOfAdditionalEpochs) throws CalculationException, IOException {
+		getNetworkIfNeeded();
+		trainNetwork(numberOfAdditionalEpochs);
+		numberOfEpochs += numberOfAdditionalEpochs;
+		ModelCheckpoint checkpoint = getCheckpoint(constructConfiguration());
+		if (checkpoint != null) {
+			checkpoint.save(network);
+		}
+	}
+
+	 // In this method, we train the network for a given number of epochs
+	private void trainNetwork(int numberOfEpochsForTraining) throws CalculationException {
+
+		MultiDataSet dataSetTrain = getDataSetTrain();
+
+		//we then train the network based on this data
+		for (int epochIndex = 0; epochIndex < numberOfEpochsForTraining; epochIndex ++) {
+			network.fit(dataSetTrain);
+		}
+	}
+
+	 // In this method, we create the object of type MultiDataSet which we use to train the network, the first time it is needed
+	private MultiDataSet getDataSetTrain() throws CalculationException {
+
+		if (dataSetTrain != null) {
+			return dataSetTrain;
+		}
 		
 		/*
 		 * The length of this array must be equal to the number of inputs that we give to the netowrk constructed in the method above:
@@ -333,12 +444,8 @@ public class DeepHedging {
 		outputsArrayTrain[0] = new NDArray(finalValuesTrain);		
 
 		//and we construct a MultiDataSet out of the inputs and the outputs
-		MultiDataSet dataSetTrain = new MultiDataSet(inputsArrayTrain, outputsArrayTrain);
-
-		//we then train the network based on this data
-		for (int epochIndex = 0; epochIndex < numberOfEpochs; epochIndex ++) {
-			network.fit(dataSetTrain);
-		}
+		dataSetTrain = new MultiDataSet(inputsArrayTrain, outputsArrayTrain);
+		return dataSetTrain;
 	}
 
 	/**
@@ -350,14 +457,12 @@ public class DeepHedging {
 	 * @param seedForTesting, the seed for teh generator of the paths
 	 * @return an array of doubles containing the final portfolio value for every path
 	 * @throws CalculationException
+	 * @throws IOException
 	 */
-	public double[] getPortfolioValuesForTesting(int numberOfSimulationsForTesting, int seedForTesting) throws CalculationException {
+	public double[] getPortfolioValuesForTesting(int numberOfSimulationsForTesting, int seedForTesting) throws CalculationException, IOException {
 
 		//same thing as usual: we call the core private methods only once
-		if (network == null) {
-			constructNetwork();
-			trainNetwork();
-		}
+		getNetworkIfNeeded();
 		
 		/*
 		 * Here we specify that we want a AssetModelMonteCarloSimulationModel object which is the same as pricesGenerator but:
@@ -0,0 +1,158 @@
+package it.univr.neuralnetworks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
+
+/**
+ * This class stores a trained network on a file, together with the state of its updater and, if there is one, the normalizer of its
+ * inputs, and reads it back. In this way a network has to be trained only once: when it is needed again, for example when a program
+ * using it starts, it is read from the file in a fraction of a second. Since the state of the updater (for example, the moments of
+ * the Adam algorithm) is also stored, the training of a network read from the file can be continued as if it had never stopped.
+ *
+ * The file can be given directly or, as in BubbleDetectionDataCache, be found from what determines the trained network: a description of
+ * the network and of its training, for example its configuration and the number of epochs, and the training data. The name of the file
+ * is then the SHA-256 hash of the description and of the elements of the data, so a network is read only if it has been trained in the
+ * same way on the same data. If anything changes, even a single price of the data, another file is used and the network is trained
+ * again.
+ *
+ * The file is written by ModelSerializer of deeplearning4j. It is first written with another name and then renamed, so that the file
+ * with the final name is always complete, even if the program stops while writing.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class ModelCheckpoint {
+
+	private static final String FILE_EXTENSION = ".zip";
+
+	private final Path file;
+
+	/**
+	 * It constructs an object to store and read a network in a given file
+	 *
+	 * @param file, the file where the network is stored. Its directory is created if it does not exist
+	 */
+	public ModelCheckpoint(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * It constructs an object to store and read a network in a file of a given directory, whose name is the hash of a description of the
+	 * network and of its training and of the training data.
+	 *
+	 * @param directory, the directory where the file is. It is created if it does not exist
+	 * @param description, everything which determines the trained network apart from the data, for example the configuration of the
+	 * 		  network as given by its method toJson(), the number of epochs and the size of the batches
+	 * @param trainingData, the arrays with the data on which the network is trained. Their elements, shapes and data types are hashed
+	 */
+	public ModelCheckpoint(Path directory, String description, INDArray... trainingData) {
+		this(directory.resolve(getHash(description, trainingData) + FILE_EXTENSION));
+	}
+
+	private static String getHash(String description, INDArray[] trainingData) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(description.getBytes(StandardCharsets.UTF_8));
+			for (INDArray array : trainingData) {
+				digest.update((array.dataType() + Arrays.toString(array.shape())).getBytes(StandardCharsets.UTF_8));
+				//the copy has its elements in the order of the rows and no other element in its memory, which is then hashed directly
+				digest.update(array.dup('c').data().asNio());
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			//every implementation of the Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * It returns true if a network has already been stored in the file
+	 *
+	 * @return true if a network has already been stored in the file
+	 */
+	public boolean exists() {
+		return Files.isRegularFile(file);
+	}
+
+	/**
+	 * It stores a network, the state of its updater and the normalizer of its inputs in the file. If there is already a network in
+	 * the file, it is replaced.
+	 *
+	 * @param network, the network to be stored: a MultiLayerNetwork or a ComputationGraph
+	 * @param normalizer, the normalizer of the inputs of the network. It can be null
+	 * @throws IOException
+	 */
+	public void save(Model network, DataNormalization normalizer) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path temporaryFile = Files.createTempFile(directory, "incomplete", FILE_EXTENSION);
+		try {
+			ModelSerializer.writeModel(network, temporaryFile.toFile(), true);
+			//the normalizer is added to the file afterwards: writing it together with the network fails in deeplearning4j 1.0.0-M2.1
+			if (normalizer != null) {
+				ModelSerializer.addNormalizerToModel(temporaryFile.toFile(), normalizer);
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * It stores a network and the state of its updater in the file
+	 *
+	 * @param network, the network to be stored: a MultiLayerNetwork or a ComputationGraph
+	 * @throws IOException
+	 */
+	public void save(Model network) throws IOException {
+		save(network, null);
+	}
+
+	/**
+	 * It reads a MultiLayerNetwork from the file, together with the state of its updater, so that it can also be trained further
+	 *
+	 * @return the network stored in the file
+	 * @throws IOException
+	 */
+	public MultiLayerNetwork loadMultiLayerNetwork() throws IOException {
+		return ModelSerializer.restoreMultiLayerNetwork(file.toFile(), true);
+	}
+
+	/**
+	 * It reads a ComputationGraph from the file, together with the state of its updater, so that it can also be trained further
+	 *
+	 * @return the network stored in the file
+	 * @throws IOException
+	 */
+	public ComputationGraph loadComputationGraph() throws IOException {
+		return ModelSerializer.restoreComputationGraph(file.toFile(), true);
+	}
+
+	/**
+	 * It reads the normalizer of the inputs stored in the file together with the network
+	 *
+	 * @return the normalizer stored in the file, or null if the network was stored without normalizer
+	 * @throws IOException
+	 */
+	public DataNormalization loadNormalizer() throws IOException {
+		try {
+			return ModelSerializer.restoreNormalizerFromFile(file.toFile());
+		} catch (Exception exception) {
+			throw new IOException("The normalizer cannot be read from " + file, exception);
+		}
+	}
+}
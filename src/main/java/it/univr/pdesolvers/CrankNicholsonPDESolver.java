@@ -4,6 +4,7 @@ import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
 import java.util.stream.IntStream;
 
+import it.univr.usefulmethodsarrays.DenseMatrix;
 import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
 import net.finmath.util.TriFunction;
 
@@ -12,12 +13,29 @@ import net.finmath.util.TriFunction;
  *
  * \partial_t v(t,x) = 1/2 (\volatilityFunction(t,x,a(t,x)))^2 \partial_xx v(t,x)+b(t,x,a(t,x)) \partial_x v(t,x)+f(t,x,a(t,x)), (t,x) \in (0,T] x R,
  * v(0,x)=g(x), x \in R.
- * 
+ *
  * Note that here the time variable t can be interpreted as the difference between final time T and current time in the PDE coming from
  * the control problem.
- * 
- * In particular, the method of Crank-Nicholson is used to solve the PDE.
- * 
+ *
+ * In particular, the method of Crank-Nicholson is used to solve the PDE. Since the system to solve at every time step is tri-diagonal,
+ * it is solved via the Thomas algorithm.
+ *
+ * Two optional features help when the initial condition is not smooth (think about Math.pow(x, 0.5) or a call payoff), case in which
+ * Crank-Nicholson is known to produce spurious oscillations unless the time step is very small:
+ * - a number of Rannacher start-up steps: the first time steps are replaced by two implicit Euler steps of half length, which damp the
+ *   oscillations;
+ * - adaptive time stepping: the time step dt is then only the step of the time grid where the solution is stored, whereas the steps
+ *   of the scheme are chosen adaptively via step doubling. That is, the solution is computed both with one step of length h and with two
+ *   steps of length h/2, and the difference between the two gives an estimate of the error. The step is then reduced if this error is
+ *   bigger than the tolerance, and increased (up to dt) otherwise. In this way one can choose a quite big dt: the scheme automatically
+ *   takes small steps where the solution is not smooth, and big steps where it is smooth.
+ * The coefficients and the controls are kept constant in any interval of the time grid, as for the non adaptive scheme.
+ *
+ * The control a(t,x) can be a vector (a_1(t,x),...,a_d(t,x)) of any dimension d. The controls are stored in a one-dimensional array of
+ * primitive doubles: the value a_k(t_i,x_j) is at position (i * (number of points of the space grid) + j) * d + k. The coefficients of the PDE
+ * are then given as objects of type FunctionOfTimeSpaceAndControls. For the common case of a one-dimensional control, there are also
+ * constructors which accept net.finmath.util.TriFunction objects and a matrix of controls.
+ *
  * @author Andrea Mazzon
  *
  */
@@ -26,7 +44,7 @@ public class CrankNicholsonPDESolver {
 	//time steps for space and time
 	private double dx;
 	private double dt;
-	
+
 	//left boundary of the interval for the space. It will be needed in getSolutionForGivenTimeAndSpace
 	private double xMin;
 
@@ -37,10 +55,10 @@ public class CrankNicholsonPDESolver {
 
 	private int numberOfSpaceSteps;
 	private int numberOfTimeSteps;
-	
+
 	//this can be interpreted as the final condition in the control problem (remember that time is flipped)
 	private DoubleUnaryOperator initialCondition;
-	
+
 	//condition at the left boundary
 	private DoubleBinaryOperator conditionAtLeftBoundary;
 
@@ -51,21 +69,68 @@ public class CrankNicholsonPDESolver {
 	//they will store the solution at past and current time when computing the solution going forward
 	private double[] solutionAtPastTime;
 	private double[] solutionAtCurrentTime;
-	
-	//it will store the whole approximated solution. Time is on the rows, space on the columns
-	private double[][] solution;
 
-	//functions of time, space and control. You see four doubles because they map three doubles in one double
-	private TriFunction<Double, Double, Double, Double> driftFunction;
-	private TriFunction<Double, Double, Double, Double> volatilityFunction;
-	private TriFunction<Double, Double, Double, Double> functionForKnownTerm;//it is the running reward function for the control problem
+	//it will store the whole approximated solution, in one array. Time is on the rows, space on the columns
+	private DenseMatrix solution;
+
+	//it is false before the first computation of the solution, and after the controls have been changed
+	private boolean isSolutionUpToDate;
+
+	//the solution computed for the controls before the last call of setControls. Its matrix is reused for the next solution
+	private DenseMatrix solutionForPastControls;
+
+	//functions of time, space and of the vector of controls
+	private FunctionOfTimeSpaceAndControls driftFunction;
+	private FunctionOfTimeSpaceAndControls volatilityFunction;
+	private FunctionOfTimeSpaceAndControls functionForKnownTerm;//it is the running reward function for the control problem
+
+	/*
+	 * The controls, stored in a one-dimensional array: a_k(t_i,x_j) is at position (i * (numberOfSpaceSteps + 1) + j) * controlDimension + k.
+	 * We need them when computing the three functions above
+	 */
+	private double[] controls;
+	private int controlDimension;
+
+	//the controls at a given time and space are copied here before being given to the functions
+	private double[] controlsAtGivenTimeAndSpace;
+
+	/*
+	 * The values of 1/2 sigma^2, b and f at all the points of the space grid, for all the intervals of the time grid. They are stored in
+	 * the same order as the controls, and computed when the solution is computed for the first time. If the controls are then changed via
+	 * setControls, they are only computed again at the points where the controls have changed
+	 */
+	private double[] halfSquaredVolatilities;
+	private double[] drifts;
+	private double[] valuesOfFunctionForKnownTerm;
+
+	//the position in the three arrays above of the coefficients at the first point of the space grid, for the current interval
+	private int positionOfCoefficients;
+
+	//the three diagonals and the known term of the tri-diagonal system, together with the working array for the Thomas algorithm
+	private double[] lowerDiagonal;
+	private double[] diagonal;
+	private double[] upperDiagonal;
+	private double[] knownTerm;
+	private double[] workingArray;
 
-	//the matrix of the controls. We have controlMatrix[i][j]=a(t_i,x_j). We need it when computing the three functions above
-	private double[][] controlMatrix;
+	//the number of the first steps which are computed with two implicit Euler steps of half length instead of with Crank-Nicholson
+	private int numberOfRannacherSteps;
 
-	//the y will me multiplied to the approximated first and second derivatives, respectively
-	private double multiplyTermFirstDerivative = 0.5 * dt / dx;
-	private double multiplyTermSecondDerivative = dt / (dx * dx);
+	//the tolerance for the adaptive time stepping. If it is not positive, no adaptive time stepping is performed
+	private double toleranceForAdaptiveStepping;
+
+	//the step that the adaptive time stepping proposes for the next step
+	private double proposedStep;
+
+	//steps smaller than this are accepted anyway, also if the estimated error is bigger than the tolerance
+	private double minimumStep;
+
+	//we keep track of it in order to measure the cost of the computation
+	private int numberOfSolvedLinearSystems;
+
+	//they are used by the adaptive time stepping
+	private double[] solutionWithOneStep;
+	private double[] solutionWithTwoSteps;
 
 
 	/**
@@ -73,8 +138,8 @@ public class CrankNicholsonPDESolver {
 	 *  \partial_t v(t,x) = 1/2 (\volatilityFunction(t,x,a(t,x)))^2 \partial_xx v(t,x)+b(t,x,a(t,x)) \partial_x v(t,x)
 	 *   +f(t,x,a(t,x)), (t,x) \in (0,T] x R,
 	 * v(0,x)=g(x), x \in R,
-	 * via Crank-Nicholson.
-	 * 
+	 * via Crank-Nicholson, with fixed time step and without Rannacher start-up steps.
+	 *
 	 * @param dx, the space step
 	 * @param dt, the time step
 	 * @param xMin, the left boundary of the space domain we want to consider
@@ -94,6 +159,85 @@ public class CrankNicholsonPDESolver {
 			TriFunction<Double, Double, Double, Double> functionForKnownTerm,
 			DoubleUnaryOperator initialCondition, DoubleBinaryOperator conditionAtLeftBoundary,
 			 double[][] controlMatrix) {
+		this(dx, dt, xMin, xMax, tMax, driftFunction, volatilityFunction, functionForKnownTerm, initialCondition, conditionAtLeftBoundary,
+				controlMatrix, 0, 0.0);
+	}
+
+
+	/**
+	 * It constructs an object to compute the approximated solution of the PDE
+	 *  \partial_t v(t,x) = 1/2 (\volatilityFunction(t,x,a(t,x)))^2 \partial_xx v(t,x)+b(t,x,a(t,x)) \partial_x v(t,x)
+	 *   +f(t,x,a(t,x)), (t,x) \in (0,T] x R,
+	 * v(0,x)=g(x), x \in R,
+	 * via Crank-Nicholson, with Rannacher start-up steps and adaptive time stepping.
+	 *
+	 * @param dx, the space step
+	 * @param dt, the step of the time grid where the solution is stored. If adaptive time stepping is used, the steps of the scheme
+	 * 		  are never bigger than this
+	 * @param xMin, the left boundary of the space domain we want to consider
+	 * @param xMax, the right boundary of the space domain we want to consider
+	 * @param tMax, the final time
+	 * @param driftFunction, the function b(t,x,a(t,x)) of time, space and control (which can depend on time and space)
+	 * @param volatilityFunction, the function sigma(t,x,a(t,x)) of time, space and control (which can depend on time and space)
+	 * @param functionForKnownTerm, the function f(t,x,a(t,x)) of time, space and control (which can depend on time and space)
+	 * @param initialCondition, this is the final reward function for the optimal control problem (time here is flipped)
+	 * @param conditionAtLeftBoundary, the condition at the right boundary of the space domain we want to consider. The condition at
+	 * the right boundary is not needed.
+	 * @param controlMatrix, the matrix of the controls. We have controlMatrix[i][j]=a(t_i,x_j)
+	 * @param numberOfRannacherSteps, the number of the first steps of the time grid which are computed with two implicit Euler steps
+	 * 		  of half length instead of with Crank-Nicholson
+	 * @param toleranceForAdaptiveStepping, the maximum error allowed for a single step of the scheme, relative to 1 + |v|.
+	 * 		  If it is not positive, every step of the time grid is computed with one step of Crank-Nicholson
+	 */
+	public CrankNicholsonPDESolver(double dx, double dt, double xMin, double xMax, double tMax,
+			TriFunction<Double, Double, Double, Double> driftFunction,
+			TriFunction<Double, Double, Double, Double> volatilityFunction,
+			TriFunction<Double, Double, Double, Double> functionForKnownTerm,
+			DoubleUnaryOperator initialCondition, DoubleBinaryOperator conditionAtLeftBoundary,
+			double[][] controlMatrix, int numberOfRannacherSteps, double toleranceForAdaptiveStepping) {
+		this(dx, dt, xMin, xMax, tMax,
+				(time, space, controls) -> driftFunction.apply(time, space, controls[0]),
+				(time, space, controls) -> volatilityFunction.apply(time, space, controls[0]),
+				(time, space, controls) -> functionForKnownTerm.apply(time, space, controls[0]),
+				initialCondition, conditionAtLeftBoundary, flattenControls(new double[][][] {controlMatrix}), 1,
+				numberOfRannacherSteps, toleranceForAdaptiveStepping);
+	}
+
+
+	/**
+	 * It constructs an object to compute the approximated solution of the PDE
+	 *  \partial_t v(t,x) = 1/2 (\volatilityFunction(t,x,a(t,x)))^2 \partial_xx v(t,x)+b(t,x,a(t,x)) \partial_x v(t,x)
+	 *   +f(t,x,a(t,x)), (t,x) \in (0,T] x R,
+	 * v(0,x)=g(x), x \in R,
+	 * via Crank-Nicholson, where a(t,x) = (a_1(t,x),...,a_d(t,x)) is a vector of controls of dimension d.
+	 *
+	 * @param dx, the space step
+	 * @param dt, the step of the time grid where the solution is stored. If adaptive time stepping is used, the steps of the scheme
+	 * 		  are never bigger than this
+	 * @param xMin, the left boundary of the space domain we want to consider
+	 * @param xMax, the right boundary of the space domain we want to consider
+	 * @param tMax, the final time
+	 * @param driftFunction, the function b(t,x,a(t,x)) of time, space and of the vector of controls
+	 * @param volatilityFunction, the function sigma(t,x,a(t,x)) of time, space and of the vector of controls
+	 * @param functionForKnownTerm, the function f(t,x,a(t,x)) of time, space and of the vector of controls
+	 * @param initialCondition, this is the final reward function for the optimal control problem (time here is flipped)
+	 * @param conditionAtLeftBoundary, the condition at the right boundary of the space domain we want to consider. The condition at
+	 * the right boundary is not needed.
+	 * @param controls, the controls: a_k(t_i,x_j) is at position (i * (number of points of the space grid) + j) * controlDimension + k.
+	 * 		  The time index i goes from 0 to the number of time steps minus one: the controls of index i are used from t_i to t_{i+1}.
+	 * 		  They are copied
+	 * @param controlDimension, the dimension d of the vector of controls
+	 * @param numberOfRannacherSteps, the number of the first steps of the time grid which are computed with two implicit Euler steps
+	 * 		  of half length instead of with Crank-Nicholson
+	 * @param toleranceForAdaptiveStepping, the maximum error allowed for a single step of the scheme, relative to 1 + |v|.
+	 * 		  If it is not positive, every step of the time grid is computed with one step of Crank-Nicholson
+	 */
+	public CrankNicholsonPDESolver(double dx, double dt, double xMin, double xMax, double tMax,
+			FunctionOfTimeSpaceAndControls driftFunction,
+			FunctionOfTimeSpaceAndControls volatilityFunction,
+			FunctionOfTimeSpaceAndControls functionForKnownTerm,
+			DoubleUnaryOperator initialCondition, DoubleBinaryOperator conditionAtLeftBoundary,
+			double[] controls, int controlDimension, int numberOfRannacherSteps, double toleranceForAdaptiveStepping) {
 
 		this.dx = dx;
 		this.dt = dt;
@@ -103,7 +247,7 @@ public class CrankNicholsonPDESolver {
 
 		numberOfSpaceSteps = (int) Math.ceil((xMax - xMin) / dx);
 		numberOfTimeSteps = (int) Math.ceil(tMax / dt);
-		
+
 		// Create equi-spaced space discretization
 		x = IntStream.range(0, numberOfSpaceSteps + 1).mapToDouble(i -> xMin + i * dx).toArray();
 		t = IntStream.range(0, numberOfTimeSteps + 1).mapToDouble(i -> i * dt).toArray();
@@ -111,160 +255,382 @@ public class CrankNicholsonPDESolver {
 		this.driftFunction = driftFunction;
 		this.volatilityFunction = volatilityFunction;
 		this.functionForKnownTerm = functionForKnownTerm;
-		this.controlMatrix = controlMatrix;
-		
-		//WE have dt because we multiply everything by dt when computing the numerical scheme
-		multiplyTermFirstDerivative = 0.5 * dt / dx;
-		multiplyTermSecondDerivative = dt / (dx * dx);
+		this.controls = controls.clone();//they are copied, because they can be changed via setControls
+		this.controlDimension = controlDimension;
+
+		if (controls.length != numberOfTimeSteps * (numberOfSpaceSteps + 1) * controlDimension) {
+			throw new IllegalArgumentException("The number of controls does not match the grids and the control dimension");
+		}
+
+		controlsAtGivenTimeAndSpace = new double[controlDimension];
+
+		this.numberOfRannacherSteps = numberOfRannacherSteps;
+		this.toleranceForAdaptiveStepping = toleranceForAdaptiveStepping;
+
+		proposedStep = dt;
+		minimumStep = dt / 1024;
 
 		currentTimeIndex = 1;
 	}
 
 
-	//this is the chore of the class: it computes the approximated solution going forward from one time to the other
+	//this is the core of the class: it computes the approximated solution going forward from one time to the other
 	private void solveAndSave() {
-		computeMatrixForSystem();//the matrix that appears in the linear system
-		
-		solution = new double[numberOfTimeSteps + 1][numberOfSpaceSteps + 1];
+
+		//the arrays are allocated only the first time: if the solution is computed again for new controls, they are reused
+		if (halfSquaredVolatilities == null) {
+			halfSquaredVolatilities = new double[numberOfTimeSteps * (numberOfSpaceSteps + 1)];
+			drifts = new double[numberOfTimeSteps * (numberOfSpaceSteps + 1)];
+			valuesOfFunctionForKnownTerm = new double[numberOfTimeSteps * (numberOfSpaceSteps + 1)];
+			computeCoefficients();
+
+			//the system is solved for all the points of the space grid except the ones at the borders
+			lowerDiagonal = new double[numberOfSpaceSteps - 1];
+			diagonal = new double[numberOfSpaceSteps - 1];
+			upperDiagonal = new double[numberOfSpaceSteps - 1];
+			knownTerm = new double[numberOfSpaceSteps - 1];
+			workingArray = new double[numberOfSpaceSteps - 1];
+
+			solutionWithOneStep = new double[numberOfSpaceSteps + 1];
+			solutionWithTwoSteps = new double[numberOfSpaceSteps + 1];
+
+			solutionAtPastTime = new double[numberOfSpaceSteps + 1];
+			solutionAtCurrentTime = new double[numberOfSpaceSteps + 1];
+		}
+
+		/*
+		 * If the solution has already been computed for other controls, we write the new one in the other matrix, and keep the old one.
+		 * In this way, who has got the old solution via getSolutionAsDenseMatrix can compare it with the new one without copying it
+		 */
+		DenseMatrix pastSolution = solution;
+		solution = solutionForPastControls != null ? solutionForPastControls : new DenseMatrix(numberOfTimeSteps + 1, numberOfSpaceSteps + 1);
+		solutionForPastControls = pastSolution;
+
+		proposedStep = dt;
+		numberOfSolvedLinearSystems = 0;
 
 		//the solution at initial time: given by the initial condition. It is needed to get the solution at current time
-		solutionAtPastTime = IntStream.range(0, numberOfSpaceSteps + 1).mapToDouble(i -> initialCondition.applyAsDouble(x[i])).toArray();
-		
-		solution[0] = solutionAtPastTime.clone();//it is always safer to use clones!
+		for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+			solutionAtPastTime[spaceIndex] = initialCondition.applyAsDouble(x[spaceIndex]);
+		}
+		solution.setRow(0, solutionAtPastTime);
 
 		//a for loop that goes forward in time
-		for (int i = 1; i <= numberOfTimeSteps; i++) {
-			currentTime = t[currentTimeIndex];//it is needed in the method getSolutionAtCurrentTime()
-			solutionAtCurrentTime = getSolutionAtCurrentTime().clone();
-			solutionAtPastTime = solutionAtCurrentTime.clone();
-			solution[i] = solutionAtCurrentTime.clone();
-			currentTimeIndex ++;
+		for (currentTimeIndex = 1; currentTimeIndex <= numberOfTimeSteps; currentTimeIndex++) {
+			currentTime = t[currentTimeIndex];//it is needed when computing the coefficients
+			positionOfCoefficients = (currentTimeIndex - 1) * (numberOfSpaceSteps + 1);
+			computeSolutionAtCurrentTime();
+			solution.setRow(currentTimeIndex, solutionAtCurrentTime);
+
+			//we swap the two arrays, so that nothing gets allocated
+			double[] temporary = solutionAtPastTime;
+			solutionAtPastTime = solutionAtCurrentTime;
+			solutionAtCurrentTime = temporary;
 		}
+		isSolutionUpToDate = true;
 	}
 
 	/*
-	 * It computes the matrix of the system. It will be called at any call of the getSolutionAtCurrentTime() because
-	 * the coefficients can depend on time.
+	 * It computes the values of 1/2 sigma^2, b and f for all the points of the space grid and all the intervals of the time grid, because
+	 * the coefficients can depend on time and the controls can be different.
 	 */
-	private double[][] computeMatrixForSystem() {
-
-		//it will be defined as a tri-diagonal matrix. 
-		double[][] matrixForTheSystem = new double[numberOfSpaceSteps - 1][numberOfSpaceSteps - 1];
-		double[] diagonal = new double[numberOfSpaceSteps - 1];
-		double[] lowerDiagonal = new double[numberOfSpaceSteps - 2];
-		double[] upperDiagonal = new double[numberOfSpaceSteps - 2];
+	private void computeCoefficients() {
+		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex++) {
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+				computeCoefficientsAtGivenPoint(timeIndex, spaceIndex);
+			}
+		}
+	}
 
-		//first, we have to define the diagonal, the lower diagonal and the upper diagonal
-		for (int spaceIndex = 0; spaceIndex < numberOfSpaceSteps - 2; spaceIndex++) {
+	//it computes the values of 1/2 sigma^2, b and f at the given point of the space grid, in the interval ending at the given time
+	private void computeCoefficientsAtGivenPoint(int timeIndex, int spaceIndex) {
+		int position = (timeIndex - 1) * (numberOfSpaceSteps + 1) + spaceIndex;
+		System.arraycopy(controls, position * controlDimension, controlsAtGivenTimeAndSpace, 0, controlDimension);
+		double sigma = volatilityFunction.apply(t[timeIndex], x[spaceIndex], controlsAtGivenTimeAndSpace);
+		halfSquaredVolatilities[position] = 0.5 * sigma * sigma;
+		drifts[position] = driftFunction.apply(t[timeIndex], x[spaceIndex], controlsAtGivenTimeAndSpace);
+		valuesOfFunctionForKnownTerm[position] = functionForKnownTerm.apply(t[timeIndex], x[spaceIndex], controlsAtGivenTimeAndSpace);
+	}
 
-			double currentSpaceVariable = x[spaceIndex + 1];		
-			double currentDrift = driftFunction.apply(currentTime, currentSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex] );
-			double currentSigma = volatilityFunction.apply(currentTime, currentSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex]);
+	/**
+	 * It changes the controls, so that the solution will be computed again for the new controls when it is required. The grids and all the
+	 * arrays are kept, and the coefficients of the PDE are only computed again at the points where the controls have changed. This is
+	 * useful when many PDEs have to be solved for controls which differ only at few points, as in the Policy Improvement Algorithm.
+	 * The matrix returned by getSolutionAsDenseMatrix for the past controls is kept as it is when the solution is computed for the new
+	 * controls, so that the two solutions can be compared, but it is overwritten when the solution is computed once more after a new call
+	 * of this method.
+	 *
+	 * @param newControls, the new controls, in the same order as for the constructor. They are copied
+	 * @return the number of points (t_i,x_j) where the controls have changed
+	 */
+	public int setControls(double[] newControls) {
 
-			double nextSpaceVariable = x[spaceIndex + 2];
-			double nextDrift = driftFunction.apply(currentTime, nextSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex + 1]);
-			double nextSigma = volatilityFunction.apply(currentTime, nextSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex + 1]);
+		if (newControls.length != controls.length) {
+			throw new IllegalArgumentException("The number of controls does not match the grids and the control dimension");
+		}
 
-			
-			diagonal[spaceIndex] = 1 + 0.5 * multiplyTermSecondDerivative * currentSigma * currentSigma;
+		int numberOfChangedPoints = 0;
+		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex++) {
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+				int firstPosition = ((timeIndex - 1) * (numberOfSpaceSteps + 1) + spaceIndex) * controlDimension;
+				boolean hasChanged = false;
+				for (int controlIndex = 0; controlIndex < controlDimension; controlIndex++) {
+					hasChanged |= newControls[firstPosition + controlIndex] != controls[firstPosition + controlIndex];
+				}
+				if (hasChanged) {
+					System.arraycopy(newControls, firstPosition, controls, firstPosition, controlDimension);
+					numberOfChangedPoints ++;
+					if (halfSquaredVolatilities != null) {
+						computeCoefficientsAtGivenPoint(timeIndex, spaceIndex);
+					}
+				}
+			}
+		}
+		if (numberOfChangedPoints > 0) {
+			isSolutionUpToDate = false;
+		}
+		return numberOfChangedPoints;
+	}
 
-			lowerDiagonal[spaceIndex] = -0.5 * multiplyTermSecondDerivative * nextSigma * nextSigma
-					+ multiplyTermFirstDerivative * nextDrift;
+	/**
+	 * It changes the controls when they are one-dimensional, so that the solution will be computed again for the new controls when it is
+	 * required. The coefficients of the PDE are only computed again at the points where the controls have changed.
+	 * The matrix returned by getSolutionAsDenseMatrix for the past controls is kept as it is when the solution is computed for the new
+	 * controls, so that the two solutions can be compared, but it is overwritten when the solution is computed once more after a new call
+	 * of this method.
+	 *
+	 * @param newControlMatrix, the matrix of the new controls. We have newControlMatrix[i][j]=a(t_i,x_j)
+	 * @return the number of points (t_i,x_j) where the controls have changed
+	 */
+	public int setControls(double[][] newControlMatrix) {
 
-			upperDiagonal[spaceIndex] = -0.5 * multiplyTermSecondDerivative * currentSigma * currentSigma
-					- multiplyTermFirstDerivative * currentDrift;
+		if (controlDimension != 1) {
+			throw new IllegalArgumentException("The controls can be given as a matrix only if they are one-dimensional");
 		}
 
-		//the last element of the diagonal (it has one element more)
-		diagonal[numberOfSpaceSteps - 2] = 1 + 0.5 * multiplyTermSecondDerivative
-				* volatilityFunction.apply(currentTime, x[numberOfSpaceSteps - 1], controlMatrix[currentTimeIndex - 1][numberOfSpaceSteps - 1])
-		* volatilityFunction.apply(currentTime, x[numberOfSpaceSteps - 1], controlMatrix[currentTimeIndex - 1][numberOfSpaceSteps - 1]);
-
-		matrixForTheSystem = new double[numberOfSpaceSteps - 1][numberOfSpaceSteps - 1];
-		
-		//now, having the three diagonals, we contruct the matrix
-		for (int i = 0; i < numberOfSpaceSteps - 2; i++) {
-			matrixForTheSystem[i][i] = diagonal[i];
-			matrixForTheSystem[i][i + 1] = 0.5 * upperDiagonal[i];
-			matrixForTheSystem[i + 1][i] = 0.5 * lowerDiagonal[i];
+		int numberOfChangedPoints = 0;
+		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex++) {
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+				int position = (timeIndex - 1) * (numberOfSpaceSteps + 1) + spaceIndex;
+				if (newControlMatrix[timeIndex - 1][spaceIndex] != controls[position]) {
+					controls[position] = newControlMatrix[timeIndex - 1][spaceIndex];
+					numberOfChangedPoints ++;
+					if (halfSquaredVolatilities != null) {
+						computeCoefficientsAtGivenPoint(timeIndex, spaceIndex);
+					}
+				}
+			}
 		}
-		
-		matrixForTheSystem[numberOfSpaceSteps - 2][numberOfSpaceSteps - 2] = diagonal[numberOfSpaceSteps - 2];
-		return matrixForTheSystem;
+		if (numberOfChangedPoints > 0) {
+			isSolutionUpToDate = false;
+		}
+		return numberOfChangedPoints;
 	}
 
-
 	/*
-	 * It computes the known term of the system. It will be called at any call of the getSolutionAtCurrentTime() because
-	 * the coefficients can depend on time.
+	 * It computes the solution after a step of length timeStep of the theta-scheme, with the coefficients of the current interval of the
+	 * time grid, and writes it in newSolution. Theta = 0.5 gives Crank-Nicholson, theta = 1 gives the implicit Euler scheme.
+	 * Calling L the discretized differential operator, we solve
+	 * (I - theta * timeStep * L) newSolution = (I + (1 - theta) * timeStep * L) pastSolution + timeStep * f.
 	 */
-	private double[] computeKnownTermForSystem() {
+	private void makeStep(double[] pastSolution, double[] newSolution, double timeStep, double theta, double timeAtEndOfStep) {
 
-		double[] firstDerivatives = new double[numberOfSpaceSteps - 1];
-		double[] secondDerivatives = new double[numberOfSpaceSteps - 1];
+		//they will be multiplied to the approximated second and first derivatives, respectively
+		double multiplyTermSecondDerivative = timeStep / (dx * dx);
+		double multiplyTermFirstDerivative = 0.5 * timeStep / dx;
 
-		//the first derivatives of the solution at past time, multiplied by dt
-		for (int i = 1; i < numberOfSpaceSteps; i++) {
-			//central differences
-			firstDerivatives[i-1] = multiplyTermFirstDerivative * (solutionAtPastTime[i + 1] - solutionAtPastTime[i - 1]);
-			secondDerivatives[i-1] = multiplyTermSecondDerivative * (solutionAtPastTime[i + 1] - 2 * solutionAtPastTime[i] + solutionAtPastTime[i - 1]);
-		}
+		double valueAtLeftBoundary = conditionAtLeftBoundary.applyAsDouble(x[0], timeAtEndOfStep);
+
+		for (int spaceIndex = 1; spaceIndex < numberOfSpaceSteps; spaceIndex++) {
+
+			double diffusionTerm = multiplyTermSecondDerivative * halfSquaredVolatilities[positionOfCoefficients + spaceIndex];
+			double driftTerm = multiplyTermFirstDerivative * drifts[positionOfCoefficients + spaceIndex];
 
+			//the coefficients of the values at the left, at the center and at the right in the discretized operator
+			double leftCoefficient = diffusionTerm - driftTerm;
+			double centralCoefficient = - 2 * diffusionTerm;
+			double rightCoefficient = diffusionTerm + driftTerm;
 
-		double[] knownTerm = new double[numberOfSpaceSteps - 1];
+			int systemIndex = spaceIndex - 1;
 
-		//basically it works as before for the diagonals
-		for (int spaceIndex = 0; spaceIndex < numberOfSpaceSteps - 1; spaceIndex++) {
+			lowerDiagonal[systemIndex] = - theta * leftCoefficient;
+			diagonal[systemIndex] = 1 - theta * centralCoefficient;
+			upperDiagonal[systemIndex] = - theta * rightCoefficient;
 
-			double currentSpaceVariable = x[spaceIndex + 1];
-			double currentDrift = driftFunction.apply(currentTime, currentSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex] );
-			double currentSigma = volatilityFunction.apply(currentTime, currentSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex]);
-			double currentFunctionForKnownTerm =  functionForKnownTerm.apply(currentTime, currentSpaceVariable, controlMatrix[currentTimeIndex - 1][spaceIndex]);
+			double explicitTerm = leftCoefficient * pastSolution[spaceIndex - 1] + centralCoefficient * pastSolution[spaceIndex]
+					+ rightCoefficient * pastSolution[spaceIndex + 1];
 
-			double addingTerm = 0.5 * secondDerivatives[spaceIndex] * currentSigma * currentSigma + firstDerivatives[spaceIndex] * currentDrift;
-			knownTerm[spaceIndex] = solutionAtPastTime[spaceIndex + 1] + 0.5 * addingTerm + currentFunctionForKnownTerm;
+			knownTerm[systemIndex] = pastSolution[spaceIndex] + (1 - theta) * explicitTerm + timeStep * valuesOfFunctionForKnownTerm[positionOfCoefficients + spaceIndex];
 		}
 
-		//the first and last elements have one factor more
-		knownTerm[0] += 0.5 * solutionAtPastTime[0]
-				* (0.5 * multiplyTermSecondDerivative * volatilityFunction.apply(currentTime, x[1], controlMatrix[currentTimeIndex - 1][1])* volatilityFunction.apply(currentTime, x[1], controlMatrix[currentTimeIndex - 1][1])
-						- multiplyTermFirstDerivative * driftFunction.apply(currentTime, x[1], controlMatrix[currentTimeIndex - 1][1]));
+		//the first and last elements have one factor more, coming from the values at the borders
+		knownTerm[0] -= lowerDiagonal[0] * valueAtLeftBoundary;
+
+		//we do not know the value at the right border at the end of the step, so we take the one at the beginning of the step
+		knownTerm[numberOfSpaceSteps - 2] -= upperDiagonal[numberOfSpaceSteps - 2] * pastSolution[numberOfSpaceSteps];
+
+		//it determines all the elements of the solution, except for the ones at the borders
+		UsefulMethodsForArrays.solveTridiagonalSystem(lowerDiagonal, diagonal, upperDiagonal, knownTerm, knownTerm, workingArray);
+		numberOfSolvedLinearSystems ++;
 
-		knownTerm[numberOfSpaceSteps - 2] += 0.5 * solutionAtPastTime[numberOfSpaceSteps]
-				* (0.5 * multiplyTermSecondDerivative * volatilityFunction.apply(currentTime, x[numberOfSpaceSteps - 1], controlMatrix[currentTimeIndex - 1][numberOfSpaceSteps - 1])* volatilityFunction.apply(currentTime, x[1], controlMatrix[currentTimeIndex - 1][numberOfSpaceSteps - 1])
-						+ multiplyTermFirstDerivative * driftFunction.apply(currentTime, x[numberOfSpaceSteps - 1], controlMatrix[currentTimeIndex - 1][numberOfSpaceSteps - 1]));
+		System.arraycopy(knownTerm, 0, newSolution, 1, numberOfSpaceSteps - 1);
 
-		return knownTerm;
+		newSolution[0] = valueAtLeftBoundary;
+
+		/*
+		 * The problem here is that we don't have a clear idea of the approximated form of the solution at the right boundary
+		 * (i.e., for large space variable x). However, since we suppose the coefficients of the PDE to be Lipschitz and then with growth
+		 * no more than linear in x, we can guess the same for the solution. That is, the limit of the second derivative for large x should be zero.
+		 * We impose this.
+		 */
+		newSolution[numberOfSpaceSteps] = 2 * newSolution[numberOfSpaceSteps - 1] - newSolution[numberOfSpaceSteps - 2];
 	}
 
 	//this is another important method: it computes the solution at current time based the solution at past time
-	private double[] getSolutionAtCurrentTime() {
+	private void computeSolutionAtCurrentTime() {
+
+		if (currentTimeIndex <= numberOfRannacherSteps) {
+			//two implicit Euler steps of half length, in order to damp the oscillations due to a non smooth initial condition
+			makeStep(solutionAtPastTime, solutionAtCurrentTime, 0.5 * dt, 1.0, currentTime - 0.5 * dt);
+			makeStep(solutionAtCurrentTime, solutionAtCurrentTime, 0.5 * dt, 1.0, currentTime);
+		} else if (toleranceForAdaptiveStepping <= 0) {
+			makeStep(solutionAtPastTime, solutionAtCurrentTime, dt, 0.5, currentTime);
+		} else {
+			makeAdaptiveSteps(solutionAtCurrentTime);
+		}
+	}
 
-		double currentTime = t[currentTimeIndex];
+	/*
+	 * It goes from the past to the current time of the time grid with Crank-Nicholson steps whose length is chosen via step doubling.
+	 * The step proposed at the end is kept for the next interval of the time grid.
+	 */
+	private void makeAdaptiveSteps(double[] solutionAtCurrentTime) {
+
+		System.arraycopy(solutionAtPastTime, 0, solutionAtCurrentTime, 0, solutionAtPastTime.length);
+
+		double time = t[currentTimeIndex - 1];
+
+		//we want to stop also if the remaining time is not exactly zero because of rounding errors
+		while (currentTime - time > 1E-10 * dt) {
+
+			double step = Math.min(proposedStep, currentTime - time);
+
+			makeStep(solutionAtCurrentTime, solutionWithOneStep, step, 0.5, time + step);
+			makeStep(solutionAtCurrentTime, solutionWithTwoSteps, 0.5 * step, 0.5, time + 0.5 * step);
+			makeStep(solutionWithTwoSteps, solutionWithTwoSteps, 0.5 * step, 0.5, time + step);
+
+			//Crank-Nicholson is of second order, so the error of the solution with two steps is about one third of the difference
+			double estimatedError = 0;
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+				double difference = Math.abs(solutionWithTwoSteps[spaceIndex] - solutionWithOneStep[spaceIndex])
+						/ (3 * (1 + Math.abs(solutionWithTwoSteps[spaceIndex])));
+				estimatedError = Math.max(estimatedError, difference);
+			}
+
+			//the factor that would give an error equal to the tolerance (the local error is of order three), with a safety margin
+			double factorForStep = estimatedError == 0 ? 2.0
+					: Math.min(2.0, Math.max(0.2, 0.9 * Math.pow(toleranceForAdaptiveStepping / estimatedError, 1.0 / 3)));
+
+			if (estimatedError <= toleranceForAdaptiveStepping || step <= minimumStep) {
+				//the step is accepted
+				System.arraycopy(solutionWithTwoSteps, 0, solutionAtCurrentTime, 0, solutionWithTwoSteps.length);
+				time += step;
+				//if the step was cut in order to reach the time of the grid, we do not want to reduce the next one for this reason
+				proposedStep = Math.max(step == proposedStep ? 0 : proposedStep, step * factorForStep);
+			} else {
+				//the step is rejected, and we try again with a smaller one
+				proposedStep = Math.max(minimumStep, step * factorForStep);
+			}
+			proposedStep = Math.min(proposedStep, dt);
+		}
+	}
 
-		double[] solutionAtCurrentTime = new double[solutionAtPastTime.length];
 
-		double[][] matrixForTheSystem = computeMatrixForSystem();
-		double[] knownTerm = computeKnownTermForSystem();
+	/*
+	 * It computes the values of 1/2 sigma^2, b and f for all the points of the space grid, in the interval of the time grid ending at
+	 * the time of index timeIndex. The values are written at the positions spaceIndex * numberOfProblems + problemIndex of the arrays:
+	 * in this way, also the class CrankNicholsonPDESolverBatch can use it, in order to store the coefficients of more problems in the
+	 * same arrays.
+	 */
+	void computeCoefficients(int timeIndex, double[] halfSquaredVolatilities, double[] drifts, double[] valuesOfFunctionForKnownTerm,
+			int problemIndex, int numberOfProblems) {
+		double time = t[timeIndex];
+		for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+			System.arraycopy(controls, ((timeIndex - 1) * (numberOfSpaceSteps + 1) + spaceIndex) * controlDimension,
+					controlsAtGivenTimeAndSpace, 0, controlDimension);
+			double sigma = volatilityFunction.apply(time, x[spaceIndex], controlsAtGivenTimeAndSpace);
+			int position = spaceIndex * numberOfProblems + problemIndex;
+			halfSquaredVolatilities[position] = 0.5 * sigma * sigma;
+			drifts[position] = driftFunction.apply(time, x[spaceIndex], controlsAtGivenTimeAndSpace);
+			valuesOfFunctionForKnownTerm[position] = functionForKnownTerm.apply(time, x[spaceIndex], controlsAtGivenTimeAndSpace);
+		}
+	}
 
-		//it determine all the elements of the solution, except for the ones at the borders
-		double[] solutionToTheLinearSystem = UsefulMethodsForArrays.solveLinearSystem(matrixForTheSystem, knownTerm);
+	/**
+	 * It stores controls given as matrices into a one-dimensional array, in the order required by the constructor of this class.
+	 *
+	 * @param controlMatrices, the controls: controlMatrices[k][i][j] = a_k(t_i,x_j)
+	 * @return the one-dimensional array where a_k(t_i,x_j) is at position (i * (number of points of the space grid) + j) * d + k
+	 */
+	public static double[] flattenControls(double[][][] controlMatrices) {
+		int controlDimension = controlMatrices.length;
+		int numberOfTimes = controlMatrices[0].length;
+		int numberOfSpacePoints = controlMatrices[0][0].length;
+		double[] controls = new double[numberOfTimes * numberOfSpacePoints * controlDimension];
+		for (int timeIndex = 0; timeIndex < numberOfTimes; timeIndex++) {
+			for (int spaceIndex = 0; spaceIndex < numberOfSpacePoints; spaceIndex++) {
+				for (int controlIndex = 0; controlIndex < controlDimension; controlIndex++) {
+					controls[(timeIndex * numberOfSpacePoints + spaceIndex) * controlDimension + controlIndex]
+							= controlMatrices[controlIndex][timeIndex][spaceIndex];
+				}
+			}
+		}
+		return controls;
+	}
 
-		for (int i = 1; i < numberOfSpaceSteps; i++) {
-			solutionAtCurrentTime[i] = solutionToTheLinearSystem[i-1];
-		} 
+	//the methods below are needed by CrankNicholsonPDESolverBatch, which solves more problems together
 
-		solutionAtCurrentTime[0] = conditionAtLeftBoundary.applyAsDouble(x[0], currentTime);
+	double getInitialValue(int spaceIndex) {
+		return initialCondition.applyAsDouble(x[spaceIndex]);
+	}
 
-		/*
-		 * The problem here is that we don't have a clear idea of the approximated form of the solution at the right boundary
-		 * (i.e., for large space variable x). However, since we suppose the coefficients of the PDE to be Lipschitz and then with growth
-		 * no more than linear in x, we can guess the same for the solution. That is, the limit of the second derivative for large x should be zero.
-		 * We impose this. 
-		 */
-		solutionAtCurrentTime[numberOfSpaceSteps] = 2*solutionAtCurrentTime[numberOfSpaceSteps-1] - solutionAtCurrentTime[numberOfSpaceSteps-2];
+	double getValueAtLeftBoundary(double time) {
+		return conditionAtLeftBoundary.applyAsDouble(x[0], time);
+	}
+
+	double getSpaceStep() {
+		return dx;
+	}
+
+	double getTimeStep() {
+		return dt;
+	}
+
+	double getLeftEndOfSpaceInterval() {
+		return xMin;
+	}
+
+	int getNumberOfSpaceSteps() {
+		return numberOfSpaceSteps;
+	}
 
-		return solutionAtCurrentTime;
+	int getNumberOfTimeSteps() {
+		return numberOfTimeSteps;
+	}
+
+	int getNumberOfRannacherSteps() {
+		return numberOfRannacherSteps;
+	}
+
+	double getToleranceForAdaptiveStepping() {
+		return toleranceForAdaptiveStepping;
+	}
+
+	//it is called when the solution has been computed together with the ones of other problems
+	void setSolution(DenseMatrix solution, int numberOfSolvedLinearSystems) {
+		this.solution = solution;
+		this.numberOfSolvedLinearSystems = numberOfSolvedLinearSystems;
+		isSolutionUpToDate = true;
 	}
 
 
@@ -276,27 +642,62 @@ public class CrankNicholsonPDESolver {
 	 */
 	public double getSolutionForGivenTimeAndSpace(double time, double space) {
 
-		if (solution == null) {
+		if (!isSolutionUpToDate) {
 			solveAndSave();
 		}
 
 		int timeIndex = (int) Math.round(time / dt);
 		int spaceIndex = (int) Math.round((space - xMin) / dx);
 
-		return solution[timeIndex][spaceIndex];
+		return solution.get(timeIndex, spaceIndex);
+	}
+
+	/**
+	 * It returns an object which interpolates the solution of the PDE, linearly in time and with the given method in space. Differently
+	 * from getSolutionForGivenTimeAndSpace, which returns the value at the closest point of the grid, it is accurate also outside the grid.
+	 * @param spaceInterpolation, the method to interpolate in space
+	 * @return an object which interpolates the solution of the PDE
+	 */
+	public SolutionInterpolator getInterpolatedSolution(SolutionInterpolator.SpaceInterpolation spaceInterpolation) {
+		if (!isSolutionUpToDate) {
+			solveAndSave();
+		}
+		return new SolutionInterpolator(solution, 0.0, dt, xMin, dx, spaceInterpolation);
 	}
 
 	/**
-	 * It returns the solution of the PDE as a matrix. 
+	 * It returns the solution of the PDE as a matrix. The values are copied, so the matrix can be modified.
 	 * @return the solution of the PDE as a matrix. Time is on the rows, space on the columns
 	 */
 	public double[][] getSolution() {
-		if (solution == null) {
+		if (!isSolutionUpToDate) {
 			solveAndSave();
 		}
-		return solution;
+		return solution.toArray();
 	}
 
+	/**
+	 * It returns the solution of the PDE as a DenseMatrix, whose elements are stored in one array. It is not a copy, so nothing is
+	 * allocated: the matrix must not be modified, and it is overwritten when the solution is computed again after two calls of setControls.
+	 * @return the solution of the PDE as a DenseMatrix. Time is on the rows, space on the columns
+	 */
+	public DenseMatrix getSolutionAsDenseMatrix() {
+		if (!isSolutionUpToDate) {
+			solveAndSave();
+		}
+		return solution;
+	}
 
+	/**
+	 * It returns the number of linear systems which have been solved in order to compute the solution. It can be used to measure
+	 * the cost of the computation, for example when comparing different tolerances for the adaptive time stepping.
+	 * @return the number of linear systems which have been solved in order to compute the solution
+	 */
+	public int getNumberOfSolvedLinearSystems() {
+		if (!isSolutionUpToDate) {
+			solveAndSave();
+		}
+		return numberOfSolvedLinearSystems;
+	}
 
 }
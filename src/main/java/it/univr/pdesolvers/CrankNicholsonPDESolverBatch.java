@@ -0,0 +1,351 @@
+package it.univr.pdesolvers;
+
+import java.util.stream.IntStream;
+
+import it.univr.usefulmethodsarrays.DenseMatrix;
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+
+/**
+ * Main goal of this class is to solve together many PDEs of the form handled by CrankNicholsonPDESolver, which differ only in the
+ * functions and in the controls, as it happens for example for sensitivity analysis or when comparing different candidate controls.
+ * The problems must share the space and time grids and the settings of the scheme (number of Rannacher steps and tolerance for the
+ * adaptive time stepping).
+ *
+ * The problems are grouped into batches. The problems of a batch are advanced in time together: all their arrays are stored in an
+ * interleaved way, that is, the value at the i-th point of the space grid for the k-th problem of the batch is stored at position
+ * i * (number of problems of the batch) + k. In this way, the Thomas algorithm runs over contiguous memory for all the problems at once,
+ * and the innermost loops can be vectorized. The batches are in turn solved in parallel. If adaptive time stepping is used, the problems
+ * of a batch share the steps, which are chosen based on the biggest estimated error among them.
+ *
+ * Once the solutions are computed, they are also given to the single CrankNicholsonPDESolver objects, so that one can call their methods
+ * getSolution() and getSolutionForGivenTimeAndSpace(double, double) without solving the PDEs again.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CrankNicholsonPDESolverBatch {
+
+	//the problems to solve
+	private CrankNicholsonPDESolver[] solvers;
+
+	//how many problems are advanced together
+	private int numberOfProblemsPerBatch;
+
+	//these are shared by all the problems
+	private double dx;
+	private double dt;
+	private int numberOfSpaceSteps;
+	private int numberOfTimeSteps;
+	private int numberOfRannacherSteps;
+	private double toleranceForAdaptiveStepping;
+
+	//it will store the solutions of all the problems. The first index is the problem, then time is on the rows, space on the columns
+	private DenseMatrix[] solutions;
+
+
+	/**
+	 * It constructs an object to solve together the PDEs described by the given CrankNicholsonPDESolver objects
+	 *
+	 * @param solvers, the objects describing the PDEs. They must have the same space and time grids, the same number of Rannacher steps
+	 * 		  and the same tolerance for the adaptive time stepping
+	 * @param numberOfProblemsPerBatch, the number of problems which are advanced together. It must be positive: something like 8 or 16
+	 * 		  is a good choice
+	 */
+	public CrankNicholsonPDESolverBatch(CrankNicholsonPDESolver[] solvers, int numberOfProblemsPerBatch) {
+
+		if (numberOfProblemsPerBatch < 1) {
+			throw new IllegalArgumentException("The number of problems per batch must be positive");
+		}
+
+		this.solvers = solvers;
+		this.numberOfProblemsPerBatch = numberOfProblemsPerBatch;
+
+		dx = solvers[0].getSpaceStep();
+		dt = solvers[0].getTimeStep();
+		numberOfSpaceSteps = solvers[0].getNumberOfSpaceSteps();
+		numberOfTimeSteps = solvers[0].getNumberOfTimeSteps();
+		numberOfRannacherSteps = solvers[0].getNumberOfRannacherSteps();
+		toleranceForAdaptiveStepping = solvers[0].getToleranceForAdaptiveStepping();
+
+		for (CrankNicholsonPDESolver solver : solvers) {
+			if (solver.getSpaceStep() != dx || solver.getTimeStep() != dt || solver.getNumberOfSpaceSteps() != numberOfSpaceSteps
+					|| solver.getNumberOfTimeSteps() != numberOfTimeSteps
+					|| solver.getLeftEndOfSpaceInterval() != solvers[0].getLeftEndOfSpaceInterval()
+					|| solver.getNumberOfRannacherSteps() != numberOfRannacherSteps
+					|| solver.getToleranceForAdaptiveStepping() != toleranceForAdaptiveStepping) {
+				throw new IllegalArgumentException("All the problems must share the grids and the settings of the scheme");
+			}
+		}
+	}
+
+
+	//the batches are solved in parallel
+	private void solveAll() {
+		solutions = new DenseMatrix[solvers.length];
+		int numberOfBatches = (solvers.length + numberOfProblemsPerBatch - 1) / numberOfProblemsPerBatch;
+		IntStream.range(0, numberOfBatches).parallel().forEach(batchIndex -> {
+			int firstProblemIndex = batchIndex * numberOfProblemsPerBatch;
+			int numberOfProblems = Math.min(numberOfProblemsPerBatch, solvers.length - firstProblemIndex);
+			new Batch(firstProblemIndex, numberOfProblems).solve();
+		});
+	}
+
+
+	/*
+	 * It contains the interleaved arrays for the problems of a batch, and advances them in time. It works as CrankNicholsonPDESolver,
+	 * with an innermost loop over the problems.
+	 */
+	private class Batch {
+
+		private int firstProblemIndex;
+		private int numberOfProblems;
+
+		//coefficients for the current interval of the time grid, interleaved
+		private double[] halfSquaredVolatilities;
+		private double[] drifts;
+		private double[] valuesOfFunctionForKnownTerm;
+
+		//the tri-diagonal systems, interleaved
+		private double[] lowerDiagonal;
+		private double[] diagonal;
+		private double[] upperDiagonal;
+		private double[] knownTerm;
+		private double[] workingArray;
+
+		//the values at the left boundary at the end of a step, one for every problem
+		private double[] valuesAtLeftBoundary;
+
+		//the solutions at past and current time, interleaved
+		private double[] solutionAtPastTime;
+		private double[] solutionAtCurrentTime;
+
+		//they are only used for the adaptive time stepping
+		private double[] solutionWithOneStep;
+		private double[] solutionWithTwoSteps;
+		private double proposedStep;
+		private double minimumStep;
+
+		private int numberOfSolvedLinearSystems;
+
+		Batch(int firstProblemIndex, int numberOfProblems) {
+			this.firstProblemIndex = firstProblemIndex;
+			this.numberOfProblems = numberOfProblems;
+
+			int numberOfPoints = (numberOfSpaceSteps + 1) * numberOfProblems;
+			int numberOfUnknowns = (numberOfSpaceSteps - 1) * numberOfProblems;
+
+			halfSquaredVolatilities = new double[numberOfPoints];
+			drifts = new double[numberOfPoints];
+			valuesOfFunctionForKnownTerm = new double[numberOfPoints];
+
+			lowerDiagonal = new double[numberOfUnknowns];
+			diagonal = new double[numberOfUnknowns];
+			upperDiagonal = new double[numberOfUnknowns];
+			knownTerm = new double[numberOfUnknowns];
+			workingArray = new double[numberOfUnknowns];
+
+			valuesAtLeftBoundary = new double[numberOfProblems];
+
+			solutionAtPastTime = new double[numberOfPoints];
+			solutionAtCurrentTime = new double[numberOfPoints];
+
+			if (toleranceForAdaptiveStepping > 0) {
+				solutionWithOneStep = new double[numberOfPoints];
+				solutionWithTwoSteps = new double[numberOfPoints];
+			}
+			proposedStep = dt;
+			minimumStep = dt / 1024;
+		}
+
+		void solve() {
+
+			DenseMatrix[] solutionsOfBatch = new DenseMatrix[numberOfProblems];
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				solutionsOfBatch[problemIndex] = new DenseMatrix(numberOfTimeSteps + 1, numberOfSpaceSteps + 1);
+			}
+
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+					solutionAtPastTime[spaceIndex * numberOfProblems + problemIndex] = solvers[firstProblemIndex + problemIndex].getInitialValue(spaceIndex);
+				}
+			}
+			saveSolution(solutionsOfBatch, solutionAtPastTime, 0);
+
+			for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex++) {
+
+				double currentTime = timeIndex * dt;
+
+				for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+					solvers[firstProblemIndex + problemIndex].computeCoefficients(timeIndex, halfSquaredVolatilities, drifts,
+							valuesOfFunctionForKnownTerm, problemIndex, numberOfProblems);
+				}
+
+				if (timeIndex <= numberOfRannacherSteps) {
+					makeStep(solutionAtPastTime, solutionAtCurrentTime, 0.5 * dt, 1.0, currentTime - 0.5 * dt);
+					makeStep(solutionAtCurrentTime, solutionAtCurrentTime, 0.5 * dt, 1.0, currentTime);
+				} else if (toleranceForAdaptiveStepping <= 0) {
+					makeStep(solutionAtPastTime, solutionAtCurrentTime, dt, 0.5, currentTime);
+				} else {
+					makeAdaptiveSteps(currentTime - dt, currentTime);
+				}
+
+				saveSolution(solutionsOfBatch, solutionAtCurrentTime, timeIndex);
+
+				//we swap the two arrays, so that nothing gets allocated
+				double[] temporary = solutionAtPastTime;
+				solutionAtPastTime = solutionAtCurrentTime;
+				solutionAtCurrentTime = temporary;
+			}
+
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				solutions[firstProblemIndex + problemIndex] = solutionsOfBatch[problemIndex];
+				//the solver gets its own copy, so that nothing done on it, as solving it again for new controls, changes the solution stored here
+				solvers[firstProblemIndex + problemIndex].setSolution(solutionsOfBatch[problemIndex].copy(), numberOfSolvedLinearSystems);
+			}
+		}
+
+		//it copies the interleaved solution into the matrices of the single problems
+		private void saveSolution(DenseMatrix[] solutionsOfBatch, double[] interleavedSolution, int timeIndex) {
+			for (int spaceIndex = 0; spaceIndex <= numberOfSpaceSteps; spaceIndex++) {
+				int position = spaceIndex * numberOfProblems;
+				for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+					solutionsOfBatch[problemIndex].set(timeIndex, spaceIndex, interleavedSolution[position + problemIndex]);
+				}
+			}
+		}
+
+		//a step of the theta-scheme for all the problems of the batch, see the method with the same name in CrankNicholsonPDESolver
+		private void makeStep(double[] pastSolution, double[] newSolution, double timeStep, double theta, double timeAtEndOfStep) {
+
+			double multiplyTermSecondDerivative = timeStep / (dx * dx);
+			double multiplyTermFirstDerivative = 0.5 * timeStep / dx;
+
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				valuesAtLeftBoundary[problemIndex] = solvers[firstProblemIndex + problemIndex].getValueAtLeftBoundary(timeAtEndOfStep);
+			}
+
+			for (int spaceIndex = 1; spaceIndex < numberOfSpaceSteps; spaceIndex++) {
+
+				int position = spaceIndex * numberOfProblems;
+				int systemPosition = position - numberOfProblems;
+
+				for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+
+					double diffusionTerm = multiplyTermSecondDerivative * halfSquaredVolatilities[position + problemIndex];
+					double driftTerm = multiplyTermFirstDerivative * drifts[position + problemIndex];
+
+					double leftCoefficient = diffusionTerm - driftTerm;
+					double centralCoefficient = - 2 * diffusionTerm;
+					double rightCoefficient = diffusionTerm + driftTerm;
+
+					lowerDiagonal[systemPosition + problemIndex] = - theta * leftCoefficient;
+					diagonal[systemPosition + problemIndex] = 1 - theta * centralCoefficient;
+					upperDiagonal[systemPosition + problemIndex] = - theta * rightCoefficient;
+
+					double explicitTerm = leftCoefficient * pastSolution[position - numberOfProblems + problemIndex]
+							+ centralCoefficient * pastSolution[position + problemIndex]
+							+ rightCoefficient * pastSolution[position + numberOfProblems + problemIndex];
+
+					knownTerm[systemPosition + problemIndex] = pastSolution[position + problemIndex] + (1 - theta) * explicitTerm
+							+ timeStep * valuesOfFunctionForKnownTerm[position + problemIndex];
+				}
+			}
+
+			int lastSystemPosition = (numberOfSpaceSteps - 2) * numberOfProblems;
+			int lastPosition = numberOfSpaceSteps * numberOfProblems;
+
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				knownTerm[problemIndex] -= lowerDiagonal[problemIndex] * valuesAtLeftBoundary[problemIndex];
+				knownTerm[lastSystemPosition + problemIndex] -= upperDiagonal[lastSystemPosition + problemIndex] * pastSolution[lastPosition + problemIndex];
+			}
+
+			UsefulMethodsForArrays.solveInterleavedTridiagonalSystems(lowerDiagonal, diagonal, upperDiagonal, knownTerm, knownTerm, workingArray,
+					numberOfProblems);
+			numberOfSolvedLinearSystems ++;
+
+			//the unknowns are the values at the points of the space grid from the second to the second last
+			System.arraycopy(knownTerm, 0, newSolution, numberOfProblems, knownTerm.length);
+
+			for (int problemIndex = 0; problemIndex < numberOfProblems; problemIndex++) {
+				newSolution[problemIndex] = valuesAtLeftBoundary[problemIndex];
+				//second derivative equal to zero at the right boundary
+				newSolution[lastPosition + problemIndex] = 2 * newSolution[lastPosition - numberOfProblems + problemIndex]
+						- newSolution[lastPosition - 2 * numberOfProblems + problemIndex];
+			}
+		}
+
+		//adaptive steps from pastTime to currentTime, with the biggest estimated error among the problems of the batch
+		private void makeAdaptiveSteps(double pastTime, double currentTime) {
+
+			System.arraycopy(solutionAtPastTime, 0, solutionAtCurrentTime, 0, solutionAtPastTime.length);
+
+			double time = pastTime;
+
+			while (currentTime - time > 1E-10 * dt) {
+
+				double step = Math.min(proposedStep, currentTime - time);
+
+				makeStep(solutionAtCurrentTime, solutionWithOneStep, step, 0.5, time + step);
+				makeStep(solutionAtCurrentTime, solutionWithTwoSteps, 0.5 * step, 0.5, time + 0.5 * step);
+				makeStep(solutionWithTwoSteps, solutionWithTwoSteps, 0.5 * step, 0.5, time + step);
+
+				double estimatedError = 0;
+				for (int position = 0; position < solutionWithTwoSteps.length; position++) {
+					double difference = Math.abs(solutionWithTwoSteps[position] - solutionWithOneStep[position])
+							/ (3 * (1 + Math.abs(solutionWithTwoSteps[position])));
+					estimatedError = Math.max(estimatedError, difference);
+				}
+
+				double factorForStep = estimatedError == 0 ? 2.0
+						: Math.min(2.0, Math.max(0.2, 0.9 * Math.pow(toleranceForAdaptiveStepping / estimatedError, 1.0 / 3)));
+
+				if (estimatedError <= toleranceForAdaptiveStepping || step <= minimumStep) {
+					System.arraycopy(solutionWithTwoSteps, 0, solutionAtCurrentTime, 0, solutionWithTwoSteps.length);
+					time += step;
+					proposedStep = Math.max(step == proposedStep ? 0 : proposedStep, step * factorForStep);
+				} else {
+					proposedStep = Math.max(minimumStep, step * factorForStep);
+				}
+				proposedStep = Math.min(proposedStep, dt);
+			}
+		}
+	}
+
+
+	/**
+	 * It returns the solutions of all the PDEs. The values are copied, so the matrices can be modified.
+	 * @return the solutions of all the PDEs. The first index is the one of the problem, then time is on the rows and space on the columns
+	 */
+	public double[][][] getSolutions() {
+		if (solutions == null) {
+			solveAll();
+		}
+		double[][][] solutionsAsArrays = new double[solutions.length][][];
+		for (int problemIndex = 0; problemIndex < solutions.length; problemIndex++) {
+			solutionsAsArrays[problemIndex] = solutions[problemIndex].toArray();
+		}
+		return solutionsAsArrays;
+	}
+
+	/**
+	 * It returns the solution of one of the PDEs. The values are copied, so the matrix can be modified.
+	 * @param problemIndex, the index of the problem in the array given in the constructor
+	 * @return the solution of the PDE as a matrix. Time is on the rows, space on the columns
+	 */
+	public double[][] getSolution(int problemIndex) {
+		return getSolutionAsDenseMatrix(problemIndex).toArray();
+	}
+
+	/**
+	 * It returns the solution of one of the PDEs as a DenseMatrix, whose elements are stored in one array. It is not a copy, so it must
+	 * not be modified.
+	 * @param problemIndex, the index of the problem in the array given in the constructor
+	 * @return the solution of the PDE as a DenseMatrix. Time is on the rows, space on the columns
+	 */
+	public DenseMatrix getSolutionAsDenseMatrix(int problemIndex) {
+		if (solutions == null) {
+			solveAll();
+		}
+		return solutions[problemIndex];
+	}
+}
@@ -0,0 +1,519 @@
+package it.univr.pdesolvers;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.stream.IntStream;
+
+import it.univr.usefulmethodsarrays.UsefulMethodsForArrays;
+
+/**
+ * Main goal of this class is to numerically approximate the solution of the PDE with two space variables
+ *
+ * \partial_t v(t,x,y) = 1/2 (\sigma_x(t,x,y,a))^2 \partial_xx v(t,x,y) + 1/2 (\sigma_y(t,x,y,a))^2 \partial_yy v(t,x,y)
+ * 		+ \rho(t,x,y,a) \sigma_x(t,x,y,a) \sigma_y(t,x,y,a) \partial_xy v(t,x,y)
+ * 		+ b_x(t,x,y,a) \partial_x v(t,x,y) + b_y(t,x,y,a) \partial_y v(t,x,y) + f(t,x,y,a), (t,x,y) \in (0,T] x R x R,
+ * v(0,x,y)=g(x,y), (x,y) \in R x R,
+ *
+ * where a = a(t,x,y) is a vector of controls of any dimension d. Problems of this kind come for example from stochastic volatility models
+ * or from hedging with two assets. As for CrankNicholsonPDESolver, the time variable t can be interpreted as the difference between final
+ * time T and current time in the PDE coming from the control problem.
+ *
+ * Solving the whole system of the Crank-Nicholson scheme would mean to solve at every time step a linear system whose matrix has
+ * (number of points for x) * (number of points for y) rows, which is not feasible. Here we use instead the alternating direction implicit
+ * (ADI) scheme of Douglas: calling L_x, L_y and L_xy the discretized operators with the derivatives with respect to x only, to y only and
+ * the mixed one, we compute
+ *
+ * Y_0 = v_past + dt (L_x + L_y + L_xy) v_past + dt f,
+ * (I - theta dt L_x) Y_1 = Y_0 - theta dt L_x v_past,
+ * (I - theta dt L_y) Y_2 = Y_1 - theta dt L_y v_past,
+ *
+ * and Y_2 is the solution at the new time. The mixed derivative is then treated explicitly, whereas every one of the two implicit stages
+ * consists of independent tri-diagonal systems, one for every line of the grid in the given direction. They are solved via the Thomas
+ * algorithm of UsefulMethodsForArrays, and the lines are split among the available processors.
+ * With theta = 1/2 the scheme is of second order in time when there is no mixed derivative, and it is unconditionally stable for every
+ * theta >= 1/2.
+ *
+ * The boundary conditions are in the same style as for CrankNicholsonPDESolver: the values at the left boundaries x = xMin and y = yMin
+ * are given, whereas at the right boundaries we impose the second derivative in the given direction to be zero. At the corner (xMin, yMin)
+ * the condition for the left boundary of x is used.
+ *
+ * The controls are stored in a one-dimensional array of primitive doubles: the value a_k(t_i,x_j,y_l) is at position
+ * ((i * (number of points for x) + j) * (number of points for y) + l) * d + k. The coefficients of the PDE are kept constant in any
+ * interval of the time grid, and computed with the controls of that interval.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class DouglasADIPDESolverFor2DSpace {
+
+	//steps for the two space variables and for time
+	private double dx;
+	private double dy;
+	private double dt;
+
+	//left boundaries of the intervals for the two space variables. They will be needed in getSolutionForGivenTimeAndSpace
+	private double xMin;
+	private double yMin;
+
+	//vectors for space and time
+	private double[] x;
+	private double[] y;
+	private double[] t;
+
+	private int numberOfStepsForX;
+	private int numberOfStepsForY;
+	private int numberOfTimeSteps;
+
+	//the solution at (x_j,y_l) is stored at position j * numberOfPointsForY + l
+	private int numberOfPointsForY;
+
+	//this can be interpreted as the final condition in the control problem (remember that time is flipped)
+	private DoubleBinaryOperator initialCondition;
+
+	//conditions at the left boundaries: the first one is a function of (y, time), the second one of (x, time)
+	private DoubleBinaryOperator conditionAtLeftBoundaryForX;
+	private DoubleBinaryOperator conditionAtLeftBoundaryForY;
+
+	//functions of time, space and of the vector of controls
+	private FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForX;
+	private FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForY;
+	private FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForX;
+	private FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForY;
+	private FunctionOfTimeTwoSpaceVariablesAndControls correlationFunction;
+	private FunctionOfTimeTwoSpaceVariablesAndControls functionForKnownTerm;//it is the running reward function for the control problem
+
+	//the controls, stored in a one-dimensional array as explained in the documentation of the class
+	private double[] controls;
+	private int controlDimension;
+
+	//the weight of the implicit part in the two implicit stages
+	private double theta;
+
+	/*
+	 * The values of 1/2 sigma_x^2, 1/2 sigma_y^2, rho sigma_x sigma_y, b_x, b_y and f at all the points of the grid, for the current
+	 * interval of the time grid
+	 */
+	private double[] halfSquaredVolatilitiesForX;
+	private double[] halfSquaredVolatilitiesForY;
+	private double[] mixedTerms;
+	private double[] driftsForX;
+	private double[] driftsForY;
+	private double[] valuesOfFunctionForKnownTerm;
+
+	//Y_0, L_x v_past, L_y v_past and Y_1 in the scheme described in the documentation of the class
+	private double[] explicitSolution;
+	private double[] operatorForXAppliedToPastSolution;
+	private double[] operatorForYAppliedToPastSolution;
+	private double[] firstIntermediateSolution;
+
+	/*
+	 * The lines of the grid are split in chunks, which are processed in parallel. Every chunk has its own arrays for the tri-diagonal
+	 * systems and for the controls, so that nothing is shared among threads and nothing is allocated at every time step
+	 */
+	private int numberOfChunks;
+	private double[][][] arraysForSystemsAlongX;
+	private double[][][] arraysForSystemsAlongY;
+	private double[][] controlsAtGivenTimeAndSpace;
+
+	//it will store the whole approximated solution. Time is on the rows, the points of the grid (x_j,y_l) on the columns
+	private double[][] solution;
+
+	//something that is done for a line of the grid, using the arrays of the chunk where the line is
+	@FunctionalInterface
+	private interface TaskForLine {
+		void run(int lineIndex, int chunkIndex);
+	}
+
+
+	/**
+	 * It constructs an object to compute the approximated solution of the PDE
+	 * \partial_t v(t,x,y) = 1/2 (\sigma_x(t,x,y,a))^2 \partial_xx v(t,x,y) + 1/2 (\sigma_y(t,x,y,a))^2 \partial_yy v(t,x,y)
+	 * 		+ \rho(t,x,y,a) \sigma_x(t,x,y,a) \sigma_y(t,x,y,a) \partial_xy v(t,x,y)
+	 * 		+ b_x(t,x,y,a) \partial_x v(t,x,y) + b_y(t,x,y,a) \partial_y v(t,x,y) + f(t,x,y,a), (t,x,y) \in (0,T] x R x R,
+	 * v(0,x,y)=g(x,y), (x,y) \in R x R,
+	 * via the Douglas scheme with theta = 1/2.
+	 *
+	 * @param dx, the step for the first space variable
+	 * @param dy, the step for the second space variable
+	 * @param dt, the time step
+	 * @param xMin, the left boundary of the domain we want to consider for the first space variable
+	 * @param xMax, the right boundary of the domain we want to consider for the first space variable
+	 * @param yMin, the left boundary of the domain we want to consider for the second space variable
+	 * @param yMax, the right boundary of the domain we want to consider for the second space variable
+	 * @param tMax, the final time
+	 * @param driftFunctionForX, the function b_x(t,x,y,a) of time, space and of the vector of controls
+	 * @param driftFunctionForY, the function b_y(t,x,y,a) of time, space and of the vector of controls
+	 * @param volatilityFunctionForX, the function sigma_x(t,x,y,a) of time, space and of the vector of controls
+	 * @param volatilityFunctionForY, the function sigma_y(t,x,y,a) of time, space and of the vector of controls
+	 * @param correlationFunction, the function rho(t,x,y,a) of time, space and of the vector of controls
+	 * @param functionForKnownTerm, the function f(t,x,y,a) of time, space and of the vector of controls
+	 * @param initialCondition, the function g(x,y). This is the final reward function for the optimal control problem
+	 * @param conditionAtLeftBoundaryForX, the value of the solution at x = xMin, as a function of (y, time)
+	 * @param conditionAtLeftBoundaryForY, the value of the solution at y = yMin, as a function of (x, time)
+	 * @param controls, the controls: a_k(t_i,x_j,y_l) is at position ((i * (number of points for x) + j) * (number of points for y) + l)
+	 * 		  * controlDimension + k. The time index i goes from 0 to the number of time steps minus one: the controls of index i are
+	 * 		  used from t_i to t_{i+1}
+	 * @param controlDimension, the dimension d of the vector of controls
+	 */
+	public DouglasADIPDESolverFor2DSpace(double dx, double dy, double dt, double xMin, double xMax, double yMin, double yMax, double tMax,
+			FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForX,
+			FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForY,
+			FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForX,
+			FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForY,
+			FunctionOfTimeTwoSpaceVariablesAndControls correlationFunction,
+			FunctionOfTimeTwoSpaceVariablesAndControls functionForKnownTerm,
+			DoubleBinaryOperator initialCondition, DoubleBinaryOperator conditionAtLeftBoundaryForX,
+			DoubleBinaryOperator conditionAtLeftBoundaryForY, double[] controls, int controlDimension) {
+		this(dx, dy, dt, xMin, xMax, yMin, yMax, tMax, driftFunctionForX, driftFunctionForY, volatilityFunctionForX, volatilityFunctionForY,
+				correlationFunction, functionForKnownTerm, initialCondition, conditionAtLeftBoundaryForX, conditionAtLeftBoundaryForY,
+				controls, controlDimension, 0.5);
+	}
+
+
+	/**
+	 * It constructs an object to compute the approximated solution of the PDE
+	 * \partial_t v(t,x,y) = 1/2 (\sigma_x(t,x,y,a))^2 \partial_xx v(t,x,y) + 1/2 (\sigma_y(t,x,y,a))^2 \partial_yy v(t,x,y)
+	 * 		+ \rho(t,x,y,a) \sigma_x(t,x,y,a) \sigma_y(t,x,y,a) \partial_xy v(t,x,y)
+	 * 		+ b_x(t,x,y,a) \partial_x v(t,x,y) + b_y(t,x,y,a) \partial_y v(t,x,y) + f(t,x,y,a), (t,x,y) \in (0,T] x R x R,
+	 * v(0,x,y)=g(x,y), (x,y) \in R x R,
+	 * via the Douglas scheme with given theta.
+	 *
+	 * @param dx, the step for the first space variable
+	 * @param dy, the step for the second space variable
+	 * @param dt, the time step
+	 * @param xMin, the left boundary of the domain we want to consider for the first space variable
+	 * @param xMax, the right boundary of the domain we want to consider for the first space variable
+	 * @param yMin, the left boundary of the domain we want to consider for the second space variable
+	 * @param yMax, the right boundary of the domain we want to consider for the second space variable
+	 * @param tMax, the final time
+	 * @param driftFunctionForX, the function b_x(t,x,y,a) of time, space and of the vector of controls
+	 * @param driftFunctionForY, the function b_y(t,x,y,a) of time, space and of the vector of controls
+	 * @param volatilityFunctionForX, the function sigma_x(t,x,y,a) of time, space and of the vector of controls
+	 * @param volatilityFunctionForY, the function sigma_y(t,x,y,a) of time, space and of the vector of controls
+	 * @param correlationFunction, the function rho(t,x,y,a) of time, space and of the vector of controls
+	 * @param functionForKnownTerm, the function f(t,x,y,a) of time, space and of the vector of controls
+	 * @param initialCondition, the function g(x,y). This is the final reward function for the optimal control problem
+	 * @param conditionAtLeftBoundaryForX, the value of the solution at x = xMin, as a function of (y, time)
+	 * @param conditionAtLeftBoundaryForY, the value of the solution at y = yMin, as a function of (x, time)
+	 * @param controls, the controls: a_k(t_i,x_j,y_l) is at position ((i * (number of points for x) + j) * (number of points for y) + l)
+	 * 		  * controlDimension + k. The time index i goes from 0 to the number of time steps minus one: the controls of index i are
+	 * 		  used from t_i to t_{i+1}
+	 * @param controlDimension, the dimension d of the vector of controls
+	 * @param theta, the weight of the implicit part in the two implicit stages. It must be at least 1/2 for the scheme to be stable
+	 */
+	public DouglasADIPDESolverFor2DSpace(double dx, double dy, double dt, double xMin, double xMax, double yMin, double yMax, double tMax,
+			FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForX,
+			FunctionOfTimeTwoSpaceVariablesAndControls driftFunctionForY,
+			FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForX,
+			FunctionOfTimeTwoSpaceVariablesAndControls volatilityFunctionForY,
+			FunctionOfTimeTwoSpaceVariablesAndControls correlationFunction,
+			FunctionOfTimeTwoSpaceVariablesAndControls functionForKnownTerm,
+			DoubleBinaryOperator initialCondition, DoubleBinaryOperator conditionAtLeftBoundaryForX,
+			DoubleBinaryOperator conditionAtLeftBoundaryForY, double[] controls, int controlDimension, double theta) {
+
+		this.dx = dx;
+		this.dy = dy;
+		this.dt = dt;
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.initialCondition = initialCondition;
+		this.conditionAtLeftBoundaryForX = conditionAtLeftBoundaryForX;
+		this.conditionAtLeftBoundaryForY = conditionAtLeftBoundaryForY;
+
+		numberOfStepsForX = (int) Math.ceil((xMax - xMin) / dx);
+		numberOfStepsForY = (int) Math.ceil((yMax - yMin) / dy);
+		numberOfTimeSteps = (int) Math.ceil(tMax / dt);
+		numberOfPointsForY = numberOfStepsForY + 1;
+
+		if (numberOfStepsForX < 2 || numberOfStepsForY < 2) {
+			throw new IllegalArgumentException("The grids for the space variables must have at least three points");
+		}
+
+		x = IntStream.range(0, numberOfStepsForX + 1).mapToDouble(i -> xMin + i * dx).toArray();
+		y = IntStream.range(0, numberOfStepsForY + 1).mapToDouble(i -> yMin + i * dy).toArray();
+		t = IntStream.range(0, numberOfTimeSteps + 1).mapToDouble(i -> i * dt).toArray();
+
+		this.driftFunctionForX = driftFunctionForX;
+		this.driftFunctionForY = driftFunctionForY;
+		this.volatilityFunctionForX = volatilityFunctionForX;
+		this.volatilityFunctionForY = volatilityFunctionForY;
+		this.correlationFunction = correlationFunction;
+		this.functionForKnownTerm = functionForKnownTerm;
+		this.controls = controls.clone();//they are copied, so that they cannot be changed from outside after the construction
+		this.controlDimension = controlDimension;
+		this.theta = theta;
+
+		if (controls.length != numberOfTimeSteps * (numberOfStepsForX + 1) * numberOfPointsForY * controlDimension) {
+			throw new IllegalArgumentException("The number of controls does not match the grids and the control dimension");
+		}
+	}
+
+
+	//this is the core of the class: it computes the approximated solution going forward from one time to the other
+	private void solveAndSave() {
+
+		int numberOfPoints = (numberOfStepsForX + 1) * numberOfPointsForY;
+
+		halfSquaredVolatilitiesForX = new double[numberOfPoints];
+		halfSquaredVolatilitiesForY = new double[numberOfPoints];
+		mixedTerms = new double[numberOfPoints];
+		driftsForX = new double[numberOfPoints];
+		driftsForY = new double[numberOfPoints];
+		valuesOfFunctionForKnownTerm = new double[numberOfPoints];
+
+		explicitSolution = new double[numberOfPoints];
+		operatorForXAppliedToPastSolution = new double[numberOfPoints];
+		operatorForYAppliedToPastSolution = new double[numberOfPoints];
+		firstIntermediateSolution = new double[numberOfPoints];
+
+		numberOfChunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Math.min(numberOfStepsForX, numberOfStepsForY) - 1));
+
+		//lower diagonal, diagonal, upper diagonal, known term and working array for every chunk
+		arraysForSystemsAlongX = new double[numberOfChunks][5][numberOfStepsForX - 1];
+		arraysForSystemsAlongY = new double[numberOfChunks][5][numberOfStepsForY - 1];
+		controlsAtGivenTimeAndSpace = new double[numberOfChunks][controlDimension];
+
+		solution = new double[numberOfTimeSteps + 1][];
+
+		//the solution at initial time: given by the initial condition
+		double[] solutionAtPastTime = new double[numberOfPoints];
+		for (int xIndex = 0; xIndex <= numberOfStepsForX; xIndex++) {
+			for (int yIndex = 0; yIndex <= numberOfStepsForY; yIndex++) {
+				solutionAtPastTime[xIndex * numberOfPointsForY + yIndex] = initialCondition.applyAsDouble(x[xIndex], y[yIndex]);
+			}
+		}
+		solution[0] = solutionAtPastTime;
+
+		//a for loop that goes forward in time
+		for (int timeIndex = 1; timeIndex <= numberOfTimeSteps; timeIndex++) {
+			computeCoefficients(timeIndex);
+			solution[timeIndex] = getSolutionAtCurrentTime(solution[timeIndex - 1], t[timeIndex]);
+		}
+	}
+
+	//it runs the task for all the lines from firstIndex (included) to endIndex (excluded), splitting them among the chunks
+	private void runInParallel(int firstIndex, int endIndex, TaskForLine task) {
+		int numberOfLines = endIndex - firstIndex;
+		IntStream.range(0, numberOfChunks).parallel().forEach(chunkIndex -> {
+			int firstLineOfChunk = firstIndex + (int) ((long) numberOfLines * chunkIndex / numberOfChunks);
+			int endLineOfChunk = firstIndex + (int) ((long) numberOfLines * (chunkIndex + 1) / numberOfChunks);
+			for (int lineIndex = firstLineOfChunk; lineIndex < endLineOfChunk; lineIndex++) {
+				task.run(lineIndex, chunkIndex);
+			}
+		});
+	}
+
+	/*
+	 * It computes the values of the coefficients for all the points of the grid, in the interval of the time grid ending at the time of
+	 * index timeIndex.
+	 */
+	private void computeCoefficients(int timeIndex) {
+		double time = t[timeIndex];
+		runInParallel(0, numberOfStepsForX + 1, (xIndex, chunkIndex) -> {
+			double[] controlsAtPoint = controlsAtGivenTimeAndSpace[chunkIndex];
+			for (int yIndex = 0; yIndex <= numberOfStepsForY; yIndex++) {
+				int position = xIndex * numberOfPointsForY + yIndex;
+				System.arraycopy(controls, ((timeIndex - 1) * (numberOfStepsForX + 1) * numberOfPointsForY + position) * controlDimension,
+						controlsAtPoint, 0, controlDimension);
+				double sigmaX = volatilityFunctionForX.apply(time, x[xIndex], y[yIndex], controlsAtPoint);
+				double sigmaY = volatilityFunctionForY.apply(time, x[xIndex], y[yIndex], controlsAtPoint);
+				halfSquaredVolatilitiesForX[position] = 0.5 * sigmaX * sigmaX;
+				halfSquaredVolatilitiesForY[position] = 0.5 * sigmaY * sigmaY;
+				mixedTerms[position] = correlationFunction.apply(time, x[xIndex], y[yIndex], controlsAtPoint) * sigmaX * sigmaY;
+				driftsForX[position] = driftFunctionForX.apply(time, x[xIndex], y[yIndex], controlsAtPoint);
+				driftsForY[position] = driftFunctionForY.apply(time, x[xIndex], y[yIndex], controlsAtPoint);
+				valuesOfFunctionForKnownTerm[position] = functionForKnownTerm.apply(time, x[xIndex], y[yIndex], controlsAtPoint);
+			}
+		});
+	}
+
+	//it computes the solution at current time based on the solution at past time, via one step of the Douglas scheme
+	private double[] getSolutionAtCurrentTime(double[] solutionAtPastTime, double currentTime) {
+
+		double[] solutionAtCurrentTime = new double[solutionAtPastTime.length];
+
+		//the stride between two neighbours along x
+		int stride = numberOfPointsForY;
+
+		//first, the explicit stage, where all the derivatives are approximated with the solution at past time
+		runInParallel(1, numberOfStepsForX, (xIndex, chunkIndex) -> {
+			for (int yIndex = 1; yIndex < numberOfStepsForY; yIndex++) {
+				int position = xIndex * stride + yIndex;
+				double center = solutionAtPastTime[position];
+				double left = solutionAtPastTime[position - stride];
+				double right = solutionAtPastTime[position + stride];
+				double down = solutionAtPastTime[position - 1];
+				double up = solutionAtPastTime[position + 1];
+
+				double operatorForX = halfSquaredVolatilitiesForX[position] * (right - 2 * center + left) / (dx * dx)
+						+ driftsForX[position] * (right - left) / (2 * dx);
+				double operatorForY = halfSquaredVolatilitiesForY[position] * (up - 2 * center + down) / (dy * dy)
+						+ driftsForY[position] * (up - down) / (2 * dy);
+				double mixedOperator = mixedTerms[position] * (solutionAtPastTime[position + stride + 1] - solutionAtPastTime[position + stride - 1]
+						- solutionAtPastTime[position - stride + 1] + solutionAtPastTime[position - stride - 1]) / (4 * dx * dy);
+
+				operatorForXAppliedToPastSolution[position] = operatorForX;
+				operatorForYAppliedToPastSolution[position] = operatorForY;
+				explicitSolution[position] = center + dt * (operatorForX + operatorForY + mixedOperator + valuesOfFunctionForKnownTerm[position]);
+			}
+		});
+
+		//then the implicit stage along x: one tri-diagonal system for every line with fixed y
+		runInParallel(1, numberOfStepsForY, (yIndex, chunkIndex) -> {
+			double[][] arrays = arraysForSystemsAlongX[chunkIndex];
+			double[] lowerDiagonal = arrays[0];
+			double[] diagonal = arrays[1];
+			double[] upperDiagonal = arrays[2];
+			double[] knownTerm = arrays[3];
+
+			for (int xIndex = 1; xIndex < numberOfStepsForX; xIndex++) {
+				int position = xIndex * stride + yIndex;
+				double diffusionTerm = theta * dt * halfSquaredVolatilitiesForX[position] / (dx * dx);
+				double driftTerm = theta * dt * driftsForX[position] / (2 * dx);
+				lowerDiagonal[xIndex - 1] = - (diffusionTerm - driftTerm);
+				diagonal[xIndex - 1] = 1 + 2 * diffusionTerm;
+				upperDiagonal[xIndex - 1] = - (diffusionTerm + driftTerm);
+				knownTerm[xIndex - 1] = explicitSolution[position] - theta * dt * operatorForXAppliedToPastSolution[position];
+			}
+
+			//the values at the borders: at the right one we take the one at past time, as in CrankNicholsonPDESolver
+			knownTerm[0] -= lowerDiagonal[0] * conditionAtLeftBoundaryForX.applyAsDouble(y[yIndex], currentTime);
+			knownTerm[numberOfStepsForX - 2] -= upperDiagonal[numberOfStepsForX - 2] * solutionAtPastTime[numberOfStepsForX * stride + yIndex];
+
+			UsefulMethodsForArrays.solveTridiagonalSystem(lowerDiagonal, diagonal, upperDiagonal, knownTerm, knownTerm, arrays[4]);
+
+			for (int xIndex = 1; xIndex < numberOfStepsForX; xIndex++) {
+				firstIntermediateSolution[xIndex * stride + yIndex] = knownTerm[xIndex - 1];
+			}
+		});
+
+		//and finally the implicit stage along y: one tri-diagonal system for every line with fixed x
+		runInParallel(1, numberOfStepsForX, (xIndex, chunkIndex) -> {
+			double[][] arrays = arraysForSystemsAlongY[chunkIndex];
+			double[] lowerDiagonal = arrays[0];
+			double[] diagonal = arrays[1];
+			double[] upperDiagonal = arrays[2];
+			double[] knownTerm = arrays[3];
+
+			for (int yIndex = 1; yIndex < numberOfStepsForY; yIndex++) {
+				int position = xIndex * stride + yIndex;
+				double diffusionTerm = theta * dt * halfSquaredVolatilitiesForY[position] / (dy * dy);
+				double driftTerm = theta * dt * driftsForY[position] / (2 * dy);
+				lowerDiagonal[yIndex - 1] = - (diffusionTerm - driftTerm);
+				diagonal[yIndex - 1] = 1 + 2 * diffusionTerm;
+				upperDiagonal[yIndex - 1] = - (diffusionTerm + driftTerm);
+				knownTerm[yIndex - 1] = firstIntermediateSolution[position] - theta * dt * operatorForYAppliedToPastSolution[position];
+			}
+
+			knownTerm[0] -= lowerDiagonal[0] * conditionAtLeftBoundaryForY.applyAsDouble(x[xIndex], currentTime);
+			knownTerm[numberOfStepsForY - 2] -= upperDiagonal[numberOfStepsForY - 2] * solutionAtPastTime[xIndex * stride + numberOfStepsForY];
+
+			UsefulMethodsForArrays.solveTridiagonalSystem(lowerDiagonal, diagonal, upperDiagonal, knownTerm, knownTerm, arrays[4]);
+
+			System.arraycopy(knownTerm, 0, solutionAtCurrentTime, xIndex * stride + 1, numberOfStepsForY - 1);
+		});
+
+		//the values at the left borders are given
+		for (int xIndex = 1; xIndex <= numberOfStepsForX; xIndex++) {
+			solutionAtCurrentTime[xIndex * stride] = conditionAtLeftBoundaryForY.applyAsDouble(x[xIndex], currentTime);
+		}
+		for (int yIndex = 0; yIndex <= numberOfStepsForY; yIndex++) {
+			solutionAtCurrentTime[yIndex] = conditionAtLeftBoundaryForX.applyAsDouble(y[yIndex], currentTime);
+		}
+
+		/*
+		 * As for CrankNicholsonPDESolver, at the right borders we impose the second derivative in the direction orthogonal to the border
+		 * to be zero.
+		 */
+		for (int xIndex = 1; xIndex < numberOfStepsForX; xIndex++) {
+			int position = xIndex * stride + numberOfStepsForY;
+			solutionAtCurrentTime[position] = 2 * solutionAtCurrentTime[position - 1] - solutionAtCurrentTime[position - 2];
+		}
+		for (int yIndex = 1; yIndex <= numberOfStepsForY; yIndex++) {
+			int position = numberOfStepsForX * stride + yIndex;
+			solutionAtCurrentTime[position] = 2 * solutionAtCurrentTime[position - stride] - solutionAtCurrentTime[position - 2 * stride];
+		}
+
+		return solutionAtCurrentTime;
+	}
+
+
+	/**
+	 * It stores controls given as arrays into a one-dimensional array, in the order required by the constructors of this class.
+	 *
+	 * @param controlArrays, the controls: controlArrays[k][i][j][l] = a_k(t_i,x_j,y_l)
+	 * @return the one-dimensional array where a_k(t_i,x_j,y_l) is at position
+	 * 		   ((i * (number of points for x) + j) * (number of points for y) + l) * d + k
+	 */
+	public static double[] flattenControls(double[][][][] controlArrays) {
+		int controlDimension = controlArrays.length;
+		int numberOfTimes = controlArrays[0].length;
+		int numberOfPointsForX = controlArrays[0][0].length;
+		int numberOfPointsForY = controlArrays[0][0][0].length;
+		double[] controls = new double[numberOfTimes * numberOfPointsForX * numberOfPointsForY * controlDimension];
+		for (int timeIndex = 0; timeIndex < numberOfTimes; timeIndex++) {
+			for (int xIndex = 0; xIndex < numberOfPointsForX; xIndex++) {
+				for (int yIndex = 0; yIndex < numberOfPointsForY; yIndex++) {
+					for (int controlIndex = 0; controlIndex < controlDimension; controlIndex++) {
+						controls[((timeIndex * numberOfPointsForX + xIndex) * numberOfPointsForY + yIndex) * controlDimension + controlIndex]
+								= controlArrays[controlIndex][timeIndex][xIndex][yIndex];
+					}
+				}
+			}
+		}
+		return controls;
+	}
+
+
+	/**
+	 * It returns the approximated solution for given time and space
+	 * @param time
+	 * @param firstSpaceVariable
+	 * @param secondSpaceVariable
+	 * @return the solution at specified time and space
+	 */
+	public double getSolutionForGivenTimeAndSpace(double time, double firstSpaceVariable, double secondSpaceVariable) {
+
+		if (solution == null) {
+			solveAndSave();
+		}
+
+		int timeIndex = (int) Math.round(time / dt);
+		int xIndex = (int) Math.round((firstSpaceVariable - xMin) / dx);
+		int yIndex = (int) Math.round((secondSpaceVariable - yMin) / dy);
+
+		return solution[timeIndex][xIndex * numberOfPointsForY + yIndex];
+	}
+
+	/**
+	 * It returns a copy of the solution of the PDE as a matrix.
+	 * @return the solution of the PDE as a matrix. Time is on the rows, whereas the value at (x_j,y_l) is at the column
+	 * 		   j * (number of points for y) + l
+	 */
+	public double[][] getSolution() {
+		if (solution == null) {
+			solveAndSave();
+		}
+		double[][] copyOfSolution = new double[solution.length][];
+		for (int timeIndex = 0; timeIndex < solution.length; timeIndex++) {
+			copyOfSolution[timeIndex] = solution[timeIndex].clone();
+		}
+		return copyOfSolution;
+	}
+
+	/**
+	 * It returns the solution of the PDE at given time, as a matrix.
+	 * @param time
+	 * @return the solution of the PDE at the given time, as a matrix: the first space variable is on the rows, the second one on the columns
+	 */
+	public double[][] getSolutionAtGivenTime(double time) {
+		if (solution == null) {
+			solveAndSave();
+		}
+		int timeIndex = (int) Math.round(time / dt);
+		double[][] solutionAtGivenTime = new double[numberOfStepsForX + 1][numberOfPointsForY];
+		for (int xIndex = 0; xIndex <= numberOfStepsForX; xIndex++) {
+			System.arraycopy(solution[timeIndex], xIndex * numberOfPointsForY, solutionAtGivenTime[xIndex], 0, numberOfPointsForY);
+		}
+		return solutionAtGivenTime;
+	}
+}
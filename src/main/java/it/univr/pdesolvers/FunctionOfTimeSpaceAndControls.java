@@ -0,0 +1,24 @@
+package it.univr.pdesolvers;
+
+/**
+ * This interface represents a function f(t,x,a_1,...,a_d) of time, space and of a vector of controls of arbitrary dimension d.
+ * Differently from net.finmath.util.TriFunction, it works with primitive doubles, so no boxing takes place when it gets called.
+ * It is used to describe the coefficients of the PDEs solved in this package.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+@FunctionalInterface
+public interface FunctionOfTimeSpaceAndControls {
+
+	/**
+	 * It returns the value of the function
+	 *
+	 * @param time, the time t
+	 * @param space, the space x
+	 * @param controls, the vector of the controls (a_1,...,a_d). It must not be modified, nor stored: the same array can be reused by
+	 * 		  the caller for the next evaluations
+	 * @return the value f(t,x,a_1,...,a_d)
+	 */
+	double apply(double time, double space, double[] controls);
+}
@@ -0,0 +1,25 @@
+package it.univr.pdesolvers;
+
+/**
+ * This interface represents a function f(t,x,y,a_1,...,a_d) of time, of two space variables and of a vector of controls of arbitrary
+ * dimension d. As FunctionOfTimeSpaceAndControls, it works with primitive doubles, so no boxing takes place when it gets called.
+ * It is used to describe the coefficients of the PDEs with two space variables solved in this package.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+@FunctionalInterface
+public interface FunctionOfTimeTwoSpaceVariablesAndControls {
+
+	/**
+	 * It returns the value of the function
+	 *
+	 * @param time, the time t
+	 * @param firstSpaceVariable, the first space variable x
+	 * @param secondSpaceVariable, the second space variable y
+	 * @param controls, the vector of the controls (a_1,...,a_d). It must not be modified, nor stored: the same array can be reused by
+	 * 		  the caller for the next evaluations
+	 * @return the value f(t,x,y,a_1,...,a_d)
+	 */
+	double apply(double time, double firstSpaceVariable, double secondSpaceVariable, double[] controls);
+}
@@ -0,0 +1,208 @@
+package it.univr.pdesolvers;
+
+import it.univr.usefulmethodsarrays.DenseMatrix;
+
+/**
+ * This class interpolates a function of time and space which is known on the points of an equi-spaced grid, as for example the
+ * solution of a PDE computed by CrankNicholsonPDESolver, or the value function and the optimal control computed by PolicyImprovement.
+ * The function is interpolated linearly in time and, according to what the user chooses, linearly or with a monotone cubic
+ * in space. The monotone cubic interpolation is the one of Fritsch and Carlson: it is a cubic Hermite interpolation where the
+ * derivatives at the points of the grid are chosen in such a way that the interpolating function is monotone wherever the values on the
+ * grid are monotone. In this way, it is more accurate than the linear interpolation but it does not introduce spurious oscillations.
+ *
+ * All the values, and for the cubic interpolation also the derivatives, are stored in one-dimensional arrays once for all when the object
+ * is constructed. Then every evaluation only needs a few operations and does not allocate anything, whatever the size of the grid. Values of
+ * time and space outside the grid are moved to the closest border of the grid.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class SolutionInterpolator {
+
+	/**
+	 * The method to interpolate in space
+	 */
+	public enum SpaceInterpolation {
+		LINEAR,
+		MONOTONE_CUBIC
+	}
+
+	//the value at (t_i,x_j) is stored at position i * numberOfSpacePoints + j
+	private double[] values;
+
+	//the derivatives in space at the points of the grid, multiplied by the space step. Only used for the cubic interpolation
+	private double[] derivativesTimesSpaceStep;
+
+	private int numberOfTimes;
+	private int numberOfSpacePoints;
+
+	private double firstTime;
+	private double timeStep;
+	private double leftEndOfSpaceInterval;
+	private double spaceStep;
+
+	private SpaceInterpolation spaceInterpolation;
+
+	/**
+	 * It constructs an object to interpolate a function of time and space known on an equi-spaced grid
+	 *
+	 * @param valuesOnGrid, the values of the function on the grid: valuesOnGrid[i][j] is the value at (t_i,x_j). Time is on the rows,
+	 * 		  space on the columns. They are copied, so the matrix can be modified afterwards
+	 * @param firstTime, the time t_0 of the first row
+	 * @param timeStep, the step of the time grid
+	 * @param leftEndOfSpaceInterval, the point x_0 of the first column
+	 * @param spaceStep, the step of the space grid
+	 * @param spaceInterpolation, the method to interpolate in space
+	 */
+	public SolutionInterpolator(double[][] valuesOnGrid, double firstTime, double timeStep, double leftEndOfSpaceInterval, double spaceStep,
+			SpaceInterpolation spaceInterpolation) {
+		this(DenseMatrix.fromArray(valuesOnGrid).getData(), valuesOnGrid.length, valuesOnGrid[0].length, firstTime, timeStep,
+				leftEndOfSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	/**
+	 * It constructs an object to interpolate a function of time and space known on an equi-spaced grid
+	 *
+	 * @param valuesOnGrid, the values of the function on the grid: the element of row i and column j is the value at (t_i,x_j). They are
+	 * 		  copied, so the matrix can be modified afterwards
+	 * @param firstTime, the time t_0 of the first row
+	 * @param timeStep, the step of the time grid
+	 * @param leftEndOfSpaceInterval, the point x_0 of the first column
+	 * @param spaceStep, the step of the space grid
+	 * @param spaceInterpolation, the method to interpolate in space
+	 */
+	public SolutionInterpolator(DenseMatrix valuesOnGrid, double firstTime, double timeStep, double leftEndOfSpaceInterval, double spaceStep,
+			SpaceInterpolation spaceInterpolation) {
+		this(valuesOnGrid.getData().clone(), valuesOnGrid.getNumberOfRows(), valuesOnGrid.getNumberOfColumns(), firstTime, timeStep,
+				leftEndOfSpaceInterval, spaceStep, spaceInterpolation);
+	}
+
+	//the values are stored row after row in the given array, which is not copied
+	private SolutionInterpolator(double[] values, int numberOfTimes, int numberOfSpacePoints, double firstTime, double timeStep,
+			double leftEndOfSpaceInterval, double spaceStep, SpaceInterpolation spaceInterpolation) {
+
+		if (numberOfSpacePoints < 2) {
+			throw new IllegalArgumentException("The space grid must have at least two points");
+		}
+
+		this.values = values;
+		this.numberOfTimes = numberOfTimes;
+		this.numberOfSpacePoints = numberOfSpacePoints;
+
+		this.firstTime = firstTime;
+		this.timeStep = timeStep;
+		this.leftEndOfSpaceInterval = leftEndOfSpaceInterval;
+		this.spaceStep = spaceStep;
+		this.spaceInterpolation = spaceInterpolation;
+
+		if (spaceInterpolation == SpaceInterpolation.MONOTONE_CUBIC) {
+			derivativesTimesSpaceStep = new double[values.length];
+			for (int timeIndex = 0; timeIndex < numberOfTimes; timeIndex++) {
+				computeMonotoneDerivatives(timeIndex * numberOfSpacePoints);
+			}
+		}
+	}
+
+	/*
+	 * It computes the derivatives of the monotone cubic interpolation of Fritsch and Carlson for the row of the grid starting at
+	 * firstPosition. Since the space step is the same for all the points, we work directly with the differences of the values, i.e.,
+	 * with the slopes multiplied by the space step.
+	 */
+	private void computeMonotoneDerivatives(int firstPosition) {
+
+		int lastPosition = firstPosition + numberOfSpacePoints - 1;
+
+		//first guess: the average of the slopes at the left and at the right, or zero if they have different signs
+		derivativesTimesSpaceStep[firstPosition] = values[firstPosition + 1] - values[firstPosition];
+		derivativesTimesSpaceStep[lastPosition] = values[lastPosition] - values[lastPosition - 1];
+		for (int position = firstPosition + 1; position < lastPosition; position++) {
+			double leftDifference = values[position] - values[position - 1];
+			double rightDifference = values[position + 1] - values[position];
+			derivativesTimesSpaceStep[position] = leftDifference * rightDifference <= 0 ? 0.0 : 0.5 * (leftDifference + rightDifference);
+		}
+
+		//then the derivatives are reduced where they are too big to preserve monotonicity
+		for (int position = firstPosition; position < lastPosition; position++) {
+			double difference = values[position + 1] - values[position];
+			if (difference == 0) {
+				derivativesTimesSpaceStep[position] = 0.0;
+				derivativesTimesSpaceStep[position + 1] = 0.0;
+				continue;
+			}
+			double alpha = derivativesTimesSpaceStep[position] / difference;
+			double beta = derivativesTimesSpaceStep[position + 1] / difference;
+			double sumOfSquares = alpha * alpha + beta * beta;
+			if (sumOfSquares > 9) {
+				double tau = 3 / Math.sqrt(sumOfSquares);
+				derivativesTimesSpaceStep[position] = tau * alpha * difference;
+				derivativesTimesSpaceStep[position + 1] = tau * beta * difference;
+			}
+		}
+	}
+
+	//it interpolates in space the row of the grid of index timeIndex, at the point given by spaceIndex and by the weight in [0,1]
+	private double interpolateInSpace(int timeIndex, int spaceIndex, double weight) {
+
+		int position = timeIndex * numberOfSpacePoints + spaceIndex;
+
+		if (spaceInterpolation == SpaceInterpolation.LINEAR) {
+			return values[position] + weight * (values[position + 1] - values[position]);
+		}
+
+		//the basis functions of the cubic Hermite interpolation
+		double oneMinusWeight = 1 - weight;
+		double firstBasis = (1 + 2 * weight) * oneMinusWeight * oneMinusWeight;
+		double secondBasis = weight * oneMinusWeight * oneMinusWeight;
+		double thirdBasis = weight * weight * (3 - 2 * weight);
+		double fourthBasis = - weight * weight * oneMinusWeight;
+
+		return firstBasis * values[position] + secondBasis * derivativesTimesSpaceStep[position]
+				+ thirdBasis * values[position + 1] + fourthBasis * derivativesTimesSpaceStep[position + 1];
+	}
+
+	/**
+	 * It returns the interpolated value of the function at given time and space
+	 *
+	 * @param time
+	 * @param space
+	 * @return the interpolated value at the given time and space
+	 */
+	public double evaluate(double time, double space) {
+
+		//the index of the last point of the space grid on the left of space, and the position of space between it and the next one
+		double scaledSpace = Math.min(Math.max((space - leftEndOfSpaceInterval) / spaceStep, 0.0), numberOfSpacePoints - 1);
+		int spaceIndex = Math.min((int) scaledSpace, numberOfSpacePoints - 2);
+		double spaceWeight = scaledSpace - spaceIndex;
+
+		if (numberOfTimes == 1) {
+			return interpolateInSpace(0, spaceIndex, spaceWeight);
+		}
+
+		//the same for time
+		double scaledTime = Math.min(Math.max((time - firstTime) / timeStep, 0.0), numberOfTimes - 1);
+		int timeIndex = Math.min((int) scaledTime, numberOfTimes - 2);
+		double timeWeight = scaledTime - timeIndex;
+
+		return (1 - timeWeight) * interpolateInSpace(timeIndex, spaceIndex, spaceWeight)
+				+ timeWeight * interpolateInSpace(timeIndex + 1, spaceIndex, spaceWeight);
+	}
+
+	/**
+	 * It computes the interpolated values of the function for many couples of time and space, and writes them in a given array.
+	 * Nothing is allocated, so this is the method to call when the function has to be evaluated many times, for example within a simulation.
+	 *
+	 * @param times, the times
+	 * @param spaces, the values of space, one for every time
+	 * @param results, the array where the interpolated value at (times[i], spaces[i]) is written at position i
+	 */
+	public void evaluate(double[] times, double[] spaces, double[] results) {
+
+		if (times.length != spaces.length || results.length < times.length) {
+			throw new IllegalArgumentException("The arrays of times and of spaces must have the same length, and the array of results must not be shorter");
+		}
+
+		for (int i = 0; i < times.length; i++) {
+			results[i] = evaluate(times[i], spaces[i]);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package it.univr.usefulmethodsarrays;
+
+/**
+ * This interface collects the loops on arrays of doubles which are called at every iteration of the algorithms, for example to check
+ * if the iterations have converged. It has two implementations: ScalarArrayKernels, with plain loops, and VectorArrayKernels, which
+ * uses the Vector API of the module jdk.incubator.vector to operate on more elements with one instruction. UsefulMethodsForArrays
+ * chooses the second one when the module is available at runtime, and the first one otherwise. All the methods suppose the arrays
+ * not to be empty and to have the same length, which is checked by UsefulMethodsForArrays.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+interface ArrayKernels {
+
+	/**
+	 * It returns the biggest element of the array
+	 *
+	 * @param array
+	 * @return the biggest element of the array
+	 */
+	double max(double[] array);
+
+	/**
+	 * It returns the smallest element of the array
+	 *
+	 * @param array
+	 * @return the smallest element of the array
+	 */
+	double min(double[] array);
+
+	/**
+	 * It returns the maximum absolute difference between the elements of the two arrays with the same index
+	 *
+	 * @param firstArray
+	 * @param secondArray
+	 * @return the maximum absolute difference between firstArray and secondArray
+	 */
+	double maxAbsoluteDifference(double[] firstArray, double[] secondArray);
+
+	/**
+	 * It returns the maximum absolute difference between the elements of the two arrays with the same index and, in the same loop,
+	 * copies the first array into the second one
+	 *
+	 * @param newArray, the array which is copied
+	 * @param oldArray, the array where newArray is copied
+	 * @return the maximum absolute difference between newArray and oldArray, before the copy
+	 */
+	double maxAbsoluteDifferenceAndCopy(double[] newArray, double[] oldArray);
+
+	/**
+	 * It returns the sum of the absolute differences between the elements of the two arrays with the same index
+	 *
+	 * @param firstArray
+	 * @param secondArray
+	 * @return the sum of the absolute differences between firstArray and secondArray
+	 */
+	double sumOfAbsoluteDifferences(double[] firstArray, double[] secondArray);
+
+	/**
+	 * It returns the sum of the squared differences between the elements of the two arrays with the same index
+	 *
+	 * @param firstArray
+	 * @param secondArray
+	 * @return the sum of the squared differences between firstArray and secondArray
+	 */
+	double sumOfSquaredDifferences(double[] firstArray, double[] secondArray);
+
+	/**
+	 * It writes in the third array the difference between the first two
+	 *
+	 * @param firstArray
+	 * @param secondArray
+	 * @param difference, the array where firstArray[i] - secondArray[i] is written at position i
+	 */
+	void difference(double[] firstArray, double[] secondArray, double[] difference);
+}
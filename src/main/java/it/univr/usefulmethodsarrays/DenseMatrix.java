@@ -0,0 +1,248 @@
+package it.univr.usefulmethodsarrays;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * This class represents a matrix of doubles whose elements are all stored in one array, row after row: the element of row i and
+ * column j is at position i * numberOfColumns + j. Differently from a matrix double[][], whose rows are different objects that can be
+ * anywhere in memory, the elements are then contiguous. This is better for the cache of the processor when the matrix is read row
+ * after row, as it happens in the PDE solvers, and it allows to copy or compare whole matrices with one loop.
+ *
+ * The array can also be given as it is to other libraries or written to files, for example via Nd4j.create(matrix.getData(),
+ * new long[] {numberOfRows, numberOfColumns}) or via getAsDoubleBuffer(), without copying the elements.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class DenseMatrix {
+
+	private final int numberOfRows;
+	private final int numberOfColumns;
+
+	//the element of row i and column j is at position i * numberOfColumns + j
+	private final double[] data;
+
+	/**
+	 * It constructs a matrix with all the elements equal to zero
+	 *
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 */
+	public DenseMatrix(int numberOfRows, int numberOfColumns) {
+		this(numberOfRows, numberOfColumns, new double[Math.multiplyExact(numberOfRows, numberOfColumns)]);
+	}
+
+	/**
+	 * It constructs a matrix whose elements are stored in the given array, which is not copied
+	 *
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 * @param data, the elements of the matrix: the one of row i and column j is at position i * numberOfColumns + j
+	 */
+	public DenseMatrix(int numberOfRows, int numberOfColumns, double[] data) {
+		if (data.length != (long) numberOfRows * numberOfColumns) {
+			throw new IllegalArgumentException("The length of the array does not match the number of rows and columns");
+		}
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+		this.data = data;
+	}
+
+	/**
+	 * It constructs a matrix with the same elements as a matrix double[][], which are copied
+	 *
+	 * @param matrix, the matrix. All its rows must have the same length
+	 * @return the new matrix
+	 */
+	public static DenseMatrix fromArray(double[][] matrix) {
+		int numberOfColumns = matrix.length == 0 ? 0 : matrix[0].length;
+		DenseMatrix denseMatrix = new DenseMatrix(matrix.length, numberOfColumns);
+		for (int rowIndex = 0; rowIndex < matrix.length; rowIndex++) {
+			denseMatrix.setRow(rowIndex, matrix[rowIndex]);
+		}
+		return denseMatrix;
+	}
+
+	/**
+	 * It returns the number of rows of the matrix
+	 *
+	 * @return the number of rows of the matrix
+	 */
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	/**
+	 * It returns the number of columns of the matrix
+	 *
+	 * @return the number of columns of the matrix
+	 */
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	/**
+	 * It returns the element of given row and column
+	 *
+	 * @param rowIndex
+	 * @param columnIndex
+	 * @return the element of given row and column
+	 */
+	public double get(int rowIndex, int columnIndex) {
+		return data[rowIndex * numberOfColumns + columnIndex];
+	}
+
+	/**
+	 * It sets the element of given row and column
+	 *
+	 * @param rowIndex
+	 * @param columnIndex
+	 * @param value, the new value of the element
+	 */
+	public void set(int rowIndex, int columnIndex, double value) {
+		data[rowIndex * numberOfColumns + columnIndex] = value;
+	}
+
+	/**
+	 * It returns the array where the elements of the matrix are stored. It is not a copy: changing it changes the matrix.
+	 * The elements of row i start at position getPositionOfRow(i).
+	 *
+	 * @return the array where the elements of the matrix are stored
+	 */
+	public double[] getData() {
+		return data;
+	}
+
+	/**
+	 * It returns the position of the first element of the given row in the array returned by getData()
+	 *
+	 * @param rowIndex
+	 * @return the position of the first element of the row
+	 */
+	public int getPositionOfRow(int rowIndex) {
+		return rowIndex * numberOfColumns;
+	}
+
+	/**
+	 * It returns a buffer which reads and writes only the elements of the given row, without copying them
+	 *
+	 * @param rowIndex
+	 * @return a buffer for the elements of the row
+	 */
+	public DoubleBuffer getRowAsDoubleBuffer(int rowIndex) {
+		return DoubleBuffer.wrap(data, rowIndex * numberOfColumns, numberOfColumns).slice();
+	}
+
+	/**
+	 * It returns a buffer which reads and writes all the elements of the matrix, row after row, without copying them
+	 *
+	 * @return a buffer for the elements of the matrix
+	 */
+	public DoubleBuffer getAsDoubleBuffer() {
+		return DoubleBuffer.wrap(data);
+	}
+
+	/**
+	 * It returns a copy of the given row
+	 *
+	 * @param rowIndex
+	 * @return a copy of the row
+	 */
+	public double[] getRow(int rowIndex) {
+		return Arrays.copyOfRange(data, rowIndex * numberOfColumns, (rowIndex + 1) * numberOfColumns);
+	}
+
+	/**
+	 * It copies the given row in a given array
+	 *
+	 * @param rowIndex
+	 * @param destination, the array where the row is copied, from position 0
+	 */
+	public void copyRow(int rowIndex, double[] destination) {
+		System.arraycopy(data, rowIndex * numberOfColumns, destination, 0, numberOfColumns);
+	}
+
+	/**
+	 * It sets the elements of the given row equal to the ones of a given array
+	 *
+	 * @param rowIndex
+	 * @param values, the new values of the row. It must have at least as many elements as the columns of the matrix
+	 */
+	public void setRow(int rowIndex, double[] values) {
+		System.arraycopy(values, 0, data, rowIndex * numberOfColumns, numberOfColumns);
+	}
+
+	/**
+	 * It sets the elements of this matrix equal to the ones of another matrix with the same number of rows and columns
+	 *
+	 * @param otherMatrix
+	 */
+	public void copyFrom(DenseMatrix otherMatrix) {
+		checkDimensions(otherMatrix);
+		System.arraycopy(otherMatrix.data, 0, data, 0, data.length);
+	}
+
+	/**
+	 * It returns a new matrix with the same elements, which are copied
+	 *
+	 * @return a copy of the matrix
+	 */
+	public DenseMatrix copy() {
+		return new DenseMatrix(numberOfRows, numberOfColumns, data.clone());
+	}
+
+	/**
+	 * It returns the elements of the matrix as a matrix double[][]. The elements are copied, so changing the returned matrix
+	 * does not change this one
+	 *
+	 * @return the elements of the matrix as a matrix double[][]
+	 */
+	public double[][] toArray() {
+		double[][] matrix = new double[numberOfRows][];
+		for (int rowIndex = 0; rowIndex < numberOfRows; rowIndex++) {
+			matrix[rowIndex] = getRow(rowIndex);
+		}
+		return matrix;
+	}
+
+	/**
+	 * It returns the maximum absolute difference between the elements of this matrix and the ones of another matrix
+	 *
+	 * @param otherMatrix, a matrix with the same number of rows and columns
+	 * @return the maximum absolute difference between the two matrices
+	 */
+	public double getMaxDifference(DenseMatrix otherMatrix) {
+		checkDimensions(otherMatrix);
+		return UsefulMethodsForArrays.getKernels().maxAbsoluteDifference(data, otherMatrix.data);
+	}
+
+	/**
+	 * It returns the maximum absolute difference between the elements of this matrix and the ones of another matrix and, in the same
+	 * loop, copies this matrix into the other one
+	 *
+	 * @param oldMatrix, a matrix with the same number of rows and columns. At the end of the method, it has the same elements as this one
+	 * @return the maximum absolute difference between the two matrices, computed before the copy
+	 */
+	public double getMaxDifferenceAndCopy(DenseMatrix oldMatrix) {
+		checkDimensions(oldMatrix);
+		return UsefulMethodsForArrays.getKernels().maxAbsoluteDifferenceAndCopy(data, oldMatrix.data);
+	}
+
+	/**
+	 * It returns the average absolute difference between the elements of this matrix and the ones of another matrix
+	 *
+	 * @param otherMatrix, a matrix with the same number of rows and columns
+	 * @return the average absolute difference between the two matrices
+	 */
+	public double getAverageDifference(DenseMatrix otherMatrix) {
+		checkDimensions(otherMatrix);
+		return data.length == 0 ? 0.0 : UsefulMethodsForArrays.getKernels().sumOfAbsoluteDifferences(data, otherMatrix.data) / data.length;
+	}
+
+	private void checkDimensions(DenseMatrix otherMatrix) {
+		if (otherMatrix.numberOfRows != numberOfRows || otherMatrix.numberOfColumns != numberOfColumns) {
+			throw new IllegalArgumentException("The two matrices must have the same number of rows and columns");
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package it.univr.usefulmethodsarrays;
+
+/**
+ * This class implements the loops of ArrayKernels with plain Java loops. It is used when the module jdk.incubator.vector is not available.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+class ScalarArrayKernels implements ArrayKernels {
+
+	@Override
+	public double max(double[] array) {
+		double maximum = array[0];
+		for (int i = 1; i < array.length; i++) {
+			maximum = Math.max(maximum, array[i]);
+		}
+		return maximum;
+	}
+
+	@Override
+	public double min(double[] array) {
+		double minimum = array[0];
+		for (int i = 1; i < array.length; i++) {
+			minimum = Math.min(minimum, array[i]);
+		}
+		return minimum;
+	}
+
+	@Override
+	public double maxAbsoluteDifference(double[] firstArray, double[] secondArray) {
+		double maximum = 0.0;
+		for (int i = 0; i < firstArray.length; i++) {
+			maximum = Math.max(maximum, Math.abs(firstArray[i] - secondArray[i]));
+		}
+		return maximum;
+	}
+
+	@Override
+	public double maxAbsoluteDifferenceAndCopy(double[] newArray, double[] oldArray) {
+		double maximum = 0.0;
+		for (int i = 0; i < newArray.length; i++) {
+			maximum = Math.max(maximum, Math.abs(newArray[i] - oldArray[i]));
+			oldArray[i] = newArray[i];
+		}
+		return maximum;
+	}
+
+	@Override
+	public double sumOfAbsoluteDifferences(double[] firstArray, double[] secondArray) {
+		double sum = 0.0;
+		for (int i = 0; i < firstArray.length; i++) {
+			sum += Math.abs(firstArray[i] - secondArray[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double sumOfSquaredDifferences(double[] firstArray, double[] secondArray) {
+		double sum = 0.0;
+		for (int i = 0; i < firstArray.length; i++) {
+			double difference = firstArray[i] - secondArray[i];
+			sum += difference * difference;
+		}
+		return sum;
+	}
+
+	@Override
+	public void difference(double[] firstArray, double[] secondArray, double[] difference) {
+		for (int i = 0; i < firstArray.length; i++) {
+			difference[i] = firstArray[i] - secondArray[i];
+		}
+	}
+}
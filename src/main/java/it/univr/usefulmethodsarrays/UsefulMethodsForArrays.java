@@ -1,8 +1,8 @@
 package it.univr.usefulmethodsarrays;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.stream.IntStream;
 
 import org.apache.commons.numbers.core.Precision;
@@ -18,16 +18,53 @@ import org.apache.commons.math3.linear.RealVector;
 
 public class UsefulMethodsForArrays {
 
+	/*
+	 * The loops which are called at every iteration of the algorithms, as getMax or getMaxDifference, are implemented with the Vector API
+	 * if the module jdk.incubator.vector is available at runtime, i.e., if the program is run with --add-modules jdk.incubator.vector.
+	 * Otherwise, plain loops are used.
+	 */
+	private static final ArrayKernels KERNELS = chooseKernels();
+
+	private static ArrayKernels chooseKernels() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				//we do not refer to the class directly, otherwise it would be loaded also when the module is not available
+				return (ArrayKernels) Class.forName("it.univr.usefulmethodsarrays.VectorArrayKernels").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				//if something goes wrong, we just use the plain loops
+			}
+		}
+		return new ScalarArrayKernels();
+	}
+
+	//the loops are also used by DenseMatrix
+	static ArrayKernels getKernels() {
+		return KERNELS;
+	}
+
+	/**
+	 * It returns true if the Vector API of the module jdk.incubator.vector is used to compute the maximum, the minimum and the
+	 * differences of arrays, false if plain loops are used
+	 *
+	 * @return true if the Vector API is used
+	 */
+	public static boolean isVectorApiUsed() {
+		return KERNELS instanceof VectorArrayKernels;
+	}
+
 
 	/**
 	 * It returns the biggest element of a one-dimensional array of doubles
 	 *
 	 * @param vector the one-dimensional array
 	 * @return the biggest element of the one-dimensional array
+	 * @throws NoSuchElementException if the array is empty
 	 */
 	public static double getMax(double[] array) {
-		double maximum = Arrays.stream(array).max().getAsDouble();
-		return maximum;
+		if (array.length == 0) {
+			throw new NoSuchElementException("The array is empty");
+		}
+		return KERNELS.max(array);
 	}
 
 
@@ -36,10 +73,13 @@ public class UsefulMethodsForArrays {
 	 *
 	 * @param vector the one-dimensional array
 	 * @return the smallest element of the one-dimensional array
+	 * @throws NoSuchElementException if the array is empty
 	 */
 	public static double getMin(double[] array) {
-		double minimum = Arrays.stream(array).min().getAsDouble();
-		return minimum;
+		if (array.length == 0) {
+			throw new NoSuchElementException("The array is empty");
+		}
+		return KERNELS.min(array);
 	}
 	
 	
@@ -55,10 +95,32 @@ public class UsefulMethodsForArrays {
 		if (firstArray.length != secondArray.length) {
 			throw new Exception();
 		}
+		if (firstArray.length == 0) {
+			throw new NoSuchElementException("The arrays are empty");
+		}
 
-		return IntStream.range(0, firstArray.length)//the indices range from 0 to array.length-1
-				.mapToDouble(i -> Math.abs(firstArray[i] - secondArray[i]))
-				.max().getAsDouble();
+		return KERNELS.maxAbsoluteDifference(firstArray, secondArray);
+	}
+
+
+	/**
+	 * It computes and returns the maximum absolute difference between two arrays and, in the same loop, copies the first array into the
+	 * second one. It is meant to check the convergence of an iterative method and to update the past values, reading the arrays only once.
+	 * @param newArray, the array of the new values
+	 * @param oldArray, the array of the past values. At the end of the method, it contains the same values as newArray
+	 * @return the maximum absolute difference between newArray and oldArray, computed before the copy
+	 * @throws IllegalArgumentException if the two arrays have different lengths
+	 */
+	public static double getMaxDifferenceAndCopy(double[] newArray, double[] oldArray) {
+
+		if (newArray.length != oldArray.length) {
+			throw new IllegalArgumentException("The two arrays must have the same length");
+		}
+		if (newArray.length == 0) {
+			return 0.0;
+		}
+
+		return KERNELS.maxAbsoluteDifferenceAndCopy(newArray, oldArray);
 	}
 
 	/**
@@ -76,18 +138,60 @@ public class UsefulMethodsForArrays {
 
 	
 	/**
-	 * It returns the index which maximizes the value of an array. In case of more elements
-	 * of the array achieving the maximum, index is chosen randomly
+	 * It returns the index which maximizes the value of an array, up to precision of four digits. In case of more elements
+	 * of the array achieving the maximum, index is chosen randomly, with uniform probability.
+	 * The array is read only once and nothing is allocated, so the method can be called many times also from different threads.
 	 * @param array
 	 * @return the index which maximizes the value of an array
 	 */
 	public static int getRandomMaximizingIndex(double[] array) {
-		double maximum = getMax(array);
 
-		int[] maximizingIndices = IntStream.range(0, array.length).filter(i -> Precision.round(array[i],4) == Precision.round(maximum,4)).toArray();
-		return maximizingIndices[Random.nextInt(maximizingIndices.length)];
-	}	
-	
+		double roundedMaximum = Precision.round(array[0], 4);
+		int maximizingIndex = 0;
+		int numberOfMaximizingIndices = 1;
+
+		for (int i = 1; i < array.length; i++) {
+			//if this holds, the rounded value is surely smaller than the rounded maximum, and we don't need to round it
+			if (array[i] < roundedMaximum - 0.6E-4) {
+				continue;
+			}
+			double roundedValue = Precision.round(array[i], 4);
+			if (roundedValue > roundedMaximum) {
+				roundedMaximum = roundedValue;
+				maximizingIndex = i;
+				numberOfMaximizingIndices = 1;
+			} else if (roundedValue == roundedMaximum) {
+				/*
+				 * Reservoir sampling: the k-th maximizing index found replaces the chosen one with probability 1/k. In this way, at the end
+				 * every maximizing index has been chosen with the same probability
+				 */
+				numberOfMaximizingIndices ++;
+				if (Random.nextInt(numberOfMaximizingIndices) == 0) {
+					maximizingIndex = i;
+				}
+			}
+		}
+		return maximizingIndex;
+	}
+
+
+	/**
+	 * It returns the seed of the random generator used for the task of a given index, when every task of a parallel computation has
+	 * its own SplittableRandom object and the results must only depend on a seed given by the user. The seeds cannot be simply
+	 * seed + index * c: a SplittableRandom object with seed s generates its numbers from s + gamma, s + 2 gamma,.., for a fixed gamma,
+	 * so if c is a multiple of gamma the tasks would get the same numbers, only shifted. Here seed + (index + 1) * gamma is mixed by the
+	 * finalizer of the generator SplitMix64, so that the seeds of different tasks are far from each other.
+	 * @param seed, the seed given by the user
+	 * @param index, the index of the task
+	 * @return the seed of the random generator of the task
+	 */
+	public static long getSeedForIndex(long seed, long index) {
+		long mixedSeed = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		mixedSeed = (mixedSeed ^ (mixedSeed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		mixedSeed = (mixedSeed ^ (mixedSeed >>> 27)) * 0x94D049BB133111EBL;
+		return mixedSeed ^ (mixedSeed >>> 31);
+	}
+
 	
     /**
      * It returns the maximum element of a matrix
@@ -147,7 +251,90 @@ public class UsefulMethodsForArrays {
 		RealVector solution = solver.solve(constants);
 		return solution.toArray();
 	}
-	
+
+
+	/**
+	 * It solves the linear system Ax=b when A is tri-diagonal, via the Thomas algorithm. All the arrays have the same length n,
+	 * equal to the number of unknowns: lowerDiagonal[i] multiplies x[i-1] and upperDiagonal[i] multiplies x[i] in the i-th equation,
+	 * so lowerDiagonal[0] and upperDiagonal[n-1] are not used. Nothing is allocated: the solution is written in the array given
+	 * as an argument, and a working array of length n has to be provided as well. The matrix is supposed to be diagonally dominant,
+	 * as it is always the case for the implicit schemes of the PDE solvers, so no pivoting is performed.
+	 *
+	 * @param lowerDiagonal, the elements below the diagonal of A
+	 * @param diagonal, the diagonal of A
+	 * @param upperDiagonal, the elements above the diagonal of A
+	 * @param knownVector, b
+	 * @param solution, the array where the solution x is written. It can be the same array as knownVector
+	 * @param workingArray, an array of length n used to store the modified upper diagonal
+	 */
+	public static void solveTridiagonalSystem(double[] lowerDiagonal, double[] diagonal, double[] upperDiagonal, double[] knownVector,
+			double[] solution, double[] workingArray) {
+
+		int numberOfUnknowns = diagonal.length;
+
+		//forward sweep: we eliminate the lower diagonal
+		double pivot = diagonal[0];
+		workingArray[0] = upperDiagonal[0] / pivot;
+		solution[0] = knownVector[0] / pivot;
+
+		for (int i = 1; i < numberOfUnknowns; i++) {
+			pivot = diagonal[i] - lowerDiagonal[i] * workingArray[i - 1];
+			workingArray[i] = upperDiagonal[i] / pivot;
+			solution[i] = (knownVector[i] - lowerDiagonal[i] * solution[i - 1]) / pivot;
+		}
+
+		//backward substitution
+		for (int i = numberOfUnknowns - 2; i >= 0; i--) {
+			solution[i] -= workingArray[i] * solution[i + 1];
+		}
+	}
+
+
+	/**
+	 * It solves numberOfSystems independent tri-diagonal linear systems with the same number of unknowns n, via the Thomas algorithm.
+	 * The arrays are interleaved: the element of index i of the k-th system is stored at position i * numberOfSystems + k, so all the
+	 * arrays have length n * numberOfSystems. In this way, the innermost loops run over the systems on contiguous memory, and can be
+	 * vectorized by the compiler. The conventions are otherwise the same as for solveTridiagonalSystem.
+	 *
+	 * @param lowerDiagonal, the elements below the diagonals, interleaved
+	 * @param diagonal, the diagonals, interleaved
+	 * @param upperDiagonal, the elements above the diagonals, interleaved
+	 * @param knownVector, the known terms, interleaved
+	 * @param solution, the array where the interleaved solutions are written. It can be the same array as knownVector
+	 * @param workingArray, an array of the same length as the others
+	 * @param numberOfSystems, the number of systems to solve
+	 */
+	public static void solveInterleavedTridiagonalSystems(double[] lowerDiagonal, double[] diagonal, double[] upperDiagonal, double[] knownVector,
+			double[] solution, double[] workingArray, int numberOfSystems) {
+
+		int numberOfUnknowns = diagonal.length / numberOfSystems;
+
+		//forward sweep: we eliminate the lower diagonals
+		for (int k = 0; k < numberOfSystems; k++) {
+			workingArray[k] = upperDiagonal[k] / diagonal[k];
+			solution[k] = knownVector[k] / diagonal[k];
+		}
+
+		for (int i = 1; i < numberOfUnknowns; i++) {
+			int position = i * numberOfSystems;
+			int pastPosition = position - numberOfSystems;
+			for (int k = 0; k < numberOfSystems; k++) {
+				double pivot = diagonal[position + k] - lowerDiagonal[position + k] * workingArray[pastPosition + k];
+				workingArray[position + k] = upperDiagonal[position + k] / pivot;
+				solution[position + k] = (knownVector[position + k] - lowerDiagonal[position + k] * solution[pastPosition + k]) / pivot;
+			}
+		}
+
+		//backward substitution
+		for (int i = numberOfUnknowns - 2; i >= 0; i--) {
+			int position = i * numberOfSystems;
+			int nextPosition = position + numberOfSystems;
+			for (int k = 0; k < numberOfSystems; k++) {
+				solution[position + k] -= workingArray[position + k] * solution[nextPosition + k];
+			}
+		}
+	}
+
 	
 	/**
 	 * It computes the difference between two matrices
@@ -166,9 +353,7 @@ public class UsefulMethodsForArrays {
 		double[][] difference = new double[firstMatrix.length][firstMatrix[0].length];
 		
 		for (int rowIndex = 0; rowIndex <  firstMatrix.length; rowIndex ++) {
-			for (int columnIndex = 0; columnIndex <  firstMatrix[0].length; columnIndex ++) {
-				difference[rowIndex][columnIndex] = firstMatrix[rowIndex][columnIndex]-secondMatrix[rowIndex][columnIndex];
-			}
+			KERNELS.difference(firstMatrix[rowIndex], secondMatrix[rowIndex], difference[rowIndex]);
 		}
 		return difference;
 	}
@@ -180,36 +365,135 @@ public class UsefulMethodsForArrays {
 	 * @return the average absolute value of the difference of the two matrices
 	 */
 	public static double getAverageDifference(double[][] firstMatrix, double[][] secondMatrix) throws Exception {
-		
-		double[][] difference = differenceMatrices(firstMatrix, secondMatrix);
-		
-		double sum = 0; 
-		
-		for (int rowIndex = 0; rowIndex <  firstMatrix.length; rowIndex ++) {
-			for (int columnIndex = 0; columnIndex <  firstMatrix[0].length; columnIndex ++) {
-				sum += Math.abs(difference[rowIndex][columnIndex]);
-			}
-		}
-		return sum/(firstMatrix.length*firstMatrix[0].length);
+		//the dimensions are checked by getSumOfAbsoluteDifferences
+		return getSumOfAbsoluteDifferences(firstMatrix, secondMatrix, false)/(firstMatrix.length*firstMatrix[0].length);
 	}
 	
 	
 	/**
-	 * It computes and returns the maximum sum of the elements of the rows of the matrix which is the difference between
-	 * the two matrices given in input, divided by the number of columns of the matrices.
+	 * It computes and returns the maximum sum of the absolute values of the elements of the columns of the matrix which is the difference
+	 * between the two matrices given in input, divided by the number of columns of the matrices. This is the norm used by the
+	 * Policy Improvement Algorithm to check the convergence of the value function.
 	 * @param firstMatrix
 	 * @param secondMatrix
-	 * @return the maximum sum of the elements of the rows of the matrix which is the difference between
+	 * @return the maximum sum of the absolute values of the elements of the columns of the matrix which is the difference between
 	 * 			the two matrices given in input, divided by the number of columns of the matrices
 	 */
 	public static double getNormDifference(double[][] firstMatrix, double[][] secondMatrix) throws Exception {
 
-		RealMatrix newFirstMatrix = MatrixUtils.createRealMatrix(firstMatrix);
-		RealMatrix newSecondMatrix = MatrixUtils.createRealMatrix(secondMatrix);
+		return getMaxAbsoluteColumnSumOfDifference(firstMatrix, secondMatrix, false)/firstMatrix[0].length;
+	}
+
+
+	/*
+	 * The methods below compute norms of the difference of two matrices, without computing the matrix of the differences: the elements of
+	 * the two matrices are read only once, and nothing is allocated. If parallel is true, the rows (or the columns, for the maximum sum
+	 * over the columns) are split among the available processors: this is only worth it for large matrices.
+	 */
+
+	/**
+	 * It computes and returns the maximum sum of the absolute values of the elements of the columns of the difference of two matrices
+	 * @param firstMatrix
+	 * @param secondMatrix, a matrix with the same number of rows and columns as firstMatrix
+	 * @param parallel, true if the computation has to be split among the available processors
+	 * @return the maximum over j of the sum over i of |firstMatrix[i][j] - secondMatrix[i][j]|
+	 */
+	public static double getMaxAbsoluteColumnSumOfDifference(double[][] firstMatrix, double[][] secondMatrix, boolean parallel) {
 
-		int numberOfColumns = newFirstMatrix.getColumnDimension();
+		checkDimensions(firstMatrix, secondMatrix);
 
-		return newFirstMatrix.subtract(newSecondMatrix).getNorm()/numberOfColumns;
+		IntStream columnIndices = IntStream.range(0, firstMatrix[0].length);
+		if (parallel) {
+			columnIndices = columnIndices.parallel();
+		}
+		return columnIndices.mapToDouble(columnIndex -> {
+			double sum = 0.0;
+			for (int rowIndex = 0; rowIndex < firstMatrix.length; rowIndex++) {
+				sum += Math.abs(firstMatrix[rowIndex][columnIndex] - secondMatrix[rowIndex][columnIndex]);
+			}
+			return sum;
+		}).max().orElse(0.0);
+	}
+
+	/**
+	 * It computes and returns the maximum sum of the absolute values of the elements of the rows of the difference of two matrices
+	 * @param firstMatrix
+	 * @param secondMatrix, a matrix with the same number of rows and columns as firstMatrix
+	 * @param parallel, true if the computation has to be split among the available processors
+	 * @return the maximum over i of the sum over j of |firstMatrix[i][j] - secondMatrix[i][j]|
+	 */
+	public static double getMaxAbsoluteRowSumOfDifference(double[][] firstMatrix, double[][] secondMatrix, boolean parallel) {
+
+		checkDimensions(firstMatrix, secondMatrix);
+
+		return getRowIndices(firstMatrix.length, parallel)
+				.mapToDouble(rowIndex -> KERNELS.sumOfAbsoluteDifferences(firstMatrix[rowIndex], secondMatrix[rowIndex]))
+				.max().orElse(0.0);
+	}
+
+	/**
+	 * It computes and returns the maximum absolute value of the elements of the difference of two matrices
+	 * @param firstMatrix
+	 * @param secondMatrix, a matrix with the same number of rows and columns as firstMatrix
+	 * @param parallel, true if the computation has to be split among the available processors
+	 * @return the maximum over i and j of |firstMatrix[i][j] - secondMatrix[i][j]|
+	 */
+	public static double getMaxAbsoluteDifference(double[][] firstMatrix, double[][] secondMatrix, boolean parallel) {
+
+		checkDimensions(firstMatrix, secondMatrix);
+
+		return getRowIndices(firstMatrix.length, parallel)
+				.mapToDouble(rowIndex -> KERNELS.maxAbsoluteDifference(firstMatrix[rowIndex], secondMatrix[rowIndex]))
+				.max().orElse(0.0);
+	}
+
+	/**
+	 * It computes and returns the sum of the absolute values of the elements of the difference of two matrices. Divided by the number
+	 * of elements, it gives the average absolute difference
+	 * @param firstMatrix
+	 * @param secondMatrix, a matrix with the same number of rows and columns as firstMatrix
+	 * @param parallel, true if the computation has to be split among the available processors
+	 * @return the sum over i and j of |firstMatrix[i][j] - secondMatrix[i][j]|
+	 */
+	public static double getSumOfAbsoluteDifferences(double[][] firstMatrix, double[][] secondMatrix, boolean parallel) {
+
+		checkDimensions(firstMatrix, secondMatrix);
+
+		return getRowIndices(firstMatrix.length, parallel)
+				.mapToDouble(rowIndex -> KERNELS.sumOfAbsoluteDifferences(firstMatrix[rowIndex], secondMatrix[rowIndex]))
+				.sum();
+	}
+
+	/**
+	 * It computes and returns the Frobenius norm of the difference of two matrices
+	 * @param firstMatrix
+	 * @param secondMatrix, a matrix with the same number of rows and columns as firstMatrix
+	 * @param parallel, true if the computation has to be split among the available processors
+	 * @return the square root of the sum over i and j of (firstMatrix[i][j] - secondMatrix[i][j])^2
+	 */
+	public static double getFrobeniusNormOfDifference(double[][] firstMatrix, double[][] secondMatrix, boolean parallel) {
+
+		checkDimensions(firstMatrix, secondMatrix);
+
+		return Math.sqrt(getRowIndices(firstMatrix.length, parallel)
+				.mapToDouble(rowIndex -> KERNELS.sumOfSquaredDifferences(firstMatrix[rowIndex], secondMatrix[rowIndex]))
+				.sum());
+	}
+
+	private static IntStream getRowIndices(int numberOfRows, boolean parallel) {
+		IntStream rowIndices = IntStream.range(0, numberOfRows);
+		return parallel ? rowIndices.parallel() : rowIndices;
+	}
+
+	private static void checkDimensions(double[][] firstMatrix, double[][] secondMatrix) {
+		if (firstMatrix.length != secondMatrix.length) {
+			throw new IllegalArgumentException("The two matrices must have the same number of rows");
+		}
+		for (int rowIndex = 0; rowIndex < firstMatrix.length; rowIndex++) {
+			if (firstMatrix[rowIndex].length != secondMatrix[rowIndex].length) {
+				throw new IllegalArgumentException("The two matrices must have the same number of columns");
+			}
+		}
 	}
 	
 }
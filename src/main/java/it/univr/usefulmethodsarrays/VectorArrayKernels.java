@@ -0,0 +1,138 @@
+package it.univr.usefulmethodsarrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class implements the loops of ArrayKernels with the Vector API of the module jdk.incubator.vector: the arrays are read in
+ * blocks of as many elements as the widest vector register of the processor can contain, and every operation is done on the whole
+ * block at once. The last elements, which do not fill a block, are treated one by one.
+ *
+ * The module is still incubating in Java 17, so it has to be added both at compile time and at runtime with the option
+ * --add-modules jdk.incubator.vector. This class is only loaded by UsefulMethodsForArrays if the module is available.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+class VectorArrayKernels implements ArrayKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public double max(double[] array) {
+		int upperBound = SPECIES.loopBound(array.length);
+		double maximum = array[0];
+		int i = 0;
+		if (upperBound > 0) {
+			DoubleVector maximums = DoubleVector.fromArray(SPECIES, array, 0);
+			for (i = SPECIES.length(); i < upperBound; i += SPECIES.length()) {
+				maximums = maximums.max(DoubleVector.fromArray(SPECIES, array, i));
+			}
+			maximum = maximums.reduceLanes(VectorOperators.MAX);
+		}
+		//the remaining elements
+		for (; i < array.length; i++) {
+			maximum = Math.max(maximum, array[i]);
+		}
+		return maximum;
+	}
+
+	@Override
+	public double min(double[] array) {
+		int upperBound = SPECIES.loopBound(array.length);
+		double minimum = array[0];
+		int i = 0;
+		if (upperBound > 0) {
+			DoubleVector minimums = DoubleVector.fromArray(SPECIES, array, 0);
+			for (i = SPECIES.length(); i < upperBound; i += SPECIES.length()) {
+				minimums = minimums.min(DoubleVector.fromArray(SPECIES, array, i));
+			}
+			minimum = minimums.reduceLanes(VectorOperators.MIN);
+		}
+		for (; i < array.length; i++) {
+			minimum = Math.min(minimum, array[i]);
+		}
+		return minimum;
+	}
+
+	@Override
+	public double maxAbsoluteDifference(double[] firstArray, double[] secondArray) {
+		int upperBound = SPECIES.loopBound(firstArray.length);
+		DoubleVector maximums = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < upperBound; i += SPECIES.length()) {
+			DoubleVector differences = DoubleVector.fromArray(SPECIES, firstArray, i).sub(DoubleVector.fromArray(SPECIES, secondArray, i));
+			maximums = maximums.max(differences.abs());
+		}
+		double maximum = maximums.reduceLanes(VectorOperators.MAX);
+		for (; i < firstArray.length; i++) {
+			maximum = Math.max(maximum, Math.abs(firstArray[i] - secondArray[i]));
+		}
+		return maximum;
+	}
+
+	@Override
+	public double maxAbsoluteDifferenceAndCopy(double[] newArray, double[] oldArray) {
+		int upperBound = SPECIES.loopBound(newArray.length);
+		DoubleVector maximums = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < upperBound; i += SPECIES.length()) {
+			DoubleVector newValues = DoubleVector.fromArray(SPECIES, newArray, i);
+			maximums = maximums.max(newValues.sub(DoubleVector.fromArray(SPECIES, oldArray, i)).abs());
+			//the block of the old array has already been read, so it can be overwritten
+			newValues.intoArray(oldArray, i);
+		}
+		double maximum = maximums.reduceLanes(VectorOperators.MAX);
+		for (; i < newArray.length; i++) {
+			maximum = Math.max(maximum, Math.abs(newArray[i] - oldArray[i]));
+			oldArray[i] = newArray[i];
+		}
+		return maximum;
+	}
+
+	@Override
+	public double sumOfAbsoluteDifferences(double[] firstArray, double[] secondArray) {
+		int upperBound = SPECIES.loopBound(firstArray.length);
+		DoubleVector sums = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < upperBound; i += SPECIES.length()) {
+			DoubleVector differences = DoubleVector.fromArray(SPECIES, firstArray, i).sub(DoubleVector.fromArray(SPECIES, secondArray, i));
+			sums = sums.add(differences.abs());
+		}
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for (; i < firstArray.length; i++) {
+			sum += Math.abs(firstArray[i] - secondArray[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double sumOfSquaredDifferences(double[] firstArray, double[] secondArray) {
+		int upperBound = SPECIES.loopBound(firstArray.length);
+		DoubleVector sums = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < upperBound; i += SPECIES.length()) {
+			DoubleVector differences = DoubleVector.fromArray(SPECIES, firstArray, i).sub(DoubleVector.fromArray(SPECIES, secondArray, i));
+			sums = differences.fma(differences, sums);
+		}
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for (; i < firstArray.length; i++) {
+			double difference = firstArray[i] - secondArray[i];
+			sum += difference * difference;
+		}
+		return sum;
+	}
+
+	@Override
+	public void difference(double[] firstArray, double[] secondArray, double[] difference) {
+		int upperBound = SPECIES.loopBound(firstArray.length);
+		int i = 0;
+		for (; i < upperBound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, firstArray, i).sub(DoubleVector.fromArray(SPECIES, secondArray, i)).intoArray(difference, i);
+		}
+		for (; i < firstArray.length; i++) {
+			difference[i] = firstArray[i] - secondArray[i];
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package it.univr.cevprices;
+
+/**
+ * This class tests CevMonteCarloSimulator: the Monte Carlo prices of call options are compared with the ones computed by CevPrices, for
+ * an exponent smaller and one bigger than one. A call on the displaced process with strike K is a call on X + d with strike K + d, so the
+ * prices with a displacement are also compared with CevPrices. At the end we also print the price of a knock-out call.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class CevMonteCarloSimulatorTest {
+
+	public static void main(String[] args) {
+
+		double initialValue = 1.0;
+		double sigma = 0.3;
+		double maturity = 1.0;
+		double[] strikes = {0.8, 1.0, 1.2};
+
+		int numberOfTimeSteps = 200;
+		long numberOfPaths = 1_000_000;
+		long seed = 1897;
+
+		double[] exponents = {0.5, 1.5};
+		double[] displacements = {0.0, 0.5};
+
+		PathPayoff[] payoffs = new PathPayoff[strikes.length];
+		for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+			payoffs[strikeIndex] = new EuropeanCallPayoff(strikes[strikeIndex]);
+		}
+
+		for (double exponent : exponents) {
+			for (double displacement : displacements) {
+
+				CevMonteCarloSimulator simulator = new CevMonteCarloSimulator(initialValue, sigma, exponent, displacement, maturity,
+						numberOfTimeSteps, numberOfPaths, seed);
+
+				long startTime = System.currentTimeMillis();
+				PayoffAccumulator[] accumulators = simulator.getAccumulatedPayoffs(payoffs);
+				long endTime = System.currentTimeMillis();
+
+				System.out.println("Exponent " + exponent + ", displacement " + displacement + ", time for the simulation: "
+						+ (endTime - startTime) + " ms");
+
+				for (int strikeIndex = 0; strikeIndex < strikes.length; strikeIndex++) {
+					double displacedInitialValue = initialValue + displacement;
+					double displacedStrike = strikes[strikeIndex] + displacement;
+					double analyticPrice = exponent > 1
+							? CevPrices.CEVPriceCallForExponentBiggerThanOne(displacedInitialValue, sigma, exponent, maturity, displacedStrike)
+							: CevPrices.CEVPriceCallForExponentSmallerEqualOne(displacedInitialValue, sigma, exponent, maturity, displacedStrike);
+
+					System.out.println("Strike " + strikes[strikeIndex] + ": Monte Carlo price " + accumulators[strikeIndex].getAverage()
+							+ " with standard error " + accumulators[strikeIndex].getStandardError() + ", analytic price " + analyticPrice);
+				}
+				System.out.println();
+			}
+		}
+
+		double barrier = 1.5;
+		CevMonteCarloSimulator simulator = new CevMonteCarloSimulator(initialValue, sigma, 0.5, 0.0, maturity, numberOfTimeSteps,
+				numberOfPaths, seed);
+		PayoffAccumulator[] accumulators = simulator.getAccumulatedPayoffs(new BarrierCallPayoff(1.0, barrier, true),
+				new EuropeanCallPayoff(1.0));
+		System.out.println("Price of the call with strike 1.0 knocked out above " + barrier + ": " + accumulators[0].getAverage()
+				+ " with standard error " + accumulators[0].getStandardError() + ", price without barrier " + accumulators[1].getAverage());
+	}
+}
@@ -1,6 +1,9 @@
 package it.univr.neuralnetworks;
 
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 
 import net.finmath.exception.CalculationException;
@@ -15,7 +18,8 @@ import net.finmath.time.TimeDiscretizationFromArray;
 /**
  * This class tests the implementation of the class DeepHedging to get the final portfolio values for an hedging strategy (so, profits and losses only
  * coming from the strategies minus payoff to pay plus price at which the derivative is sold) when the underlying is given by Black-Scholes.
- * It trains the network with 10000 trajectories and test it with 10.
+ * It trains the network with 10000 trajectories and test it with 10. The trained network is stored in a file in the temporary directory:
+ * when the test is run again with the same parameters, the network is read from there instead of being trained again.
  * 
  * @author Andrea Mazzon
  *
@@ -23,7 +27,7 @@ import net.finmath.time.TimeDiscretizationFromArray;
 public class DeepHedgingTest {
 
 
-	public static void main(String[] args) throws CalculationException {
+	public static void main(String[] args) throws CalculationException, IOException {
 		//we use it to print the final values
 		DecimalFormat formatter = new DecimalFormat("0.00");
 
@@ -63,8 +67,14 @@ public class DeepHedgingTest {
 		int numberOfEpochs = 30;
 		double learningRate = 0.01;
 		
+		/*
+		 * The directory where the trained network is stored, in a file whose name depends on the parameters above and on the simulated
+		 * trajectories: if they are changed, the network is trained again
+		 */
+		Path checkpointDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "deepHedging");
+
 		DeepHedging tester = new DeepHedging(pricesGenerator, numberOfNodesForFirstLayer,numberOfNodesForSecondLayer,numberOfEpochs, learningRate,
-				strike, blackScholesPrice, seed);
+				strike, blackScholesPrice, seed, checkpointDirectory);
 
 		//parameters for the price generator of the test set
 		int numberOfPathsToTest = 10;		
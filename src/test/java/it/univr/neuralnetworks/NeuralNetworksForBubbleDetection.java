@@ -1,7 +1,8 @@
 package it.univr.neuralnetworks;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
-import java.util.Random;
 import java.util.stream.DoubleStream;
 
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
@@ -12,14 +13,10 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 
 
 import org.nd4j.linalg.activations.Activation;
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
 
-import it.univr.cevprices.CevPrices;
-
 /**
  * This class uses the libraries deeplearning4j and nd4j in order to create and train a neural network which has to learn if
  * an underlying process is a strict local martingale (i.e., if it has a financial bubble) or a true martingale (i.e., it has
@@ -33,13 +30,18 @@ import it.univr.cevprices.CevPrices;
  * models, and they are strict local martingales if and only if beta_i>1. In this example, we have sigma = 1.0 and x_0=2.
  * 
  * The call prices generated by this model can be computed analytically, and we do that in the class it.univr.cevprices.CevPrices.
+ * The prices for all the underlyings are generated in parallel by the class BubbleDetectionDataGenerator, and stored on disk by
+ * BubbleDetectionDataCache: when the program is run again with the same parameters, they are read instead of computed again.
  * We take 15 equally-spaced strikes between 1.5 and 3.0, and 20 equally-spaced maturities from 1.0 to 2.0.  
  * 
  * With these data, we train a neural network with 2 hidden layers of 60 and 20 nodes, respectively, giving it prices generated
  * in half cases by true martingale and in half cases by strict local martingales. We compute the weights and the biases via the
- * Adam algorithm with learning rate equal to 0.001 and 30 epochs. 
+ * Adam algorithm with learning rate equal to 0.001, for 10 epochs of mini-batches of 128 rows, by BubbleDetectionTrainer. 
  * 
  * We then test it for prices generated by processes following (1) with other displacements and exponents. 
+ * The predictions for these prices are given by an object of type BubbleDetector, which can be used for any new prices.
+ * The trained network is stored by a ModelCheckpoint: when the program is run again with the same network, training parameters and
+ * training data, it is read instead of being trained again.
  * 
  * @author Andrea Mazzon
  *
@@ -47,13 +49,14 @@ import it.univr.cevprices.CevPrices;
 public class NeuralNetworksForBubbleDetection {
 
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 
 		//we use it to print the bubble probabilities
 		DecimalFormat formatter = new DecimalFormat("0.00");
 
-		//we use it to generate the random displacements d_i and exponents beta_i 
-		Random randomGenerator = new Random();
+		//the random displacements d_i and exponents beta_i are generated from these seeds: the data are the same at every run
+		long seedForTraining = 3141;
+		long seedForTesting = 2718;
 
 		//we train the network with prices generated by 10000 underlyings; 5000 strict local martingales, 5000 martingales
 		int numberOfStrictLocalAndTrueMartingalesPerModelTraining = 5000;
@@ -83,73 +86,29 @@ public class NeuralNetworksForBubbleDetection {
 		double exponentSmallTrueMartingale = 0.5;
 		double exponentBigTrueMartingale = 1.0;
 
-		double exponentsRangeTrueMartingale = exponentBigTrueMartingale - exponentSmallTrueMartingale;
-
 		//the interval where we generate the random exponents for the strict local martingales 
 		double exponentSmallStrictLocalMartingale = 1.1;
 		double exponentBigStrictLocalMartingale = 1.5;
 
-		double exponentsRangeStrictLocalMartingale = exponentBigStrictLocalMartingale - exponentSmallStrictLocalMartingale;
-
 		//the interval where we generate the random displcaments for both true martingales and strict local martingales
 		double displacementSmall = 0;
 		double displacementBig = 0.2;
 		double sigma = 1;
 
-		//rows are prices generated by a given underlying, for all strikes and maturities
-		double[][] pricesForTraining = new double[2*numberOfStrictLocalAndTrueMartingalesPerModelTraining][numberOfStrikes*numberOfMaturities];
+		BubbleDetectionDataGenerator dataGenerator = new BubbleDetectionDataGenerator(initialValue, sigma, strikes, maturities,
+				exponentSmallTrueMartingale, exponentBigTrueMartingale, exponentSmallStrictLocalMartingale, exponentBigStrictLocalMartingale,
+				displacementSmall, displacementBig);
+
+		//the prices are stored in this directory, in a file whose name depends on all the parameters above
+		BubbleDetectionDataCache dataCache = new BubbleDetectionDataCache(Paths.get(System.getProperty("java.io.tmpdir"), "cevPrices"));
 
 		/*
-		 * They will be 1 for strict local martingales, 0 for martingales. So we hope that the network "learns the rule" that associates
-		 * prices to these labels. We define it as a matrix with only one columns to make it compatible with the output of the network 
+		 * This is the DataSet to train the network that we construct below. Rows are prices generated by a given underlying, for all strikes
+		 * and maturities: rows with even indices have the prices generated by the true martingales, with label 0, whereas rows with odd
+		 * indices have prices generated by strict local martingales, with label 1. So we hope that the network "learns the rule" that
+		 * associates prices to these labels.
 		 */
-		double[][] labelsForTraining = new double[2*numberOfStrictLocalAndTrueMartingalesPerModelTraining][1];
-
-		//we fill the matrix
-		for (int trainingDataIndex = 0; trainingDataIndex < numberOfStrictLocalAndTrueMartingalesPerModelTraining; trainingDataIndex++) {
-
-			//generations of exponents in the intervals of true martingales and strict local martingales, respectively
-			double exponentTrueMartingale = exponentSmallTrueMartingale + exponentsRangeTrueMartingale*randomGenerator.nextDouble();
-			double exponentStrictLocalMartingale = exponentSmallStrictLocalMartingale + exponentsRangeStrictLocalMartingale*randomGenerator.nextDouble();
-
-			//generations of displacements for the true martingale and the strict local martingale, respectively (same interval, different generation)
-			double displacementTrueMartingale = displacementSmall + displacementBig*randomGenerator.nextDouble();
-			double displacementStrictLocalMartingale = displacementSmall + displacementBig*randomGenerator.nextDouble();
-
-			//we compute the prices for the given exponents and displacements, and all combinations of strikes and maturities 
-			for (int maturityIndex = 0; maturityIndex < numberOfMaturities; maturityIndex ++) {
-				for (int strikeIndex = 0; strikeIndex < numberOfStrikes; strikeIndex ++) {
-
-
-					double callPriceForTrueMartingale = CevPrices.CEVPriceCallForExponentSmallerEqualOne(initialValue + displacementTrueMartingale, sigma,
-							exponentTrueMartingale, maturities[maturityIndex], strikes[strikeIndex] + displacementTrueMartingale);
-
-					double callPriceForStrictLocalMartingale = CevPrices.CEVPriceCallForExponentBiggerThanOne(initialValue + displacementStrictLocalMartingale, sigma,
-							exponentStrictLocalMartingale, maturities[maturityIndex], strikes[strikeIndex] + displacementStrictLocalMartingale);
-
-					/*
-					 * We place them in two consecutive rows: so rows with even indices have the prices generated by the true martingales whereas rows with
-					 * odd indices have prices generated by strict local martingales. 
-					 */
-					pricesForTraining[2*trainingDataIndex][maturityIndex * numberOfStrikes + strikeIndex] =  callPriceForTrueMartingale;
-					pricesForTraining[2*trainingDataIndex + 1][maturityIndex * numberOfStrikes + strikeIndex] =  callPriceForStrictLocalMartingale;
-
-				}
-			}
-			/*
-			 * We place them in two consecutive rows: so rows with even indices have label 0 (they are true martingales) whereas rows with odd indices
-			 * have label 1 (they are strict local martingales). 
-			 */
-			labelsForTraining[2*trainingDataIndex][0] = 0;
-			labelsForTraining[2*trainingDataIndex + 1][0] = 1;
-		}
-
-		//we transform the two matrices in objects that can be used to create a DataSet to train the network that we construct below
-		INDArray pricesDataForTraining = Nd4j.create(pricesForTraining);
-		INDArray labelsDataForTraining = Nd4j.create(labelsForTraining);
-
-		//this is the DataSet to train the network that we construct below
-		DataSet trainingData = new DataSet(pricesDataForTraining, labelsDataForTraining);
+		DataSet trainingData = dataCache.getDataSet(dataGenerator, numberOfStrictLocalAndTrueMartingalesPerModelTraining, seedForTraining);
 
 		double learningRate = 0.001;
 		MultiLayerConfiguration layersConstruction = new NeuralNetConfiguration.Builder()
@@ -181,68 +140,48 @@ public class NeuralNetworksForBubbleDetection {
 						.build())
 				.build();
 
-		//we construct a neural network out of these layers..
-		MultiLayerNetwork network = new MultiLayerNetwork(layersConstruction);
-		//..and we make it ready to be trained
-		network.init();
+		/*
+		 * The network is trained by mini-batches of 128 rows, shuffled at every epoch. With more than one worker, copies of the network
+		 * are trained in parallel on different batches, and their parameters are averaged every averagingFrequency batches
+		 */
+		int batchSize = 128;
+		long seedForShuffling = 1618;
+		int numberOfPrefetchedBatches = 4;
+		int numberOfWorkers = 1;
+		int averagingFrequency = 5;
+		int numberOfEpochs = 10;
 
-		//we then train it iteratively, for any epoch
-        int numberOfEpochs = 30; // Specify the number of epochs
-        for (int i = 0; i < numberOfEpochs; i++) {
-        	network.fit(trainingData);
-        }
+		/*
+		 * The trained network is stored in this directory, in a file whose name depends on the configuration of the network, on the
+		 * parameters of the training and on the training data: if it is already there, it is read instead of being trained again. It is
+		 * constructed before the training, which shuffles the rows of the data
+		 */
+		String trainingDescription = layersConstruction.toJson() + "\nbatchSize=" + batchSize + "\nseedForShuffling=" + seedForShuffling
+				+ "\nnumberOfWorkers=" + numberOfWorkers + "\naveragingFrequency=" + averagingFrequency + "\nnumberOfEpochs=" + numberOfEpochs;
+		ModelCheckpoint checkpoint = new ModelCheckpoint(Paths.get(System.getProperty("java.io.tmpdir"), "bubbleDetection"),
+				trainingDescription, trainingData.getFeatures(), trainingData.getLabels());
+
+		MultiLayerNetwork network;
+		if (checkpoint.exists()) {
+			network = checkpoint.loadMultiLayerNetwork();
+		} else {
+			//we construct a neural network out of these layers..
+			network = new MultiLayerNetwork(layersConstruction);
+			//..and we make it ready to be trained
+			network.init();
+
+			BubbleDetectionTrainer trainer = new BubbleDetectionTrainer(batchSize, seedForShuffling, numberOfPrefetchedBatches,
+					numberOfWorkers, averagingFrequency);
+			trainer.train(network, trainingData, numberOfEpochs);
+
+			checkpoint.save(network);
+		}
 
         /*
          * Now we generate the prices to give to the trained network to give a probability that the underlyings that have generated them are
          * strict local martingales instead of true martingales
          */
-        double[][] pricesForTesting = new double[2*numberOfStrictLocalAndTrueMartingalesPerModelTesting][numberOfStrikes*numberOfMaturities];
-
-        /*
-		 * They will be 1 for strict local martingales, 0 for martingales. So we hope that the network "learns the rule" that associates
-		 * prices to these labels. We define it as a matrix with only one columns to make it compatible with the output of the network 
-		 */
-		double[][] labelsForTesting = new double[2*numberOfStrictLocalAndTrueMartingalesPerModelTesting][1];
-
-
-        //we fill the matrix of the prices for the testing
-		for (int testingDataIndex = 0; testingDataIndex < numberOfStrictLocalAndTrueMartingalesPerModelTesting; testingDataIndex++) {
-
-			//generations of exponents in the intervals of true martingales and strict local martingales, respectively
-			double exponentTrueMartingale = exponentSmallTrueMartingale + exponentsRangeTrueMartingale*randomGenerator.nextDouble();
-			double exponentStrictLocalMartingale = exponentSmallStrictLocalMartingale + exponentsRangeStrictLocalMartingale*randomGenerator.nextDouble();
-
-			//generations of displacements for the true martingale and the strict local martingale, respectively (same interval, different generation)
-			double displacementTrueMartingale = displacementSmall + displacementBig*randomGenerator.nextDouble();
-			double displacementStrictLocalMartingale = displacementSmall + displacementBig*randomGenerator.nextDouble();
-
-			//we compute the prices for the given exponents and displacements, and all combinations of strikes and maturities
-			for (int maturityIndex = 0; maturityIndex < numberOfMaturities; maturityIndex ++) {
-				for (int strikeIndex = 0; strikeIndex < numberOfStrikes; strikeIndex ++) {
-					double callPriceForTrueMartingale = CevPrices.CEVPriceCallForExponentSmallerEqualOne(initialValue + displacementTrueMartingale, sigma,
-							exponentTrueMartingale, maturities[maturityIndex], strikes[strikeIndex] + displacementTrueMartingale);
-					double callPriceForStrictLocalMartingale = CevPrices.CEVPriceCallForExponentBiggerThanOne(initialValue + displacementStrictLocalMartingale, sigma,
-							exponentStrictLocalMartingale, maturities[maturityIndex], strikes[strikeIndex] + displacementStrictLocalMartingale);
-
-					/*
-					 * We place them in two consecutive rows: so rows with even indices have the prices generated by the true martingales whereas rows with
-					 * odd indices have prices generated by strict local martingales. 
-					 */
-					pricesForTesting[2*testingDataIndex][maturityIndex * numberOfStrikes + strikeIndex] =  callPriceForTrueMartingale;
-					pricesForTesting[2*testingDataIndex + 1][maturityIndex * numberOfStrikes + strikeIndex] =  callPriceForStrictLocalMartingale;
-				}
-			}
-			labelsForTesting[2*testingDataIndex][0] = 0;
-			labelsForTesting[2*testingDataIndex + 1][0] = 1;
-		}	
-
-		//we trasnform the matrix in an object that can be given to the trained network to produce its predictions
-		INDArray pricesDataForTesting = Nd4j.create(pricesForTesting);
-
-		//the true labels: we want to compare them with the probabilities given by the network
-		INDArray labelsDataForTesting = Nd4j.create(labelsForTesting);
-
-		DataSet testingData = new DataSet(pricesDataForTesting, labelsDataForTesting);
+        DataSet testingData = dataCache.getDataSet(dataGenerator, numberOfStrictLocalAndTrueMartingalesPerModelTesting, seedForTesting);
 
 		//we print the score for both the training and testing set: the closer to 1, the better
 		System.out.println("Score for training:");
@@ -255,11 +194,13 @@ public class NeuralNetworksForBubbleDetection {
 
 		System.out.println();
 
-		//we get the the predictions of the network..
-		INDArray predictionsAsINDArray = network.output(pricesDataForTesting);
+		//these are the prices to give to the trained network to produce its predictions, all the surfaces one after the other
+		double[] pricesForTesting = testingData.getFeatures().data().asDouble();
 
-		//and we transform them into a double array
-		double[] predictions = predictionsAsINDArray.toDoubleVector();
+		//the predictions are made by a BubbleDetector, which gives the prices to the network in batches of at most 8 surfaces
+		BubbleDetector bubbleDetector = new BubbleDetector(network, 8);
+		double[] predictions = new double[2 * numberOfStrictLocalAndTrueMartingalesPerModelTesting];
+		bubbleDetector.computeBubbleProbabilities(pricesForTesting, 0, predictions.length, predictions, 0);
 
 		System.out.println("Probabilities outputs that the underlyings are strict local martingales when they are true martingales:");
 
@@ -275,6 +216,10 @@ public class NeuralNetworksForBubbleDetection {
 			System.out.println(formatter.format(predictions[2*indexForStrictLocalMartingales+1]));
 		}
 
-	}
+		System.out.println();
 
-}
\ No newline at end of file
+		System.out.println("Number of batches: " + bubbleDetector.getNumberOfBatches() + ", average latency of a batch: "
+				+ bubbleDetector.getAverageLatency() + " ms, surfaces per second: " + bubbleDetector.getThroughput());
+
+	}
+}
@@ -0,0 +1,82 @@
+package it.univr.pdesolvers;
+
+import java.text.DecimalFormat;
+
+import net.finmath.functions.NormalDistribution;
+
+/**
+ * This class tests the Douglas ADI solver for PDEs with two space variables. We consider two correlated geometric Brownian motions X and Y
+ * with zero drift, and the function v(t,x,y) = E[(X_t Y_t - K)^+ | X_0 = x, Y_0 = y]. This solves the PDE of DouglasADIPDESolverFor2DSpace
+ * with sigma_x(x,y) = sigma_1 x, sigma_y(x,y) = sigma_2 y, constant correlation rho and b_x=b_y=f=0. Since the product of X and Y is a
+ * geometric Brownian motion with volatility sigma = (sigma_1^2 + sigma_2^2 + 2 rho sigma_1 sigma_2)^(1/2) and drift rho sigma_1 sigma_2, the
+ * function v can be computed analytically by a Black-Scholes formula. No control is present, so the controls are all zero.
+ *
+ * @author Andrea Mazzon
+ *
+ */
+public class DouglasADIPDESolverFor2DSpaceTest {
+
+	public static void main(String[] args) {
+
+		DecimalFormat formatterForValue = new DecimalFormat("0.0000");
+
+		double firstVolatility = 0.3;
+		double secondVolatility = 0.2;
+		double correlation = 0.5;
+		double strike = 1.0;
+
+		double leftEnd = 0.0;
+		double rightEnd = 4.0;
+		double spaceStep = 0.04;
+
+		double finalTime = 1.0;
+		double timeStep = 0.01;
+
+		int numberOfPoints = (int) Math.ceil((rightEnd - leftEnd) / spaceStep) + 1;
+		int numberOfTimeSteps = (int) Math.ceil(finalTime / timeStep);
+
+		double[] controls = new double[numberOfTimeSteps * numberOfPoints * numberOfPoints];
+
+		DouglasADIPDESolverFor2DSpace solver = new DouglasADIPDESolverFor2DSpace(spaceStep, spaceStep, timeStep, leftEnd, rightEnd, leftEnd, rightEnd,
+				finalTime,
+				(t, x, y, a) -> 0.0, //drift for x
+				(t, x, y, a) -> 0.0, //drift for y
+				(t, x, y, a) -> firstVolatility * x,
+				(t, x, y, a) -> secondVolatility * y,
+				(t, x, y, a) -> correlation,
+				(t, x, y, a) -> 0.0, //no running reward
+				(x, y) -> Math.max(x * y - strike, 0.0),
+				(y, t) -> 0.0, //the product is zero at the left boundaries
+				(x, t) -> 0.0,
+				controls, 1);
+
+		double volatilityOfProduct = Math.sqrt(firstVolatility * firstVolatility + secondVolatility * secondVolatility
+				+ 2 * correlation * firstVolatility * secondVolatility);
+		double driftOfProduct = correlation * firstVolatility * secondVolatility;
+
+		double[] spaceToCheck = {0.6, 1.0, 1.4};
+
+		long startTime = System.currentTimeMillis();
+		solver.getSolution();
+		long endTime = System.currentTimeMillis();
+
+		System.out.println("Time needed to solve the PDE: " + (endTime - startTime) / 1000.0 + " seconds");
+		System.out.println();
+
+		for (double x : spaceToCheck) {
+			for (double y : spaceToCheck) {
+
+				double forward = x * y * Math.exp(driftOfProduct * finalTime);
+				double standardDeviation = volatilityOfProduct * Math.sqrt(finalTime);
+				double d1 = (Math.log(forward / strike) + 0.5 * standardDeviation * standardDeviation) / standardDeviation;
+				double analyticValue = forward * NormalDistribution.cumulativeDistribution(d1)
+						- strike * NormalDistribution.cumulativeDistribution(d1 - standardDeviation);
+
+				System.out.println("x: " + x + " y: " + y);
+				System.out.println("Analytic value " + formatterForValue.format(analyticValue));
+				System.out.println("Approximated value " + formatterForValue.format(solver.getSolutionForGivenTimeAndSpace(finalTime, x, y)));
+				System.out.println();
+			}
+		}
+	}
+}